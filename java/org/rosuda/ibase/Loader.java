@@ -37,14 +37,47 @@ class LoaderDelphiFilter {
     void addValue(int col, String val, int line) {
         if (rows<0) rows=0; // if nextRow was not called, it's fine, but we need to set rows to 0
         if (val!=null && (val.equals("NA"))) val=null;
+        SVar v=target(col, line);
+        if (v==null) return;
+        if (vt[col]==VT_unknown) {
+            if (val==null) { v.add(null); return; }
+            try {
+                Double d=Double.valueOf(val);
+                vt[col]|=VT_num|VT_known;
+                v.add(d);
+                return;
+            } catch (NumberFormatException nfe) {
+                v.add(val);
+                v.categorize();
+                vt[col]|=VT_cat|VT_known;
+            }
+        } else {
+            if ((vt[col]&VT_num)>0) {
+                if (val==null) { v.add(null); return; }
+                try {
+                    Double d=Double.valueOf(val);
+                    v.add(d);
+                    return;
+                } catch (NumberFormatException nfe) {
+                    System.out.println("Loader, line "+line+", column "+(col+1)+": expected numerical value, found \""+val+"\"; treating as missing.");
+                    v.add(null);
+                    return;
+                }
+            }
+            v.add(val);
+        }
+    }
+
+    /** returns the variable for a column after filling in missing previous rows or <code>null</code> if the value is to be dropped */
+    SVar target(int col, int line) {
         if (col<0 || col>=vt.length) {
             System.out.println("Loader, line "+line+": column "+(col+1)+" has no header, dropping.");
-            return;
+            return null;
         }
         SVar v=vs.at(col);
         if (v==null) {
             System.out.println("Loader, line "+line+": variable for column "+(col+1)+" is null.");
-            return;
+            return null;
         }
         int vsz=v.size();
         if (vsz<rows) {
@@ -56,33 +89,113 @@ class LoaderDelphiFilter {
         }
         if (rows<vsz) {
             System.out.println("Loader, line "+line+": FATAL! The variable "+v.getName()+" has already "+vsz+" entries, but this is the entry "+rows+"!");
-            return;
+            return null;
         }
+        return v;
+    }
+
+    /** kinds of pre-parsed values, see {@link #addParsed} */
+    static final int PV_NA  = 0;
+    static final int PV_NUM = 1;
+    static final int PV_STR = 2;
+
+    /** adds a value that was already parsed - the result is the same as calling {@link #addValue} with the string of the value. This is used by the parallel loader which parses the values on several threads.
+        @param col column index (0..variables-1)
+        @param kind kind of the value: {@link #PV_NA} (missing), {@link #PV_NUM} (number accepted by <code>Double.valueOf</code>) or {@link #PV_STR} (anything else)
+        @param d value of a number
+        @param val string of the value - can be <code>null</code> for numbers, it is then obtained from the buffer if needed
+        @param tb buffer containing the value
+        @param s start of the value in the buffer
+        @param e end of the value in the buffer
+        @param line this value will be printed in warnings */
+    void addParsed(int col, int kind, double d, String val, TextBuffer tb, int s, int e, int line) {
+        if (rows<0) rows=0;
+        SVar v=target(col, line);
+        if (v==null) return;
         if (vt[col]==VT_unknown) {
-            if (val==null) { v.add(null); return; }
-            try {
-                Double d=Double.valueOf(val);
+            if (kind==PV_NA) { v.add(null); return; }
+            if (kind==PV_NUM) {
                 vt[col]|=VT_num|VT_known;
-                v.add(d);
+                v.add(new Double(d));
                 return;
-            } catch (NumberFormatException nfe) {
-                v.add(val);
-                v.categorize();
-                vt[col]|=VT_cat|VT_known;
             }
+            v.add(val);
+            v.categorize();
+            vt[col]|=VT_cat|VT_known;
         } else {
             if ((vt[col]&VT_num)>0) {
-                try {
-                    Double d=Double.valueOf(val);
-                    v.add(d);
-                    return;
-                } catch (NumberFormatException nfe) {
-                    System.out.println("Loader, line "+line+", column "+(col+1)+": expected numerical value, found \""+val+"\"; treating as missing.");
-                    v.add(null);
-                    return;
+                if (kind==PV_NA) { v.add(null); return; }
+                if (kind==PV_NUM) { v.add(new Double(d)); return; }
+                System.out.println("Loader, line "+line+", column "+(col+1)+": expected numerical value, found \""+val+"\"; treating as missing.");
+                v.add(null);
+                return;
+            }
+            v.add((kind==PV_NA)?null:((val!=null)?val:tb.string(s,e)));
+        }
+    }
+}
+
+/** lines of a TSV file split into tokens and parsed (one chunk of the parallel loader) */
+class LoaderTSVChunk {
+    /** number of tokens of each line, -1 for an empty line (which ends the data) */
+    int[] lineTokens;
+    int lines;
+    /** start, end, kind (see {@link LoaderDelphiFilter#addParsed}), numeric value and string of each token */
+    int[] ts, te;
+    byte[] tk;
+    double[] td;
+    String[] tstr;
+
+    /** tokenizes (like <code>StringTokenizer</code> with tab as delimiter) and parses all lines between <code>from</code> and <code>to</code> (both must be line starts) */
+    void parse(TextBuffer tb, int from, int to) {
+        // pass 1: count lines and tokens
+        int nl=0, nt=0, pos=from;
+        while (pos<to) {
+            final int e=tb.lineEnd(pos);
+            nl++;
+            if (e==pos) break;
+            boolean in=false;
+            while (pos<e) {
+                final boolean tab=(tb.b.get(pos++)=='\t');
+                if (!tab && !in) nt++;
+                in=!tab;
+            }
+            pos=tb.nextLine(e);
+        }
+        lineTokens=new int[nl];
+        ts=new int[nt]; te=new int[nt]; tk=new byte[nt]; td=new double[nt]; tstr=new String[nt];
+        // pass 2: find and parse the tokens
+        int t=0;
+        pos=from;
+        while (lines<nl) {
+            final int e=tb.lineEnd(pos);
+            if (e==pos) { lineTokens[lines++]=-1; break; }
+            final int t0=t;
+            while (pos<e) {
+                while (pos<e && tb.b.get(pos)=='\t') pos++;
+                if (pos>=e) break;
+                final int s=pos;
+                while (pos<e && tb.b.get(pos)!='\t') pos++;
+                ts[t]=s; te[t]=pos;
+                if (tb.isNA(s,pos)) tk[t]=LoaderDelphiFilter.PV_NA;
+                else {
+                    double d=tb.scanDouble(s,pos);
+                    if (TextBuffer.isSimple(d)) {
+                        tk[t]=LoaderDelphiFilter.PV_NUM; td[t]=d;
+                    } else {
+                        final String str=tb.string(s,pos);
+                        try {
+                            td[t]=Double.valueOf(str).doubleValue();
+                            tk[t]=LoaderDelphiFilter.PV_NUM;
+                        } catch (NumberFormatException nfe) {
+                            tk[t]=LoaderDelphiFilter.PV_STR; tstr[t]=str;
+                        }
+                    }
                 }
+                t++;
             }
-            v.add(val);
+            lineTokens[lines++]=t-t0;
+            pos=tb.nextLine(e);
         }
     }
 }
@@ -520,6 +633,85 @@ public class Loader {
         return 0;
     }
 
+    /** minimal number of bytes per thread in one round of the parallel TSV loader */
+    static final int TSV_ROUND = 1<<22;
+
+    /** loads a TSV file in parallel, the result is identical to {@link #LoadTSV(BufferedReader,SVarSet,boolean)}. The file is mapped into memory and processed in rounds of whole lines. The lines of each round are split into byte ranges which are tokenized and parsed by several threads at once (numbers are parsed without creating objects), then the values are added to the variables in the order of the file on the calling thread. The serial loader is used instead if no filter is used (there is nothing to parse then), the file is too large to be mapped or it uses <code>\r</code> as line terminator.
+        @param f file to load
+        @param vset set to add the variables to
+        @param useFilter if <code>true</code> numeric columns are detected and parsed, otherwise all values are added as strings
+        @param pd progress dialog to report to or <code>null</code>
+        @return number of records loaded */
+    public static int LoadTSV(File f, SVarSet vset, boolean useFilter, ProgressDlg pd) throws IOException {
+        final TextBuffer tb=useFilter?TextBuffer.map(f):null;
+        if (tb==null || tb.hasLoneCR() || tb.lines()<1) {
+            BufferedReader r=new BufferedReader(new FileReader(f));
+            try {
+                return LoadTSV(r, vset, useFilter);
+            } finally {
+                r.close();
+            }
+        }
+        int line=0;
+        int vsb=vset.count();
+        String s=tb.readLine();
+        line++;
+        StringTokenizer st=new StringTokenizer(s,"\t");
+        while (st.hasMoreTokens()) {
+            String t=st.nextToken();
+            SVar v=new SVarObj(t);
+            vset.add(v);
+        }
+        int j=0;
+        LoaderDelphiFilter flt=new LoaderDelphiFilter(vset);
+        final int ch=Parallel.threads();
+        final int[] cs=new int[ch+1];
+        final LoaderTSVChunk[] chunks=new LoaderTSVChunk[ch];
+        int pos=tb.cpos;
+        boolean atEnd=false;
+        while (pos<tb.len && !atEnd) {
+            // split the next round into chunks of whole lines
+            long re=((long)pos)+((long)TSV_ROUND)*((long)ch);
+            int c=0;
+            while (c<=ch) {
+                long p=pos+(re-pos)*c/ch;
+                cs[c]=(p>=tb.len)?tb.len:((c==0)?pos:tb.nextLine((int)p-1));
+                if (c>0 && cs[c]<cs[c-1]) cs[c]=cs[c-1];
+                c++;
+            }
+            Parallel.forChunks(ch, ch, new Parallel.Task() {
+                public void run(int chunk, int from, int to) {
+                    while (from<to) {
+                        chunks[from]=new LoaderTSVChunk();
+                        chunks[from].parse(tb, cs[from], cs[from+1]);
+                        from++;
+                    }
+                }
+            });
+            c=0;
+            while (c<ch && !atEnd) {
+                final LoaderTSVChunk k=chunks[c++];
+                int l=0, t=0;
+                while (l<k.lines) {
+                    line++;
+                    final int nt=k.lineTokens[l++];
+                    if (nt<0) { atEnd=true; break; }
+                    flt.nextRecord();
+                    int i=0;
+                    while (i<nt) {
+                        flt.addParsed(vsb+i, k.tk[t], k.td[t], k.tstr[t], tb, k.ts[t], k.te[t], line);
+                        i++; t++;
+                    }
+                    j++;
+                }
+                chunks[c-1]=null;
+            }
+            pos=cs[ch];
+            if (pd!=null) pd.setProgress((int)(100L*((long)pos)/((long)tb.len)));
+        }
+        return j;
+    }
+
     public static int LoadPolygons(BufferedReader r) {
         return 0;
     }
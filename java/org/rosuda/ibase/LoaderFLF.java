@@ -62,7 +62,147 @@ data are more tricky:
 */
 
 public class LoaderFLF {
+	/** number of records in a piece of a column - pieces are the units of work of the parallel loader */
+	static final int PIECE = 65536;
+
+	/** loads an FLF1 file and adds its variables to the specified set, see {@link #load(File,SVarSet,ProgressDlg)} */
 	public int load(File f, SVarSet set) throws IOException {
+		return load(f, set, null);
+	}
+
+	/** loads an FLF1 file in parallel. The file is mapped into memory and its structure (headers, names, types and levels) is read first, then the data of all variables is parsed by several threads at once, each thread taking consecutive pieces of the columns. Numbers are parsed without creating objects. The result is identical to {@link #loadSerial}, which is used instead for files that contain polygons, are too large to be mapped or use <code>\r</code> as line terminator.
+		@param f file to load
+		@param set set to add the variables to
+		@param pd progress dialog to report to or <code>null</code>
+		@return number of variables loaded */
+	public int load(File f, SVarSet set, final ProgressDlg pd) throws IOException {
+		final TextBuffer r = TextBuffer.map(f);
+		if (r==null || r.hasLoneCR()) return loadSerial(f, set);
+		SVar[] vars=null;
+		int recs=0, cv=0, fs=0;
+
+		String s = r.readLine();
+		if (s==null || !s.equals("FLF1")) throw new IOException("Unsupported file format (expecting FLF1)");
+		while ((s=r.readLine())!=null && !s.equals("")) {
+			if (s.substring(0,3).equals("fs:")) {
+				fs = Tools.parseInt(s.substring(3));
+				vars = new SVar[fs];
+			}
+			if (s.substring(0,4).equals("rec:"))
+				recs = Tools.parseInt(s.substring(4));
+		}
+		if (fs<1 || recs<1) throw new IOException("File contains no data (at least 1x1 required)");
+
+		// structure: type, first line and contents of each column
+		final int[] type = new int[fs];
+		final int[] first = new int[fs];
+		final Object[] data = new Object[fs];
+		final String[] names = new String[fs];
+		final String[][] levels = new String[fs][];
+		while (cv<fs) {
+			names[cv] = r.readLine();
+			s = r.readLine();
+			if (s==null || s.length()<3) throw new IOException("Corrupted file");
+			String ft = s.substring(0,3);
+			if (ft.equals("INT")) {
+				type[cv] = LoaderFLF2.T_INT;
+				data[cv] = new int[recs];
+			} else if (ft.equals("FLT")) {
+				type[cv] = LoaderFLF2.T_FLT;
+				data[cv] = new double[recs];
+			} else if (ft.equals("PLN")) {
+				return loadSerial(f, set);
+			} else if (ft.equals("FAC")) {
+				s = r.readLine();
+				if (s==null) throw new IOException("Corrupted file");
+				int ls = Tools.parseInt(s);
+				if (ls<1) throw new IOException("Invalid file (variable "+names[cv]+" has no levels anthough being a factor)");
+				String facn[] = new String[ls];
+				int k=0;
+				while (k<ls) {
+					s=r.readLine();
+					if (s==null) throw new IOException("Corrupted file");
+					facn[k++]=s;
+				}
+				type[cv] = LoaderFLF2.T_FAC;
+				levels[cv] = facn;
+				data[cv] = new int[recs];
+			} else throw new IOException("Unsupported field type ("+ft+").");
+			first[cv] = r.cline;
+			if (!r.skipLines(recs)) throw new IOException("Corrupted file");
+			cv++;
+		}
+
+		// parse all pieces of all columns
+		final int ppc = (recs+PIECE-1)/PIECE;
+		final int pieces = ppc*fs;
+		final int n = recs;
+		final int[] done = new int[1];
+		Parallel.forRange(pieces, 1, new Parallel.Task() {
+			public void run(int chunk, int from, int to) {
+				while (from<to) {
+					final int col = from/ppc;
+					int k = (from%ppc)*PIECE;
+					final int ke = (k+PIECE>n)?n:k+PIECE;
+					int pos = r.lineStart(first[col]+k);
+					if (type[col]==LoaderFLF2.T_FLT) {
+						final double[] da = (double[])data[col];
+						while (k<ke) {
+							final int e = r.lineEnd(pos);
+							da[k++] = r.isNA(pos,e)?SVar.double_NA:r.parseDouble(pos,e);
+							pos = r.nextLine(e);
+						}
+					} else if (type[col]==LoaderFLF2.T_INT) {
+						final int[] ia = (int[])data[col];
+						while (k<ke) {
+							final int e = r.lineEnd(pos);
+							ia[k++] = r.isNA(pos,e)?SVar.int_NA:r.parseInt(pos,e);
+							pos = r.nextLine(e);
+						}
+					} else {
+						final int[] ix = (int[])data[col];
+						while (k<ke) {
+							final int e = r.lineEnd(pos);
+							final long l = r.scanInt(pos,e);
+							if (l!=TextBuffer.NOT_SIMPLE_INT) ix[k] = (int)l;
+							else try {
+								ix[k] = Integer.parseInt(r.string(pos,e));
+							} catch(NumberFormatException dce) {
+								ix[k] = -1;
+							}
+							k++;
+							pos = r.nextLine(e);
+						}
+					}
+					from++;
+					if (pd!=null) synchronized (done) {
+						done[0]++;
+						pd.setProgress(done[0]*100/pieces);
+					}
+				}
+			}
+		});
+
+		cv = 0;
+		while (cv<fs) {
+			if (type[cv]==LoaderFLF2.T_INT)
+				vars[cv] = new SVarFixInt(names[cv], (int[])data[cv], false);
+			else if (type[cv]==LoaderFLF2.T_FLT)
+				vars[cv] = new SVarFixDouble(names[cv], (double[])data[cv], false);
+			else
+				vars[cv] = new SVarFixFact(names[cv], (int[])data[cv], levels[cv]);
+			cv++;
+		}
+
+		cv = 0;
+		while (cv<fs)
+			set.add(vars[cv++]);
+
+		return fs;
+	}
+
+	/** loads an FLF1 file line by line on the calling thread */
+	public int loadSerial(File f, SVarSet set) throws IOException {
 		SVar[] vars=null;
 		int recs=0, cv=0, fs=0;
 		
@@ -0,0 +1,195 @@
+package org.rosuda.ibase;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/** Loader for FLF2 (binary Fast Loading Files) data format.
+FLF2 is the binary counterpart of FLF1 (see {@link LoaderFLF}). Each variable is stored as one contiguous block of typed values, so the loader maps the file into memory and copies each block into the variable in one go - there is no parsing and no object is created per value. Files in this format are created by {@link WriterFLF2}.
+
+All numbers are little-endian, strings are stored as int32 length (in bytes) followed by the UTF-8 encoded string.
+
+** header **
+"FLF2" (4 bytes)
+int32 format version (currently 1)
+int32 number of fields (=variables)
+int32 number of records
+int32 length of the column directory (in bytes)
+
+** column directory ** (one entry per field, directly after the header)
+int32 type (1=INT, 2=FLT, 3=FAC)
+int32 flags (bit 0 set if there is an NA bitmap)
+int64 offset of the data block
+int64 offset of the NA bitmap (0 if there is none)
+string variable name
+for FAC only:
+  int32 number of levels
+  string level 0
+  ...
+  string level n
+
+** blocks **
+data blocks and NA bitmaps start at offsets divisible by 8
+INT - int32 for each record
+FLT - float64 for each record
+FAC - int32 level index (starting at 0) for each record
+NA bitmap - one bit for each record, bit (i%8) of byte (i/8) is set if record i is missing
+
+@version $Id$
+*/
+public class LoaderFLF2 {
+    /** magic bytes at the beginning of each FLF2 file */
+    public static final byte[] MAGIC = { 'F', 'L', 'F', '2' };
+    /** format version */
+    public static final int VERSION = 1;
+    /** column types */
+    public static final int T_INT = 1;
+    public static final int T_FLT = 2;
+    public static final int T_FAC = 3;
+    /** column flag: NA bitmap present */
+    public static final int F_NA = 1;
+    /** header length (in bytes) */
+    public static final int HEADER_SIZE = 20;
+
+    /** returns <code>true</code> if the file starts with the FLF2 magic */
+    public static boolean isFLF2(File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            byte[] b = new byte[4];
+            int n = in.read(b);
+            return n==4 && b[0]==MAGIC[0] && b[1]==MAGIC[1] && b[2]==MAGIC[2] && b[3]==MAGIC[3];
+        } finally {
+            in.close();
+        }
+    }
+
+    /** loads all variables from an FLF2 file into the heap and adds them to the specified set.
+        @param f file to load
+        @param set set to add the variables to
+        @return number of variables loaded */
+    public int load(File f, SVarSet set) throws IOException {
+        return load(f, set, false);
+    }
+
+    /** loads all variables from an FLF2 file and adds them to the specified set.
+        @param f file to load
+        @param set set to add the variables to
+        @param mapped if <code>true</code> the variables use the memory-mapped blocks of the file directly (see {@link SVarBuffer}), so they don't use any heap space for their values and the file must not be modified while they are in use. Otherwise the values are copied into Java arrays.
+        @return number of variables loaded */
+    public int load(File f, SVarSet set, boolean mapped) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (size<HEADER_SIZE) throw new IOException("Unsupported file format (expecting FLF2)");
+            ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            h.order(ByteOrder.LITTLE_ENDIAN);
+            if (h.get()!=MAGIC[0] || h.get()!=MAGIC[1] || h.get()!=MAGIC[2] || h.get()!=MAGIC[3])
+                throw new IOException("Unsupported file format (expecting FLF2)");
+            int ver = h.getInt();
+            if (ver!=VERSION) throw new IOException("Unsupported FLF2 version ("+ver+")");
+            int fs = h.getInt();
+            int recs = h.getInt();
+            int dirLen = h.getInt();
+            if (fs<1 || recs<1) throw new IOException("File contains no data (at least 1x1 required)");
+            if (dirLen<0 || HEADER_SIZE+(long)dirLen>size) throw new IOException("Corrupted file");
+            ByteBuffer dir = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, dirLen);
+            dir.order(ByteOrder.LITTLE_ENDIAN);
+
+            SVar[] vars = new SVar[fs];
+            int cv = 0;
+            try {
+                while (cv<fs) {
+                    int type = dir.getInt();
+                    int flags = dir.getInt();
+                    long dataOff = dir.getLong();
+                    long naOff = dir.getLong();
+                    String fieldName = getString(dir);
+                    String[] levels = null;
+                    if (type==T_FAC) {
+                        int ls = dir.getInt();
+                        if (ls<0) throw new IOException("Corrupted file");
+                        levels = new String[ls];
+                        int k = 0;
+                        while (k<ls) levels[k++] = getString(dir);
+                    }
+                    SVar v = null;
+                    if (mapped) {
+                        if (type==T_INT)
+                            v = new SVarBufferInt(fieldName, map(ch, dataOff, ((long)recs)*4L).asIntBuffer(),
+                                                  ((flags&F_NA)!=0)?map(ch, naOff, (recs+7)/8):null);
+                        else if (type==T_FAC)
+                            v = new SVarBufferFact(fieldName, map(ch, dataOff, ((long)recs)*4L).asIntBuffer(), levels);
+                        else if (type==T_FLT) // missing values are stored as NaN, so the bitmap is not needed
+                            v = new SVarBufferDouble(fieldName, map(ch, dataOff, ((long)recs)*8L).asDoubleBuffer());
+                        if (v==null) throw new IOException("Unsupported field type ("+type+").");
+                        vars[cv++] = v;
+                        continue;
+                    }
+                    byte[] na = null;
+                    if ((flags&F_NA)!=0) {
+                        na = new byte[(recs+7)/8];
+                        map(ch, naOff, na.length).get(na);
+                    }
+
+                    if (type==T_INT || type==T_FAC) {
+                        int[] ia = new int[recs];
+                        map(ch, dataOff, ((long)recs)*4L).asIntBuffer().get(ia);
+                        if (na!=null) {
+                            int mv = (type==T_FAC)?-1:SVar.int_NA;
+                            int k = 0;
+                            while (k<recs) {
+                                if ((na[k>>3]&(1<<(k&7)))!=0) ia[k]=mv;
+                                k++;
+                            }
+                        }
+                        if (type==T_INT)
+                            v = new SVarFixInt(fieldName, ia, false);
+                        else
+                            v = new SVarFixFact(fieldName, ia, levels);
+                    } else if (type==T_FLT) {
+                        double[] da = new double[recs];
+                        map(ch, dataOff, ((long)recs)*8L).asDoubleBuffer().get(da);
+                        if (na!=null) {
+                            int k = 0;
+                            while (k<recs) {
+                                if ((na[k>>3]&(1<<(k&7)))!=0) da[k]=SVar.double_NA;
+                                k++;
+                            }
+                        }
+                        v = new SVarFixDouble(fieldName, da, false);
+                    }
+                    if (v==null) throw new IOException("Unsupported field type ("+type+").");
+                    vars[cv++] = v;
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupted file (column directory too short)");
+            }
+
+            cv = 0;
+            while (cv<fs)
+                set.add(vars[cv++]);
+            return fs;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** maps a block of the file as little-endian buffer */
+    static ByteBuffer map(FileChannel ch, long off, long len) throws IOException {
+        if (off<HEADER_SIZE || len<0 || len>Integer.MAX_VALUE || off+len>ch.size())
+            throw new IOException("Corrupted file (block outside of the file)");
+        ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, off, len);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return b;
+    }
+
+    /** reads a string (int32 length + UTF-8 bytes) */
+    static String getString(ByteBuffer b) throws IOException {
+        int l = b.getInt();
+        if (l<0 || l>b.remaining()) throw new IOException("Corrupted file");
+        byte[] s = new byte[l];
+        b.get(s);
+        return new String(s, "UTF-8");
+    }
+}
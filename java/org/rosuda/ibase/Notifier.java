@@ -47,13 +47,21 @@ public class Notifier {
     public void NotifyAll(NotifyMsg msg, Dependent c, Vector path) {
         if (Global.DEBUG>1)
             System.out.println("Notifier("+toString()+"): send to all message "+msg);
-	if (batchMode>0 || ton==null || ton.isEmpty()) return;
+	if (batchMode>0) { batchLastMsg=msg; return; }
+	if (ton==null || ton.isEmpty()) return;
 	for (Enumeration e=ton.elements(); e.hasMoreElements();) {
 	    Dependent o=(Dependent)e.nextElement();	    
 	    if (o!=c) {
                 if (Global.DEBUG>0)
                     System.out.println("Notifier("+toString()+"): send "+msg+" to ["+o.toString()+"]");
-		if (path!=null) {
+		if (dispatcher!=null) {
+		    Vector p=null;
+		    if (path!=null) {
+			p=(Vector)path.clone();
+			p.addElement(this);
+		    }
+		    dispatcher.post(o,msg,this,p);
+		} else if (path!=null) {
 		    path.addElement(this);
 		    o.Notifying(msg,this,path);
 		    path.removeElement(this);
@@ -65,6 +73,18 @@ public class Notifier {
     /** notifies all {@link Dependent} classes in the notify list of a change. (Results in calling {@link #NotifyAll} with <code>NULL</code> parameter */
     public void NotifyAll(NotifyMsg msg) { NotifyAll(msg,null,null); };
 
+    /*--- asynchronous delivery ---*/
+
+    /** dispatcher used to deliver notifications or <code>null</code> if dependents are notified synchronously */
+    NotifyDispatcher dispatcher=null;
+
+    /** sets the dispatcher used to deliver notifications. If set, {@link #NotifyAll} returns immediately and the dependents are notified later on the event dispatch thread, redundant messages are merged. Passing <code>null</code> restores the default synchronous delivery.
+        @param d dispatcher (usually {@link NotifyDispatcher#getDefault}) or <code>null</code> */
+    public void setDispatcher(NotifyDispatcher d) { dispatcher=d; }
+
+    /** returns the dispatcher used to deliver notifications or <code>null</code> if notifications are synchronous */
+    public NotifyDispatcher getDispatcher() { return dispatcher; }
+
     /*--- since v1.3: support for batch mode ---*/
     
     /** batch mode counter. 0=no batch mode, >0 batch mode of that depth. */
@@ -87,8 +107,9 @@ public class Notifier {
             System.out.println("Notifier("+toString()+"): end batch #"+batchMode);
         if (batchMode>0) batchMode--;
         if (batchMode==0 && batchLastMsg!=null) {
-            NotifyAll(batchLastMsg);
+            final NotifyMsg msg=batchLastMsg;
             batchLastMsg=null;
+            NotifyAll(msg);
         };
     }
 };
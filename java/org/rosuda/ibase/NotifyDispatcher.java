@@ -0,0 +1,95 @@
+package org.rosuda.ibase;
+
+import java.awt.EventQueue;
+import java.util.Vector;
+import org.rosuda.util.*;
+
+/** NotifyDispatcher - asynchronous, coalescing delivery of notification messages. A {@link Notifier} that has a dispatcher assigned (see {@link Notifier#setDispatcher}) doesn't call {@link Dependent#Notifying} directly, but posts the message to the dispatcher and returns immediately. The dispatcher keeps one queue per dependent and delivers all pending messages on the AWT event dispatch thread, so dependents can safely rebuild and repaint their plots.
+    <p>A message that is equal to a message still pending for the same dependent (same source, message ID and cascading mode, no command and no parameters) is dropped, so e.g. a series of <code>NM_MarkerChange</code> messages results in one update only. Messages carrying a command or parameters are never merged.
+    @version $Id$
+*/
+public class NotifyDispatcher implements Runnable {
+    /** a pending message */
+    static class Entry {
+        Dependent dep;
+        NotifyMsg msg;
+        Notifier src;
+        Vector path;
+
+        Entry(Dependent d, NotifyMsg m, Notifier s, Vector p) {
+            dep=d; msg=m; src=s; path=p;
+        }
+
+        /** returns <code>true</code> if this entry makes the specified message redundant */
+        boolean covers(Dependent d, NotifyMsg m, Notifier s, Vector p) {
+            return dep==d && src==s && msg.getMessageID()==m.getMessageID() && (path==null)==(p==null) &&
+                msg.getCommand()==null && m.getCommand()==null && msg.parCount()==0 && m.parCount()==0;
+        }
+    }
+
+    /** list of pending messages (each as {@link Entry}) in the order they were posted */
+    Vector queue=new Vector();
+    /** set to <code>true</code> while a delivery is scheduled on the event dispatch thread */
+    boolean scheduled=false;
+    /** number of messages dropped because they were redundant (for debugging purposes) */
+    int merged=0;
+
+    static NotifyDispatcher defaultDispatcher=null;
+
+    /** returns the shared dispatcher, creating it if necessary */
+    public static synchronized NotifyDispatcher getDefault() {
+        if (defaultDispatcher==null) defaultDispatcher=new NotifyDispatcher();
+        return defaultDispatcher;
+    }
+
+    /** posts a message for later delivery to a dependent.
+        @param d dependent to deliver to
+        @param msg the message
+        @param src notifier that sends the message
+        @param path notification path for cascaded notifications (must be a private copy) or <code>null</code> */
+    public void post(Dependent d, NotifyMsg msg, Notifier src, Vector path) {
+        synchronized (this) {
+            int i=0, n=queue.size();
+            while (i<n) {
+                if (((Entry)queue.elementAt(i)).covers(d,msg,src,path)) {
+                    merged++;
+                    if (Global.DEBUG>0)
+                        System.out.println("NotifyDispatcher: merged "+msg+" for ["+d+"]");
+                    return;
+                }
+                i++;
+            }
+            queue.addElement(new Entry(d,msg,src,path));
+            if (scheduled) return;
+            scheduled=true;
+        }
+        EventQueue.invokeLater(this);
+    }
+
+    /** returns the number of messages waiting for delivery */
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    /** delivers all pending messages. This is called on the event dispatch thread, but can be also used to flush the queue synchronously. */
+    public void run() {
+        Vector q;
+        synchronized (this) {
+            q=queue;
+            queue=new Vector();
+            scheduled=false;
+        }
+        int i=0, n=q.size();
+        while (i<n) {
+            Entry e=(Entry)q.elementAt(i++);
+            if (Global.DEBUG>0)
+                System.out.println("NotifyDispatcher: deliver "+e.msg+" to ["+e.dep+"]");
+            try {
+                e.dep.Notifying(e.msg,e.src,e.path);
+            } catch (Exception ex) {
+                System.err.println("NotifyDispatcher: exception while delivering "+e.msg+" to ["+e.dep+"]: "+ex);
+                if (Global.DEBUG>0) ex.printStackTrace();
+            }
+        }
+    }
+}
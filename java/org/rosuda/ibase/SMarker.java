@@ -4,24 +4,44 @@ import java.util.*;
 
 /**
    Maintains a fixed list of markers, i.e. an array of 0..xxx indices that can be marked each.
-   It uses both a fixed map and dynamic list of marked positions. Moreover it extends
+   Primary marks are stored in a word-packed bit set, secondary marks in a fixed map. Moreover it extends
    {@link Notifier} class to allow notification upon changes of state.
  
    <p>This marker class implements two independent ways of tagging individual cases: primary and secondary markings.
   
-   <p><b>primary marks</b> are binary only (i.e. on/off) and are implemented in a fashion that allows efficient access to both list of marked cases and fast query for a mark of a case. Main use is to implement highlighting.
+   <p><b>primary marks</b> are binary only (i.e. on/off) and are implemented in a fashion that allows efficient access to both list of marked cases and fast query for a mark of a case. Setting or clearing a mark is O(1), selecting all/none/inverse works on 64 cases at a time and the sorted list of marked cases is built lazily on demand. Main use is to implement highlighting.
  
    <p><b>secondary marks</b> allow (almost) arbitrary integers to be associated with individual cases. This kind of mark is not specially efficient. Main use is to implement color brushing.
  
    @version $Id: SMarker.java 2484 2006-06-01 12:16:00Z wichtreyt $
  */
 public class SMarker extends Notifier implements Commander {
-    /** Fixed array of markings. */
+    /** Fixed array of secondary markings (stored shifted by one bit, LSB is always 0). */
     int mask[];
     /** Size(length) of the fixed array of markings. */
     int msize;
-    /** List of marked indices (each as <code>Integer</code> object). */
-    Vector list;
+    /** Primary marks packed into words, case <code>i</code> is bit <code>i&amp;63</code> of <code>bits[i&gt;&gt;6]</code>. Bits beyond <code>msize</code> are always 0. */
+    long bits[];
+    /** number of primarily marked cases */
+    int marked;
+    /** sorted list of marked indices, lazily built by {@link #getSelectedIDs} and <code>null</code> if invalid */
+    int ids[];
+
+    /** number of primary mark changes so far - every case whose primary mark is toggled counts as one change */
+    long version;
+    /** ring buffer of case IDs whose primary mark was toggled, change number <code>v</code> is stored at <code>chLog[v%chLog.length]</code> */
+    int chLog[];
+    /** oldest version for which {@link #getChangedSince} can still list the changes */
+    long chLogStart;
+    /** result of the last {@link #getChangedSince(long)} call and the versions it was computed for - all dependents ask for the same changes when they are notified */
+    int chCache[];
+    long chCacheFrom=-1, chCacheTo=-1;
+
+    /** number of changes of secondary marks so far (changes of secondary marks are not logged) */
+    long secVersion;
+
+    /** default size of the change log */
+    public static final int DEFAULT_CHANGE_LOG_SIZE = 4096;
 
     /** highest used mark - for friend functions that need to allocate arrays for mask maps */
     int maxMark;
@@ -35,20 +55,27 @@ public class SMarker extends Notifier implements Commander {
 	@param reqsize desired size of the marker array (# of indices) */
     public SMarker(int reqsize) {
 	mask=new int[reqsize];
-	list=new Vector();
+	bits=new long[(reqsize+63)>>6];
 	msize=reqsize;
+        marked=0;
+        ids=null;
+        version=chLogStart=0;
+        chLog=new int[DEFAULT_CHANGE_LOG_SIZE];
         masterSet=null;
         maxMark=1; // it is never below 1 since 0 and 1 are used for primary mask
 	//curIV=null; curOp=0;
     };
 
     /** This methods allows to resize the marker. To ensure consistency the marker is never downsized. */
-    public void resize(int newsize) {
+    public synchronized void resize(int newsize) {
         if (newsize<msize) return; // we can't allow downsizing
-        list.removeAllElements();
         mask=new int[newsize];
-        list=new Vector();
+        bits=new long[(newsize+63)>>6];
         msize=newsize;
+        marked=0;
+        ids=null;
+        version++; chLogStart=version; // the previous changes refer to the old cases
+        secVersion++;
         masterSet=null;
         maxMark=1; // it is never below 1 since 0 and 1 are used for primary mask
 		secMarked=0;
@@ -58,13 +85,13 @@ public class SMarker extends Notifier implements Commander {
     public int size() { return msize; };
 
     /** returns the number of marked cases */
-    public int marked() { return list.size(); };
+    public int marked() { return marked; };
 
     /** gets mark at index <code>pos</code>
 	@param pos desired index
 	@return mark at the index <code>pos</code>. primary mask always returns -1 regardless of secondary mark
     */
-    public int get(int pos) { return ((pos<0)||(pos>=msize))?0:(((mask[pos]&1)==1)?-1:(mask[pos]>>1)); };
+    public int get(int pos) { return ((pos<0)||(pos>=msize))?0:(((bits[pos>>6]&(1L<<pos))!=0)?-1:(mask[pos]>>1)); };
 
     /** gets secondary mask at insex <code>pos</code> */
     public int getSec(int pos) { return ((pos<0)||(pos>=msize))?0:(mask[pos]>>1); };
@@ -73,17 +100,129 @@ public class SMarker extends Notifier implements Commander {
 	@param pos desired index
 	@return <code>true</code> if there is a primary mark at the index <code>pos</code> 
     */
-    public boolean at(int pos) { return ((pos<0)||(pos>=msize))?false:((mask[pos]&1)==1); };
+    public boolean at(int pos) { return ((pos<0)||(pos>=msize))?false:((bits[pos>>6]&(1L<<pos))!=0); };
+
+    /** returns the current version of the primary selection. The version is increased by every change of a primary mark, so it can be used along with {@link #getChangedSince} to find out which cases changed. */
+    public long getVersion() { return version; }
+
+    /** returns the current version of the secondary marks. It changes whenever a secondary mark is set, so it can be used to find out whether anything derived from secondary marks is still valid. */
+    public long getSecVersion() { return secVersion; }
+
+    /** returns the IDs of all cases whose primary mark differs from the state at the given version (in ascending order). A case that was toggled back to its original state is not listed.
+        @param v version as returned by {@link #getVersion}
+        @return the changed cases (empty array if there was no change) or <code>null</code> if the changes are not known because the version is too old for the change log. The array is shared with other callers and must not be modified. */
+    public int[] getChangedSince(long v) {
+        if (v>=version) return new int[0];
+        if (v<chLogStart) return null;
+        if (chCache!=null && v==chCacheFrom && version==chCacheTo) return chCache;
+        final int n=(int)(version-v);
+        final int[] c=new int[n];
+        int i=0, p=(int)(v%chLog.length);
+        while (i<n) {
+            c[i++]=chLog[p++];
+            if (p==chLog.length) p=0;
+        }
+        Arrays.sort(c);
+        // keep only cases that were toggled an odd number of times
+        int j=0;
+        i=0;
+        while (i<n) {
+            int k=i+1;
+            while (k<n && c[k]==c[i]) k++;
+            if (((k-i)&1)==1) c[j++]=c[i];
+            i=k;
+        }
+        int[] r=c;
+        if (j<n) {
+            r=new int[j];
+            System.arraycopy(c, 0, r, 0, j);
+        }
+        chCache=r; chCacheFrom=v; chCacheTo=version;
+        return r;
+    }
+
+    /** returns the IDs of the cases that were marked (<code>marked</code> is <code>true</code>) or unmarked (<code>marked</code> is <code>false</code>) since the given version, see {@link #getChangedSince(long)}
+        @param v version as returned by {@link #getVersion}
+        @param marked whether to list the added or the removed cases
+        @return the cases in ascending order or <code>null</code> if the changes are not known */
+    public int[] getChangedSince(long v, boolean marked) {
+        final int[] c=getChangedSince(v);
+        if (c==null) return null;
+        final int[] t=new int[c.length];
+        int i=0, j=0;
+        while (i<c.length) {
+            if (at(c[i])==marked) t[j++]=c[i];
+            i++;
+        }
+        if (j==c.length) return t;
+        final int[] r=new int[j];
+        System.arraycopy(t, 0, r, 0, j);
+        return r;
+    }
+
+    /** sets the number of changes kept in the change log. The current log is discarded. A size of 0 disables the log, i.e. {@link #getChangedSince} will only tell whether anything changed.
+        @param size maximal number of changes to keep */
+    public void setChangeLogSize(int size) {
+        chLog=new int[(size<0)?0:size];
+        chLogStart=version;
+    }
+
+    /** returns the size of the change log */
+    public int getChangeLogSize() { return chLog.length; }
+
+    /** prepares logging of <code>count</code> changes.
+        @return <code>true</code> if the changes should be recorded by {@link #logChange} or {@link #logWord}, <code>false</code> if they don't fit in the log - in that case the version has been already advanced and the log was reset */
+    boolean beginChanges(int count) {
+        if (count<=chLog.length) return true;
+        version+=count;
+        chLogStart=version;
+        return false;
+    }
 
-    /** returns a list of all marked indices
+    /** records a toggle of the primary mark of case <code>pos</code> */
+    void logChange(int pos) {
+        if (chLog.length==0) { version++; chLogStart=version; return; }
+        chLog[(int)(version%chLog.length)]=pos;
+        version++;
+        if (version-chLogStart>chLog.length) chLogStart=version-chLog.length;
+    }
+
+    /** records a toggle of all cases corresponding to the bits set in <code>diff</code> in word <code>w</code> */
+    void logWord(int w, long diff) {
+        int i=w<<6;
+        while (diff!=0) {
+            if ((diff&1L)!=0) logChange(i);
+            diff>>>=1; i++;
+        }
+    }
+
+    /** returns a list of all marked indices. The list is a newly allocated snapshot, changing it has no effect on the marker. Use {@link #getSelectedIDs} or {@link #marked} instead wherever possible.
 	@return <code>Vector</code> of <code>Integer</code> objects */
-    public Vector getList() { return list; };
+    public Vector getList() {
+        int[] l=getSelectedIDs();
+        Vector v=new Vector(l.length);
+        int i=0;
+        while (i<l.length) v.addElement(new Integer(l[i++]));
+        return v;
+    };
 
-    /** returns an array with all selected IDs */
-    public int[] getSelectedIDs() {
-        int i=0, j=list.size();
-        int[] l=new int[j];
-        while (i<j) { l[i]=((Integer)list.elementAt(i)).intValue(); i++; }
+    /** returns an array with all selected IDs in ascending order. The array is shared with the marker and must not be modified. The list is built while holding the lock of the marker, because the marker may be modified by another thread (e.g. from R) while a plot is painted. */
+    public synchronized int[] getSelectedIDs() {
+        if (ids!=null) return ids;
+        int[] l=new int[marked];
+        int j=0, w=0, wc=bits.length;
+        while (w<wc && j<marked) {
+            long b=bits[w];
+            if (b!=0) {
+                int i=w<<6;
+                while (b!=0) {
+                    if ((b&1L)!=0) l[j++]=i;
+                    b>>>=1; i++;
+                }
+            }
+            w++;
+        }
+        ids=l;
         return l;
     }
 
@@ -95,12 +234,14 @@ public class SMarker extends Notifier implements Commander {
         @param maskType one of the constants {@link MASK_PRIMARY},{@link MASK_SECONDARY} or {@link MASK_RAW}, see above */
     public int[] getMaskCopy(int maskType) {
         int mc[] = new int[mask.length];
-        System.arraycopy(mask, 0, mc, 0, mask.length);
         if (maskType==MASK_PRIMARY) {
-            int i=0; while (i<mc.length) { if ((mc[i]&1)==1) mc[i]=-1; i++; }
+            int i=0; while (i<mc.length) { if ((bits[i>>6]&(1L<<i))!=0) mc[i]=-1; i++; }
         }
         if (maskType==MASK_SECONDARY) {
-            int i=0; while (i<mc.length) { mc[i]>>=1; i++; }
+            int i=0; while (i<mc.length) { mc[i]=mask[i]>>1; i++; }
+        }
+        if (maskType==MASK_RAW) {
+            int i=0; while (i<mc.length) { mc[i]=mask[i]|(((bits[i>>6]&(1L<<i))!=0)?1:0); i++; }
         }
         return mc;
     }
@@ -109,35 +250,39 @@ public class SMarker extends Notifier implements Commander {
 	@param pos desired index
 	@param pMark whether the primary mark is set
         */
-    public void set(int pos, boolean pMark) {
+    public synchronized void set(int pos, boolean pMark) {
 	if ((pos<0)||(pos>=msize)) return; // out of range
-        if (pMark==((mask[pos]&1)==1)) return; // no change
-        if (((mask[pos]&1)==0)&&(pMark)) list.addElement(new Integer(pos));
-        if (((mask[pos]&1)==1)&&(!pMark)) list.removeElement(new Integer(pos));
-	mask[pos]^=1;
+        long b=1L<<pos;
+        int w=pos>>6;
+        if (pMark==((bits[w]&b)!=0)) return; // no change
+        bits[w]^=b;
+        if (pMark) marked++; else marked--;
+        ids=null;
+        logChange(pos);
     }
 
     /** sets secondary mark */
     public void setSec(int pos, int mark) {
+        secVersion++;
         if (mark>maxMark) maxMark=mark;
         mark<<=1;
 		if (mark>0 && (mask[pos]>>1)==0) secMarked++;
 		else if (mark==0 && (mask[pos]>>1)>0) secMarked--;
-        mask[pos]=(mask[pos]&1)|mark;
+        mask[pos]=mark;
     }
 
     /** sets secondary mark of all selected cases */
     public void setSelected(int mark) {
+        secVersion++;
 	if (mark>maxMark) maxMark=mark;
         mark<<=1;
-        for(Enumeration e=list.elements(); e.hasMoreElements();) {
-            Integer i=(Integer)e.nextElement();
-            if (i!=null) {
-                int id=i.intValue();
-				if (mark>0 && (mask[id]>>1)==0) secMarked++;
-				else if (mark==0 && (mask[id]>>1)>0) secMarked--;
-                mask[id]=(mask[id]&1)|mark;
-            }
+        int[] l=getSelectedIDs();
+        int i=0;
+        while (i<l.length) {
+            int id=l[i++];
+            if (mark>0 && (mask[id]>>1)==0) secMarked++;
+            else if (mark==0 && (mask[id]>>1)>0) secMarked--;
+            mask[id]=mark;
         }
     }
 
@@ -147,47 +292,205 @@ public class SMarker extends Notifier implements Commander {
 	/** returns the number of cases having a secondary mark (irrespective of any primary mark). */
 	public int getSecCount() { return secMarked; }
     
-    /** returns <code>Enumeration</code> of the marked indices.
+    /** returns <code>Enumeration</code> of the marked indices in ascending order. The enumeration works on a snapshot, i.e. it is safe to modify the marker while enumerating.
 	@return <Enumeration> of marked indices (which are a list of <code>Integer</code> objects). Analogous to <code>emelents()</code> method of a <code>Vector</code> */
-    public Enumeration elements() { return list.elements(); };
+    public Enumeration elements() {
+        final int[] l=getSelectedIDs();
+        return new Enumeration() {
+            int i=0;
+            public boolean hasMoreElements() { return i<l.length; }
+            public Object nextElement() {
+                if (i>=l.length) throw new NoSuchElementException();
+                return new Integer(l[i++]);
+            }
+        };
+    };
 
     /** clears entire selection (i.e. sets all primary marks to 0) */
-    public void selectNone() {
-	int i=0; while(i<msize) { mask[i]&=(-1)^1; i++; };
-	list.removeAllElements();
+    public synchronized void selectNone() {
+        if (marked==0) return;
+        final boolean log=beginChanges(marked);
+	int i=0;
+        while(i<bits.length) {
+            if (log && bits[i]!=0) logWord(i,bits[i]);
+            bits[i++]=0L;
+        }
+        marked=0;
+        ids=null;
     };
 
     /** marks all indices as marked with the specified mark
 	@param mark mark to be used for the selection (passing 0 results in a call to {@link #selectNone} method instead) */
-    public void selectAll() {
-        list.removeAllElements();
-	int i=0; 
-	while(i<msize) {
-	    list.addElement(new Integer(i)); 
-	    mask[i]|=1;
-	    i++; 
-	};
+    public synchronized void selectAll() {
+        if (marked==msize) return;
+        final boolean log=beginChanges(msize-marked);
+	int i=0;
+        while(i<bits.length) {
+            final long b=wordMask(i);
+            if (log && bits[i]!=b) logWord(i,bits[i]^b);
+            bits[i++]=b;
+        }
+        marked=msize;
+        ids=null;
     };	
 
-    public void selectInverse() {
+    public synchronized void selectInverse() {
+        final boolean log=beginChanges(msize);
+	int i=0;
+        while(i<bits.length) {
+            final long b=wordMask(i);
+            if (log) logWord(i,b);
+            bits[i]^=b; i++;
+        }
+        marked=msize-marked;
+        ids=null;
+    }
+
+    /** selection mode for bulk operations: the new selection replaces the current one */
+    public static final int SEL_REPLACE = 0;
+    /** selection mode for bulk operations: union of the current and the new selection */
+    public static final int SEL_OR      = 1;
+    /** selection mode for bulk operations: intersection of the current and the new selection */
+    public static final int SEL_AND     = 2;
+    /** selection mode for bulk operations: symmetric difference of the current and the new selection */
+    public static final int SEL_XOR     = 3;
+    /** selection mode for bulk operations: the new selection is removed from the current one */
+    public static final int SEL_NOT     = 4;
+
+    /** combines the primary selection with a list of cases and notifies all dependents once.
+        @param cases IDs of the cases to combine with, IDs out of range are ignored
+        @param mode one of the <code>SEL_xxx</code> constants */
+    public void select(int[] cases, int mode) {
+        apply(cases, mode);
+        NotifyAll(new NotifyMsg(this,Common.NM_MarkerChange));
+    }
+
+    /** combines the primary selection with a boolean mask and notifies all dependents once.
+        @param sel mask indexed by case ID, cases beyond the end of the mask are treated as not selected
+        @param mode one of the <code>SEL_xxx</code> constants */
+    public void select(boolean[] sel, int mode) {
+        apply(sel, mode);
+        NotifyAll(new NotifyMsg(this,Common.NM_MarkerChange));
+    }
+
+    /** combines the primary selection with a byte mask (e.g. a raw vector) and notifies all dependents once.
+        @param sel mask indexed by case ID, non-zero entries denote selected cases. Cases beyond the end of the mask are treated as not selected
+        @param mode one of the <code>SEL_xxx</code> constants */
+    public void select(byte[] sel, int mode) {
+        apply(sel, mode);
+        NotifyAll(new NotifyMsg(this,Common.NM_MarkerChange));
+    }
+
+    /** combines the primary selection with the primary selection of another marker and notifies all dependents once.
+        @param m marker to combine with, cases beyond its size are treated as not selected
+        @param mode one of the <code>SEL_xxx</code> constants */
+    public void select(SMarker m, int mode) {
+        apply(m, mode);
+        NotifyAll(new NotifyMsg(this,Common.NM_MarkerChange));
+    }
+
+    /** same as {@link #select(int[],int)} but without notification */
+    public void apply(int[] cases, int mode) {
+        if (cases==null) cases=new int[0];
+        if (mode==SEL_OR || mode==SEL_NOT) { // those can be done in-place without touching other cases
+            boolean pMark=(mode==SEL_OR);
+            int i=0;
+            while (i<cases.length) set(cases[i++], pMark);
+            return;
+        }
+        long[] w=new long[bits.length];
         int i=0;
-        while(i<msize) {
-            if ((mask[i]&1)==0) {
-                list.addElement(new Integer(i));
-                mask[i]|=1;
-            } else {
-                list.removeElement(new Integer(i));
-                mask[i]&=(-1)^1;
+        while (i<cases.length) {
+            int pos=cases[i++];
+            if (pos>=0 && pos<msize) w[pos>>6]|=1L<<pos;
+        }
+        applyBits(w, mode);
+    }
+
+    /** same as {@link #select(boolean[],int)} but without notification */
+    public void apply(boolean[] sel, int mode) {
+        long[] w=new long[bits.length];
+        if (sel!=null) {
+            int i=0, n=(sel.length<msize)?sel.length:msize;
+            while (i<n) {
+                if (sel[i]) w[i>>6]|=1L<<i;
+                i++;
+            }
+        }
+        applyBits(w, mode);
+    }
+
+    /** same as {@link #select(byte[],int)} but without notification */
+    public void apply(byte[] sel, int mode) {
+        long[] w=new long[bits.length];
+        if (sel!=null) {
+            int i=0, n=(sel.length<msize)?sel.length:msize;
+            while (i<n) {
+                if (sel[i]!=0) w[i>>6]|=1L<<i;
+                i++;
             }
+        }
+        applyBits(w, mode);
+    }
+
+    /** same as {@link #select(SMarker,int)} but without notification */
+    public void apply(SMarker m, int mode) {
+        long[] w=new long[bits.length];
+        if (m!=null)
+            System.arraycopy(m.bits, 0, w, 0, (m.bits.length<w.length)?m.bits.length:w.length);
+        applyBits(w, mode);
+    }
+
+    /** combines the selection with a packed bit set of the same layout as {@link #bits}. <code>w</code> may be overwritten. */
+    synchronized void applyBits(long[] w, int mode) {
+        int i=0, n=bits.length, ct=0, ch=0;
+        while (i<n) {
+            long b=bits[i];
+            switch (mode) {
+                case SEL_REPLACE: b=w[i]; break;
+                case SEL_OR:  b|=w[i]; break;
+                case SEL_AND: b&=w[i]; break;
+                case SEL_XOR: b^=w[i]; break;
+                case SEL_NOT: b&=~w[i]; break;
+            }
+            b&=wordMask(i);
+            w[i]=b;
+            ch+=bitCount(b^bits[i]);
+            ct+=bitCount(b);
             i++;
-        };
+        }
+        if (ch==0) return;
+        final boolean log=beginChanges(ch);
+        i=0;
+        while (i<n) {
+            if (log && w[i]!=bits[i]) logWord(i,w[i]^bits[i]);
+            bits[i]=w[i];
+            i++;
+        }
+        marked=ct;
+        ids=null;
+    }
+
+    /** returns the mask of valid bits in word <code>w</code>, i.e. all bits except for those beyond <code>msize</code> in the last word */
+    long wordMask(int w) {
+        final int r=msize&63;
+        return (r!=0 && w==bits.length-1)?((1L<<r)-1L):-1L;
+    }
+
+    /** returns the number of bits set in a word */
+    static int bitCount(long x) {
+        x=x-((x>>>1)&0x5555555555555555L);
+        x=(x&0x3333333333333333L)+((x>>>2)&0x3333333333333333L);
+        x=(x+(x>>>4))&0x0f0f0f0f0f0f0f0fL;
+        return (int)((x*0x0101010101010101L)>>>56);
     }
 
 	/** removes all secondary marks */
 	public void resetSec() {
+		secVersion++;
 		if (secMarked>0) {
 			int i=0;
-			while (i<msize) mask[i++]&=1;
+			while (i<msize) mask[i++]=0;
 		}
 		maxMark=1;
 		secMarked=0;
@@ -212,14 +515,10 @@ public class SMarker extends Notifier implements Commander {
     }
 
     public void setSecBySelection(int markSel, int markNonsel) {
-        boolean[] ids = new boolean[mask.length];
-        int[] selIds = getSelectedIDs();
-        
-        for(int i=0; i<selIds.length; i++) {
-            setSec(selIds[i],markSel);
-            ids[selIds[i]] = true;
-        }
-        
-        for(int i=0; i<ids.length; i++) if(!ids[i]) setSec(i,markNonsel);
+        int i=0;
+        while (i<msize) {
+            setSec(i,((bits[i>>6]&(1L<<i))!=0)?markSel:markNonsel);
+            i++;
+        }
     }
 }
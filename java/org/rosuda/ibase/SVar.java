@@ -70,6 +70,16 @@ public abstract class SVar extends Notifier
     /** if <code>false</code> then ranks are not cached */
     public boolean cacheRanks=true;
 
+    /** cached ranks (IDs of all non-missing cases ordered by value) or <code>null</code> if not known, see {@link #invalidateRanks} */
+    protected int[] ranks=null;
+    /** cached result of the last marker-filtered {@link #getRanked(SMarker,int)} call and the state it was derived from */
+    int[] mRanks, mRanksOf;
+    SMarker mRanksMarker;
+    int mRanksSpec;
+    long mRanksVersion, mRanksSecVersion;
+    /** number of content changes so far, see {@link #getContentVersion} */
+    long contentVersion=0;
+
     /** this attribute can be used by external code to store temporary information (tags) - it may not used by SVar or its subclasses. This attribute should not be used in environments that use SVar across multiple threads. */ 
     public int tag=0;
     
@@ -243,6 +253,76 @@ public abstract class SVar extends Notifier
     public boolean replace(int index, double d) { return replace(index, new Double(d)); }
     public boolean replace(int index, int i) { return replace(index, new Integer(i)); }
 
+    /** replaces a range of values. Unlike the methods above the bulk methods (<code>replaceRange</code>, <code>replaceCases</code>, <code>replaceAll</code> and <code>append</code>) update cached information only once and don't send any notification, so the caller should send a single {@link Common#NM_VarContentChange} when all changes are done. Subclasses backed by arrays copy the values directly, this fallback calls {@link #replace(int,double)} for each value. Only numeric variables are supported and all arguments are checked before anything is modified.
+        @param start index of the first case to replace
+        @param d new values
+        @param off index of the first value in <code>d</code>
+        @param len number of values
+        @return <code>false</code> if the variable is not numeric, the range is out of bounds or a value could not be replaced */
+    public boolean replaceRange(int start, double[] d, int off, int len) {
+        if (!isNum() || start<0 || off<0 || len<0 || start+len>size() || off+len>d.length) return false;
+        int i=0;
+        while (i<len) {
+            if (!replace(start+i, d[off+i])) return false;
+            i++;
+        }
+        return true;
+    }
+
+    /** replaces a range of values by integers, missing values are {@link #int_NA}. See {@link #replaceRange(int,double[],int,int)}. */
+    public boolean replaceRange(int start, int[] d, int off, int len) {
+        if (!isNum() || start<0 || off<0 || len<0 || start+len>size() || off+len>d.length) return false;
+        int i=0;
+        while (i<len) {
+            if (!replace(start+i, d[off+i])) return false;
+            i++;
+        }
+        return true;
+    }
+
+    /** replaces the values of the specified cases (case <code>cases[i]</code> is set to <code>d[i]</code>). See {@link #replaceRange(int,double[],int,int)}.
+        @return <code>false</code> if the variable is not numeric, the arrays don't have the same length, a case is out of bounds or a value could not be replaced */
+    public boolean replaceCases(int[] cases, double[] d) {
+        if (!isNum() || cases.length!=d.length) return false;
+        final int n=size();
+        int i=0;
+        while (i<cases.length) {
+            if (cases[i]<0 || cases[i]>=n) return false;
+            i++;
+        }
+        i=0;
+        while (i<cases.length) {
+            if (!replace(cases[i], d[i])) return false;
+            i++;
+        }
+        return true;
+    }
+
+    /** replaces all values, the length of <code>d</code> must match the size of the variable. See {@link #replaceRange(int,double[],int,int)}. */
+    public boolean replaceAll(double[] d) {
+        return d.length==size() && replaceRange(0, d, 0, d.length);
+    }
+
+    /** replaces all values by integers, the length of <code>d</code> must match the size of the variable. See {@link #replaceRange(int,double[],int,int)}. */
+    public boolean replaceAll(int[] d) {
+        return d.length==size() && replaceRange(0, d, 0, d.length);
+    }
+
+    /** appends values as new cases. See {@link #replaceRange(int,double[],int,int)}. The fallback calls {@link #add(double)} for each value, so it fails for variables of fixed size.
+        @param d values
+        @param off index of the first value in <code>d</code>
+        @param len number of values
+        @return <code>false</code> if the variable is not numeric or a value could not be added */
+    public boolean append(double[] d, int off, int len) {
+        if (!isNum() || off<0 || len<0 || off+len>d.length) return false;
+        int i=0;
+        while (i<len) {
+            if (!add(d[off+i])) return false;
+            i++;
+        }
+        return true;
+    }
+
     public double getMin() { return min; }
     public double getMax() { return max; }
 
@@ -315,6 +395,130 @@ public abstract class SVar extends Notifier
 
     public abstract int[] getRanked(SMarker m, int markspec);
 
+    /** discards cached ranks and advances the content version. All methods modifying the contents of a variable call this method, code that modifies the contents by other means (and sends {@link Common#NM_VarContentChange} afterwards) must call it explicitly. */
+    public void invalidateRanks() {
+        contentVersion++;
+        ranks=null;
+        mRanks=mRanksOf=null;
+        mRanksMarker=null;
+    }
+
+    /** returns the version of the contents. It changes whenever the contents change (see {@link #invalidateRanks}), so anything derived from the contents can be cached along with the version it was derived from. */
+    public long getContentVersion() { return contentVersion; }
+
+    /** picks those cases from the full ranks that have the given mark. The result is cached, so repeated calls for the same marker state are O(1) - the returned array is shared and must not be modified.
+        @param r full ranks
+        @param m marker or <code>null</code> for no filtering
+        @param markspec mark to filter by (as returned by {@link SMarker#get})
+        @return filtered ranks, <code>null</code> if no case has the mark */
+    protected int[] filterRanks(int[] r, SMarker m, int markspec) {
+        if (m==null || r==null) return r;
+        if (mRanksOf==r && mRanksMarker==m && mRanksSpec==markspec && mRanksVersion==m.getVersion() &&
+            (markspec==-1 || mRanksSecVersion==m.getSecVersion())) return mRanks;
+        final int[] mr=filterRanksByMarker(r, m, markspec);
+        if (cacheRanks) {
+            mRanks=mr; mRanksOf=r; mRanksMarker=m; mRanksSpec=markspec;
+            mRanksVersion=m.getVersion(); mRanksSecVersion=m.getSecVersion();
+        }
+        return mr;
+    }
+
+    /** returns those entries of <code>r</code> that have the mark <code>markspec</code> in the marker <code>m</code> (in the same order). It works like {@link #filterRanksByMap} with <code>m.getMaskCopy(SMarker.MASK_PRIMARY)</code> as the map, but tests the marks directly, so no map has to be allocated.
+        @return filtered ranks or <code>null</code> if no case has that mark */
+    public static int[] filterRanksByMarker(int r[], SMarker m, int markspec) {
+        if (r==null || m==null) return r;
+        if (markspec==-1 && m.marked()==0) return null;
+        final int x=r.length;
+        int ct=0;
+        int i=0; // pass 1 : count the relevant cases
+        if (markspec==-1)
+            while (i<x) { if (m.at(r[i])) ct++; i++; }
+        else
+            while (i<x) { if (m.get(r[i])==markspec) ct++; i++; }
+        if (ct==0) return null;
+        final int[] mr=new int[ct];
+        int mri=0;
+        i=0; // pass 2: copy the relevant ranks
+        if (markspec==-1)
+            while (i<x) { if (m.at(r[i])) mr[mri++]=r[i]; i++; }
+        else
+            while (i<x) { if (m.get(r[i])==markspec) mr[mri++]=r[i]; i++; }
+        return mr;
+    }
+
+    /** computes ranks of double values, i.e. the indices of all non-missing (non-NaN) values ordered by value. Equal values are ordered by their index.
+        @param v values
+        @param n number of values to use (from the beginning of <code>v</code>)
+        @return the ranks */
+    public static int[] rankDoubles(double[] v, int n) {
+        int ct=0, i=0;
+        while (i<n) if (!Double.isNaN(v[i++])) ct++;
+        final int[] r=new int[ct];
+        ct=0; i=0;
+        while (i<n) { if (!Double.isNaN(v[i])) r[ct++]=i; i++; }
+        sortIndices(r, new int[ct], v);
+        return r;
+    }
+
+    /** computes ranks of integer values, i.e. the indices of the values ordered by value. Equal values are ordered by their index.
+        @param v values
+        @param n number of values to use (from the beginning of <code>v</code>)
+        @param dropNA if <code>true</code> missing values ({@link #int_NA}) are omitted
+        @return the ranks */
+    public static int[] rankInts(int[] v, int n, boolean dropNA) {
+        int ct=0, i=0;
+        if (dropNA) { while (i<n) if (v[i++]!=int_NA) ct++; } else ct=n;
+        // pack value and index into one long, so a plain primitive sort does the job
+        final long[] k=new long[ct];
+        ct=0; i=0;
+        while (i<n) {
+            if (!dropNA || v[i]!=int_NA) k[ct++]=(((long)v[i])<<32)|((long)i);
+            i++;
+        }
+        Arrays.sort(k);
+        final int[] r=new int[ct];
+        i=0;
+        while (i<ct) { r[i]=(int)(k[i]&0xffffffffL); i++; }
+        return r;
+    }
+
+    /** stable merge sort of the indices <code>r</code> by the values <code>v[r[i]]</code>
+        @param tmp work array of the same size as <code>r</code> */
+    static void sortIndices(int[] r, int[] tmp, double[] v) {
+        final int n=r.length;
+        int i=0;
+        // insertion sort of short runs first
+        while (i<n) {
+            final int e=(i+16<n)?i+16:n;
+            int j=i+1;
+            while (j<e) {
+                final int x=r[j];
+                final double d=v[x];
+                int k=j-1;
+                while (k>=i && v[r[k]]>d) { r[k+1]=r[k]; k--; }
+                r[k+1]=x;
+                j++;
+            }
+            i=e;
+        }
+        int[] a=r, b=tmp;
+        int w=16;
+        while (w<n) {
+            int lo=0;
+            while (lo<n) {
+                final int mid=(lo+w<n)?lo+w:n, hi=(lo+w+w<n)?lo+w+w:n;
+                int p=lo, q=mid, o=lo;
+                while (p<mid && q<hi) b[o++]=(v[a[q]]<v[a[p]])?a[q++]:a[p++];
+                while (p<mid) b[o++]=a[p++];
+                while (q<hi) b[o++]=a[q++];
+                lo=hi;
+            }
+            final int[] t=a; a=b; b=t;
+            w+=w;
+        }
+        if (a!=r) System.arraycopy(a, 0, r, 0, n);
+    }
+
     public static int[] filterRanksByID(int r[], int ids[]) {
         if (r==null || ids==null || ids.length<1) return r;
         int x=r.length;
@@ -0,0 +1,228 @@
+package org.rosuda.ibase;
+
+import java.nio.ByteBuffer;
+
+import org.rosuda.util.*;
+
+/** SVarBuffer - base class of variables that keep their values in a <code>java.nio</code> buffer instead of a Java array. The buffer is usually a direct buffer (see {@link #allocate}) or a memory-mapped region of a file (see {@link LoaderFLF2#load(java.io.File,SVarSet,boolean)}), so the values don't use any heap space and variables can be larger than the heap. All accessors read the buffer directly, only derived information (ranks, categories and their counts) is kept on the heap.
+    <p>Buffer variables are read-only, i.e. {@link #add}, {@link #insert}, {@link #remove} and {@link #replace} always fail.
+    <p>Numeric buffer variables can be categorized: the categories are the distinct values in ascending order (followed by a category for missing values if there are any). They are found from the ranks and the category of a case is looked up by binary search, so no per-case category index is needed.
+    @version $Id$
+*/
+public abstract class SVarBuffer extends SVar
+{
+    /** number of cases */
+    protected int n;
+
+    /** distinct values of a categorized numeric variable (ascending) */
+    double[] catValues;
+    /** categories and their counts, the last category is {@link SVar#missingCat} if there are missing values */
+    Object[] cats;
+    int[] ccnts;
+
+    protected SVarBuffer(String Name, boolean isnum, boolean iscat, int len)
+    {
+        super(Name, isnum, iscat);
+        guessing=false;
+        n=len;
+    }
+
+    /** allocates a direct (off-heap) buffer in native byte order
+        @param bytes size of the buffer in bytes */
+    public static ByteBuffer allocate(int bytes) {
+        ByteBuffer b=ByteBuffer.allocateDirect(bytes);
+        b.order(java.nio.ByteOrder.nativeOrder());
+        return b;
+    }
+
+    public int size() { return n; }
+
+    /** buffer variables are read-only, so this always fails */
+    public boolean add(Object o) { return false; }
+    public boolean insert(Object o, int index) { return false; }
+    public boolean remove(int index) { return false; }
+    public boolean replace(int index, Object o) { return false; }
+
+    /** returns <code>true</code> if the value of case <code>i</code> is missing */
+    public abstract boolean isMissingAt(int i);
+
+    /** computes the ranks of all non-missing cases */
+    abstract int[] rank();
+
+    /** define the variable explicitly as categorical
+        @param rebuild if set to <code>true</code> force rebuild even if the variable is already categorial. */
+    public void categorize(boolean rebuild) {
+        if (cat && !rebuild) return;
+        int[] r=ranks;
+        if (r==null) {
+            r=rank();
+            if (cacheRanks) ranks=r;
+        }
+        int nc=0, i=0;
+        double last=0;
+        while (i<r.length) {
+            final double v=atD(r[i]);
+            if (i==0 || v!=last) nc++;
+            last=v;
+            i++;
+        }
+        final boolean mc=(missingCount>0);
+        catValues=new double[nc];
+        cats=new Object[mc?nc+1:nc];
+        ccnts=new int[cats.length];
+        int c=-1;
+        i=0;
+        while (i<r.length) {
+            final double v=atD(r[i]);
+            if (i==0 || v!=catValues[c]) {
+                catValues[++c]=v;
+                cats[c]=catName(v);
+            }
+            ccnts[c]++;
+            i++;
+        }
+        if (mc) {
+            cats[nc]=missingCat;
+            ccnts[nc]=missingCount;
+        }
+        cat=true;
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    /** returns the name of the category of a value */
+    String catName(double v) {
+        return Double.toString(v);
+    }
+
+    /** the categories of numeric buffer variables are always in numerical order, so this does nothing */
+    public void sortCategories(int method) {
+    }
+
+    /** define the variable explicitly as non-categorial (drop category list) */
+    public void dropCat() {
+        cats=null; ccnts=null; catValues=null; cat=false;
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    public void setCategorical(boolean nc) {
+        if (!nc) {
+            cat=false;
+        } else {
+            if (cats==null) categorize(); else cat=true;
+        }
+    }
+
+    /** returns the ID of the category of the object
+        @param o category (as returned by {@link #getCatAt}) or <code>null</code> for the missing values category
+        @return category ID or -1 if there is no such category */
+    public int getCatIndex(Object o) {
+        if (cats==null) return -1;
+        if (o==null) o=missingCat;
+        int i=0;
+        while (i<cats.length) {
+            if (cats[i].equals(o)) return i;
+            i++;
+        }
+        return -1;
+    }
+
+    /** returns ID of the category of i-th case in the variable or -1 if i oob or the variable is not categorial */
+    public int getCatIndex(int i) {
+        if (cats==null || i<0 || i>=n) return -1;
+        if (isMissingAt(i)) return (cats.length>catValues.length)?catValues.length:-1;
+        final double v=atD(i);
+        int lo=0, hi=catValues.length-1;
+        while (lo<=hi) {
+            final int mid=(lo+hi)>>>1;
+            if (catValues[mid]<v) lo=mid+1;
+            else if (catValues[mid]>v) hi=mid-1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** returns the category with index ID or <code>null</code> if variable is not categorial */
+    public Object getCatAt(int i) {
+        return (cats==null || i<0 || i>=cats.length)?null:cats[i];
+    }
+
+    /** returns size of the category with index ID or -1 if variable is not categorial or index oob */
+    public int getSizeCatAt(int i) {
+        return (cats==null || i<0 || i>=cats.length)?-1:ccnts[i];
+    }
+
+    /** returns size of the category o. If category does not exist or variable is not categorial, -1 is returned. */
+    public int getSizeCat(Object o) {
+        return getSizeCatAt(getCatIndex(o));
+    }
+
+    /** returns the number of categories for this variable or 0 if the variable is not categorial */
+    public int getNumCats() {
+        return (cats==null)?0:cats.length;
+    }
+
+    /** returns new, fixed array of categories */
+    public Object[] getCategories() {
+        if (cats==null) return null;
+        Object[] c=new Object[cats.length];
+        System.arraycopy(cats, 0, c, 0, cats.length);
+        return c;
+    }
+
+    /** returns list of indexes ordered by rank, for non-cat, num vars only. missing values are omitted.
+        @param m marker to use for filtering. if <code>null</code> all cases will be checked
+        @param markspec mark for filtering, i.e. cases with that mark will be used only
+        @return list of indexes or <code>null</code> if the variable is not numerical or is categorical or no cases matching the specification are present */
+    public int[] getRanked(SMarker m, int markspec) {
+        if (isCat() || !isNum() || n==0) return null;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rank();
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
+        }
+        return filterRanks(r,m,markspec);
+    }
+
+    /** computes the ranks of all non-missing cases by sorting their indices by {@link #atD} - the values are read from the buffer, so apart from the result only one work array of the same size is needed. Equal values are ordered by their index. */
+    int[] rankByValue() {
+        int ct=n-missingCount, i=0;
+        final int[] r=new int[ct];
+        ct=0;
+        while (i<n) { if (!isMissingAt(i)) r[ct++]=i; i++; }
+        final int[] tmp=new int[ct];
+        // insertion sort of short runs first, then a stable bottom-up merge sort
+        i=0;
+        while (i<ct) {
+            final int e=(i+16<ct)?i+16:ct;
+            int j=i+1;
+            while (j<e) {
+                final int x=r[j];
+                final double d=atD(x);
+                int k=j-1;
+                while (k>=i && atD(r[k])>d) { r[k+1]=r[k]; k--; }
+                r[k+1]=x;
+                j++;
+            }
+            i=e;
+        }
+        int[] a=r, b=tmp;
+        int w=16;
+        while (w<ct) {
+            int lo=0;
+            while (lo<ct) {
+                final int mid=(lo+w<ct)?lo+w:ct, hi=(lo+w+w<ct)?lo+w+w:ct;
+                int p=lo, q=mid, o=lo;
+                while (p<mid && q<hi) b[o++]=(atD(a[q])<atD(a[p]))?a[q++]:a[p++];
+                while (p<mid) b[o++]=a[p++];
+                while (q<hi) b[o++]=a[q++];
+                lo=hi;
+            }
+            final int[] t=a; a=b; b=t;
+            w+=w;
+        }
+        if (a!=r) System.arraycopy(a, 0, r, 0, ct);
+        return r;
+    }
+}
@@ -0,0 +1,52 @@
+package org.rosuda.ibase;
+
+import java.nio.DoubleBuffer;
+
+/** SVarBufferDouble - numeric variable of doubles stored in a buffer, see {@link SVarBuffer}. Missing values are NaNs.
+    @version $Id$
+*/
+public final class SVarBufferDouble extends SVarBuffer
+{
+    /** the actual content */
+    final DoubleBuffer cont;
+
+    /** creates a new variable
+        @param Name variable name
+        @param d values - all values from index 0 to the limit of the buffer are used (the position is ignored) */
+    public SVarBufferDouble(String Name, DoubleBuffer d)
+    {
+        super(Name, true, false, d.limit());
+        cont=d;
+        contentsType=CT_Number;
+        boolean firstValid=true;
+        min=max=0;
+        int i=0;
+        while (i<n) {
+            final double v=cont.get(i++);
+            if (Double.isNaN(v)) missingCount++;
+            else if (firstValid) {
+                min=max=v;
+                firstValid=false;
+            } else {
+                if (v>max) max=v; else
+                    if (v<min) min=v;
+            }
+        }
+    }
+
+    public boolean isMissingAt(int i) { return (i<0||i>=n||Double.isNaN(cont.get(i))); }
+
+    public Object at(int i) { return isMissingAt(i)?null:new Double(cont.get(i)); }
+    public double atD(int i) { return (i<0||i>=n)?double_NA:cont.get(i); }
+    public int atI(int i) {
+        if (i<0||i>=n) return int_NA;
+        final double v=cont.get(i);
+        return Double.isNaN(v)?int_NA:((int)(v+0.5));
+    }
+
+    int[] rank() { return rankByValue(); }
+
+    public String toString() {
+        return "SVarBufferDouble(\""+name+"\","+(cat?"cat,":"cont,")+(isnum?"num,":"txt,")+"n="+n+",miss="+missingCount+")";
+    }
+}
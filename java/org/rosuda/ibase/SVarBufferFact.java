@@ -0,0 +1,124 @@
+package org.rosuda.ibase;
+
+import java.nio.IntBuffer;
+
+import org.rosuda.util.*;
+
+/** SVarBufferFact - factor stored in a buffer as level indices, see {@link SVarBuffer}. This is the buffer counterpart of {@link SVarFixFact}: indices outside the range of levels (usually -1) denote missing values.
+    @version $Id$
+*/
+public final class SVarBufferFact extends SVarBuffer
+{
+    /** level index of each case */
+    final IntBuffer cont;
+
+    /** creates a new factor
+        @param Name variable name
+        @param ids level indices - all values from index 0 to the limit of the buffer are used (the position is ignored)
+        @param cnames names of the levels */
+    public SVarBufferFact(String Name, IntBuffer ids, String[] cnames)
+    {
+        super(Name, false, true, ids.limit());
+        contentsType=CT_String;
+        cont=ids;
+        cats=cnames;
+        ccnts=new int[cnames.length];
+        int i=0;
+        while (i<n) {
+            final int c=cont.get(i++);
+            if (c>=0 && c<cnames.length) ccnts[c]++; else missingCount++;
+        }
+    }
+
+    public boolean isMissingAt(int i) {
+        if (i<0||i>=n) return true;
+        final int c=cont.get(i);
+        return (c<0 || c>=cats.length);
+    }
+
+    public Object at(int i) { return isMissingAt(i)?null:cats[cont.get(i)]; }
+    public int atI(int i) { return isMissingAt(i)?-1:cont.get(i); }
+
+    /** the categories are fixed, so this only notifies about the type change */
+    public void categorize(boolean rebuild) {
+        if (cat && !rebuild) return;
+        cat=true;
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    public void dropCat() {
+        cat=false;
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    public void setCategorical(boolean nc) {
+        cat=true;
+    }
+
+    public int getCatIndex(Object o) {
+        if (o==null || missingCat.equals(o)) return -1;
+        int i=0;
+        while (i<cats.length) {
+            if (cats[i].equals(o)) return i;
+            i++;
+        }
+        return -1;
+    }
+
+    public int getCatIndex(int i) { return isMissingAt(i)?-1:cont.get(i); }
+
+    /** returns the category with index ID ({@link SVar#missingCat} if out of range) */
+    public Object getCatAt(int i) {
+        return (i<0 || i>=cats.length)?missingCat:cats[i];
+    }
+
+    public int getSizeCatAt(int i) {
+        if (i==-1) return missingCount;
+        return (i<0 || i>=cats.length)?-1:ccnts[i];
+    }
+
+    public int getSizeCat(Object o) {
+        if (o==null || o.equals(missingCat)) return missingCount;
+        return getSizeCatAt(getCatIndex(o));
+    }
+
+    public int getNumCats() { return cats.length; }
+
+    public Object[] getCategories() { return cats; }
+
+    /** returns the cases ordered by level index (missing values first), equal levels are ordered by case index
+        @param m marker to use for filtering. if <code>null</code> all cases will be checked
+        @param markspec mark for filtering, i.e. cases with that mark will be used only */
+    public int[] getRanked(SMarker m, int markspec) {
+        if (n==0) return null;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rank();
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
+        }
+        return filterRanks(r,m,markspec);
+    }
+
+    /** counting sort by level index */
+    int[] rank() {
+        final int nc=cats.length;
+        final int[] start=new int[nc+2];
+        start[1]=missingCount;
+        int c=0;
+        while (c<nc) { start[c+2]=start[c+1]+ccnts[c]; c++; }
+        final int[] r=new int[n];
+        int i=0;
+        while (i<n) {
+            final int k=isMissingAt(i)?0:(cont.get(i)+1);
+            r[start[k]++]=i;
+            i++;
+        }
+        return r;
+    }
+
+    public String toString() {
+        return "SVarBufferFact(\""+name+"\","+(cat?"cat,":"cont,")+(isnum?"num,":"txt,")+"n="+n+",miss="+missingCount+")";
+    }
+}
@@ -0,0 +1,63 @@
+package org.rosuda.ibase;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/** SVarBufferInt - numeric variable of integers stored in a buffer, see {@link SVarBuffer}. Missing values are either marked in a bitmap or (if there is no bitmap) by {@link SVar#int_NA}.
+    @version $Id$
+*/
+public final class SVarBufferInt extends SVarBuffer
+{
+    /** the actual content */
+    final IntBuffer cont;
+    /** missing values bitmap (bit <code>i%8</code> of byte <code>i/8</code> is set if case <code>i</code> is missing) or <code>null</code> */
+    final ByteBuffer na;
+
+    /** creates a new variable
+        @param Name variable name
+        @param d values - all values from index 0 to the limit of the buffer are used (the position is ignored)
+        @param naMap missing values bitmap or <code>null</code> if missing values are stored as {@link SVar#int_NA} */
+    public SVarBufferInt(String Name, IntBuffer d, ByteBuffer naMap)
+    {
+        super(Name, true, false, d.limit());
+        cont=d;
+        na=naMap;
+        contentsType=CT_Number;
+        boolean firstValid=true;
+        min=max=0;
+        int i=0;
+        while (i<n) {
+            if (isMissingAt(i)) missingCount++;
+            else {
+                final int v=cont.get(i);
+                if (firstValid) {
+                    min=max=v;
+                    firstValid=false;
+                } else {
+                    if (v>max) max=v; else
+                        if (v<min) min=v;
+                }
+            }
+            i++;
+        }
+    }
+
+    public boolean isMissingAt(int i) {
+        if (i<0||i>=n) return true;
+        return (na!=null)?((na.get(i>>3)&(1<<(i&7)))!=0):(cont.get(i)==int_NA);
+    }
+
+    public Object at(int i) { return isMissingAt(i)?null:new Integer(cont.get(i)); }
+    public double atD(int i) { return isMissingAt(i)?double_NA:cont.get(i); }
+    public int atI(int i) { return isMissingAt(i)?int_NA:cont.get(i); }
+
+    String catName(double v) {
+        return Integer.toString((int)v);
+    }
+
+    int[] rank() { return rankByValue(); }
+
+    public String toString() {
+        return "SVarBufferInt(\""+name+"\","+(cat?"cat,":"cont,")+(isnum?"num,":"txt,")+"n="+n+",miss="+missingCount+")";
+    }
+}
@@ -26,7 +26,6 @@ public class SVarDouble extends SVar {
     /** list if counts per category */
     List ccnts;
     
-    int[] ranks=null;
     
     static double[] temp;
     
@@ -42,6 +41,7 @@ public class SVarDouble extends SVar {
         isnum=true;
         cont=new double[len];
         for (int i = 0; i < cont.length; i++) cont[i] = Double.NaN;
+        missingCount = len;
         insertPos = len;
     }
     
@@ -63,8 +63,10 @@ public class SVarDouble extends SVar {
     }
 
     private void updateCache() {
+        invalidateRanks();
         boolean firstValid=true;
         min=max=0;
+        missingCount=0;
 	int i=0;
 	while (i<cont.length) {
 	    if (Double.isNaN(cont[i])) missingCount++;
@@ -87,6 +89,12 @@ public class SVarDouble extends SVar {
      * @param rebuild if set to <code>true</code> force rebuild even if the variable is already categorial. */
     public void categorize(boolean rebuild) {
         if (cat && !rebuild) return;
+        buildCategories();
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    /** builds the list of categories and their counts from the current contents without sending any notification */
+    private void buildCategories() {
         cats=new ArrayList(); ccnts=new ArrayList();
         cat=true;
         if (!isEmpty()) {
@@ -106,7 +114,6 @@ public class SVarDouble extends SVar {
                 sortCategories(SM_num);
             }
         }
-        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
     }
     
     /** sort categories by specifeid method
@@ -182,7 +189,6 @@ public class SVarDouble extends SVar {
      *  @return <code>true<code> if element was successfully added, or <code>false</code> upon failure - currently when non-numerical value is inserted in a numerical variable. It is strongly recommended to check the result and act upon it, because failing to do so can result in non-consistent datasets - i.e. mismatched row IDs */
     public boolean add(Object o) {
         if (insertPos>=cont.length) return false;
-        if (cacheRanks && ranks!=null) ranks=null; // remove ranks - we don't update them so far...
         double val=double_NA;
         if (o!=null) {
             try {
@@ -214,6 +220,7 @@ public class SVarDouble extends SVar {
         } else
             missingCount++;
         cont[insertPos++]=d;
+        invalidateRanks();
         NotifyAll(new NotifyMsg(this,Common.NM_VarContentChange));
         return true;
     }
@@ -230,6 +237,7 @@ public class SVarDouble extends SVar {
     
     public boolean replace(int i, double d) {
         if (i<0 || i>=cont.length || isCat()) return false;
+        invalidateRanks();
         if (Double.isNaN(cont[i])) missingCount--;
         cont[i]=d;
         if (Double.isNaN(d)) missingCount++;
@@ -237,28 +245,113 @@ public class SVarDouble extends SVar {
     }
     
     
+    /** replaces a range of values in one go, see {@link SVar#replaceRange(int,double[],int,int)}. min/max are only recomputed if one of the extremes was overwritten, categories (if any) are rebuilt once. */
+    public boolean replaceRange(int start, double[] d, int off, int len) {
+        if (start<0 || off<0 || len<0 || start+len>cont.length || off+len>d.length) return false;
+        boolean rescan=(missingCount>=cont.length);
+        int i=0;
+        while (i<len) {
+            if (put(start+i, d[off+i])) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    public boolean replaceRange(int start, int[] d, int off, int len) {
+        if (start<0 || off<0 || len<0 || start+len>cont.length || off+len>d.length) return false;
+        boolean rescan=(missingCount>=cont.length);
+        int i=0;
+        while (i<len) {
+            final int v=d[off+i];
+            if (put(start+i, (v==int_NA)?double_NA:v)) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    public boolean replaceCases(int[] cases, double[] d) {
+        if (cases.length!=d.length) return false;
+        int i=0;
+        while (i<cases.length) {
+            if (cases[i]<0 || cases[i]>=cont.length) return false;
+            i++;
+        }
+        boolean rescan=(missingCount>=cont.length);
+        i=0;
+        while (i<cases.length) {
+            if (put(cases[i], d[i])) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    /** replaces all values
+        @param d new values, the length must match the size of the variable
+        @param copy if <code>false</code> the array <code>d</code> is used as the new content without copying (the caller must not modify it afterwards other than through this variable), otherwise the values are copied
+        @return <code>false</code> if the length doesn't match */
+    public boolean replaceAll(double d[], boolean copy) {
+        if (cont.length != d.length) return false;
+        if (copy) System.arraycopy(d, 0, cont, 0, d.length); else cont=d;
+        updateCache();
+        if (cat) buildCategories();
+        return true;
+    }
+
     public boolean replaceAll(double d[]) {
-	if (cont.length != d.length) return false;
-	System.arraycopy(d, 0, cont, 0, d.length);
-	updateCache();
-	return true;
+        return replaceAll(d, true);
     }
 
-    public boolean replaceAll(int i[]) {
-	if (cont.length != i.length) return false;
-	int j=0;
-	while (j<i.length) {
-	    cont[j]=(i[j]==int_NA)?double_NA:i[j];
-	    j++;
-	}
-	updateCache();
-	return true;
+    /** appends values, growing the content array as needed, see {@link SVar#append} */
+    public boolean append(double[] d, int off, int len) {
+        if (off<0 || len<0 || off+len>d.length) return false;
+        if (insertPos+len>cont.length) {
+            final double[] nc=new double[insertPos+len];
+            System.arraycopy(cont, 0, nc, 0, cont.length);
+            int i=cont.length;
+            while (i<nc.length) nc[i++]=double_NA;
+            missingCount+=nc.length-cont.length;
+            cont=nc;
+        }
+        boolean rescan=(missingCount>=cont.length);
+        int i=0;
+        while (i<len) {
+            if (put(insertPos++, d[off+i])) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    /** stores a value as part of a bulk replacement, keeping the missing count and min/max up to date
+        @return <code>true</code> if an extreme value was overwritten, i.e. min/max must be recomputed */
+    private boolean put(int i, double v) {
+        final double o=cont[i];
+        boolean rescan=false;
+        if (Double.isNaN(o)) missingCount--; else rescan=(o<=min || o>=max);
+        if (Double.isNaN(v)) missingCount++; else {
+            if (v>max) max=v;
+            if (v<min) min=v;
+        }
+        cont[i]=v;
+        return rescan;
+    }
+
+    /** updates cached information after a bulk replacement
+        @param rescan if <code>true</code> min/max are recomputed */
+    private void contentsReplaced(boolean rescan) {
+        if (rescan) updateCache(); else invalidateRanks();
+        if (cat) buildCategories();
     }
 
     public Object at(int i) {
         return (i<0||i>=insertPos||Double.isNaN(cont[i]))?null:new Double(cont[i]);
     }
 
+    public boolean isMissingAt(int i) { return (i<0||i>=insertPos||Double.isNaN(cont[i])); }
+
     public double atD(int i) { return (i<0||i>=insertPos)?double_NA:cont[i]; }
     public double atF(int i) { return (i<0||i>=insertPos)?0:cont[i]; }
     public int atI(int i) { return (i<0||i>=insertPos||Double.isNaN(cont[i]))?int_NA:((int)(cont[i]+0.5)); }
@@ -335,6 +428,7 @@ public class SVarDouble extends SVar {
                 temp[i] = cont[z];
             }
             cont = temp;
+            invalidateRanks();
             insertPos = cont.length;
             return true;
         } catch (Exception e) {
@@ -352,6 +446,7 @@ public class SVarDouble extends SVar {
                 else temp[i] = cont[z];
             }
             cont = temp;
+            invalidateRanks();
             cont[index] = o==null?double_NA:Double.parseDouble(o.toString());
             insertPos = cont.length;
             return true;
@@ -370,72 +465,16 @@ public class SVarDouble extends SVar {
      * cases: variable is not numerical or is categorical, no cases matching
      * specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
         if (isCat() || !isNum() || size()==0) return null;
-        
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-        
-        int[] r=null;
-        
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-        
-        if (!cacheRanks || ranks==null) {
-            int ct=size();
-            double[] da = cont;
-            
-            sw.profile("getRanked: pass 1: store relevant values");
-            
-            // use Collections.sort to compute the ranks
-            class SortDouble implements Comparable{
-                double d;
-                int index;
-                public SortDouble(double d, int index){
-                    this.d=d;
-                    this.index=index;
-                }
-
-                public int compareTo(Object o) {
-                    double od = ((SortDouble)o).d;
-                    if(od>d) return -1;
-                    if(od<d) return 1;
-                    return 0;
-                }
-            }
-            List data = new ArrayList(da.length - missingCount);
-            for(int i = 0; i < da.length; i++) if (!Double.isNaN(da[i])) data.add(new SortDouble(da[i],i));
-            Collections.sort(data);
-	    int n = data.size();
-            r = new int[n];
-            for(int i = 0; i < n; i++) r[i] = ((SortDouble)data.get(i)).index;
-        } else {
-            r=ranks;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rankDoubles(cont,cont.length);
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
         }
-        
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x = r.length;
-            int ct = 0;
-            int i = 0; // pass 1 : find the # of relevant cases
-            while (i < x) {
-                if (m.get(r[i]) == markspec)
-                    ct++;
-                i++;
-            }
-            if (ct == 0) return null;
-            int[] mr = new int[ct];
-            i = 0;
-            int mri = 0;
-            while (i < x) {
-                if (m.get(r[i]) == markspec)
-                    mr[mri++] = r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-        
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public boolean hasEqualContents(double d2[]) {
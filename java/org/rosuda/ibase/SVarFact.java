@@ -26,7 +26,6 @@ public class SVarFact extends SVar
     String[] tempcats;
     int[] ccnts;
 
-    int[] ranks=null;
 
     boolean lastIsMissing=false;
 
@@ -74,6 +73,7 @@ public class SVarFact extends SVar
     }
 
     public boolean replaceAll(int[] ids, String[] cnames) {
+        invalidateRanks();
         cont=ids;
         cats=cnames;
         ccnts=new int[cnames.length+1];
@@ -160,6 +160,7 @@ public class SVarFact extends SVar
                     temp[i] = cont[z];
                 }
                 cont = temp;
+                invalidateRanks();
                 return true;
             }
             catch (Exception e) {
@@ -177,6 +178,7 @@ public class SVarFact extends SVar
                     else { temp[i] = cont[z]; }
                 }
                 cont = temp;
+                invalidateRanks();
                 if (o==null) cont[index] = getCatIndex(missingCat);
                 else {
                     int catI = getCatIndex(o.toString());
@@ -214,6 +216,7 @@ public class SVarFact extends SVar
             catI = getCatIndex(o.toString());
         }
         cont[i] = catI;
+        invalidateRanks();
         return false;
     }
 
@@ -279,69 +282,16 @@ public class SVarFact extends SVar
 cases: variable is not numerical or is categorical, no cases matching
         specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
-
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-
-        int[] r=null;
-
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-
-        if (!cacheRanks || ranks==null) {
-            int ct=size();
-            if (ct==0) return null;
-            r = new int[ct];
-            int i=0;
-            while(i<ct) { r[i]=i; i++; }
-
-            sw.profile("getRanked: prepare");
-            // pass 3: sort by value
-            i=0;
-            while (i<ct-1) {
-                int d=cont[r[i]];
-                int j=ct-1;
-                while (j>i) {
-                    int d2=cont[r[j]];
-                    if (d2<d) {
-                        int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                        d=d2;
-                    };
-                    j--;
-                }
-                i++;
-            }
+        if (size()==0) return null;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rankInts(cont,cont.length,false);
             sw.profile("getRanked: sort");
-            if (cacheRanks)
-                ranks=r;
-        } else {
-            r=ranks;
+            if (cacheRanks) ranks=r;
         }
-
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x=r.length;
-            int ct=0;
-            int i=0; // pass 1 : find the # of relevant cases
-            while(i<x) {
-                if (m.get(i)==markspec)
-                    ct++;
-                i++;
-            }
-            if (ct==0) return null;
-            int[] mr=new int[ct];
-            i=0;
-            int mri=0;
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    mr[mri++]=r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public boolean hasEqualContents(int i2[], String s2[]) {
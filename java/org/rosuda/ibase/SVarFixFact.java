@@ -24,7 +24,6 @@ public class SVarFixFact extends SVar
     String[] cats;
     int[] ccnts;
 
-    int[] ranks=null;
 
     boolean lastIsMissing=false;
 
@@ -192,69 +191,16 @@ public class SVarFixFact extends SVar
 cases: variable is not numerical or is categorical, no cases matching
         specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
-
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-
-        int[] r=null;
-
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-
-        if (!cacheRanks || ranks==null) {
-            int ct=size();
-            if (ct==0) return null;
-            r = new int[ct];
-            int i=0;
-            while(i<ct) { r[i]=i; i++; }
-
-            sw.profile("getRanked: prepare");
-            // pass 3: sort by value
-            i=0;
-            while (i<ct-1) {
-                int d=cont[r[i]];
-                int j=ct-1;
-                while (j>i) {
-                    int d2=cont[r[j]];
-                    if (d2<d) {
-                        int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                        d=d2;
-                    };
-                    j--;
-                }
-                i++;
-            }
+        if (size()==0) return null;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rankInts(cont,cont.length,false);
             sw.profile("getRanked: sort");
-            if (cacheRanks)
-                ranks=r;
-        } else {
-            r=ranks;
+            if (cacheRanks) ranks=r;
         }
-
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x=r.length;
-            int ct=0;
-            int i=0; // pass 1 : find the # of relevant cases
-            while(i<x) {
-                if (m.get(i)==markspec)
-                    ct++;
-                i++;
-            }
-            if (ct==0) return null;
-            int[] mr=new int[ct];
-            i=0;
-            int mri=0;
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    mr[mri++]=r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public String toString() {
@@ -27,7 +27,6 @@ public class SVarFixInt extends SVar
     /** list if counts per category */
     List  ccnts;
 
-    int[] ranks=null;
 
     static int[] temp;
 
@@ -196,7 +195,6 @@ public class SVarFixInt extends SVar
      *  @return <code>true<code> if element was successfully added, or <code>false</code> upon failure - currently when non-numerical value is inserted in a numerical variable. It is strongly recommended to check the result and act upon it, because failing to do so can result in non-consistent datasets - i.e. mismatched row IDs */
     public boolean add(Object o) {
         if (insertPos>=cont.length) return false;
-        if (cacheRanks && ranks!=null) ranks=null; // remove ranks - we don't update them so far...
         int val=int_NA;
         if (o!=null) {
             try {
@@ -228,6 +226,7 @@ public class SVarFixInt extends SVar
 	} else
             missingCount++;
         cont[insertPos++]=d;
+        invalidateRanks();
         NotifyAll(new NotifyMsg(this,Common.NM_VarContentChange));
 	return true;
     }
@@ -244,13 +243,14 @@ public class SVarFixInt extends SVar
 
     public boolean replace(int i, int d) {
         if (i<0 || i>=cont.length || isCat()) return false;
+        invalidateRanks();
         cont[i]=d;
         return true;
     }
 
     public Object at(int i) { return (i<0||i>=insertPos||cont[i]==SVar.int_NA)?null:new Integer(cont[i]); };
     public double atD(int i) { return (i<0||i>=insertPos||cont[i]==int_NA)?double_NA:cont[i]; }
-    public int atI(int i) { return (i<0||i>=insertPos)?int_NA:((int)(cont[i]+0.5)); }
+    public int atI(int i) { return (i<0||i>=insertPos)?int_NA:cont[i]; }
     public String asS(int i) { return (i<0||i>=insertPos||cont[i]==int_NA)?null:Integer.toString(cont[i]); }
 
     /** returns the ID of the category of the object
@@ -324,6 +324,7 @@ public class SVarFixInt extends SVar
                     temp[i] = cont[z];
                 }
                 cont = temp;
+                invalidateRanks();
                 insertPos = cont.length;
                 return true;
             }
@@ -342,6 +343,7 @@ public class SVarFixInt extends SVar
                     else temp[i] = cont[z];
                 }
                 cont = temp;
+                invalidateRanks();
                 cont[index] = o==null?int_NA:Integer.parseInt(o.toString());
                 insertPos = cont.length;
                 return true;
@@ -362,84 +364,16 @@ public class SVarFixInt extends SVar
 cases: variable is not numerical or is categorical, no cases matching
         specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
         if (isCat() || !isNum() || size()==0) return null;
-
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-
-        int[] r=null;
-
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-
-        if (!cacheRanks || ranks==null) {
-            // due to the massive amount of lookups necessary during the sorting, we allocate a separate double buffer with a copy of the data and work on that one instead of the atD access, if the number of cases is large enough.
-
-            ProgressDlg pd=null;
-            if (size()>1000) {
-                pd=new ProgressDlg("Variable "+getName());
-                pd.begin("Calculating ranks ...");
-            }
-            int ct=size();
-            r = new int[ct];
-            int[] da = cont;
-
-            sw.profile("getRanked: pass 1: store relevant values");
-
-            // pass 3: sort by value
-            int i=0;
-            while (i<ct-1) {
-                double d=da[r[i]];
-                int j=ct-1;
-                if (pd!=null && (i&255)==0)
-                    pd.setProgress((int)(((double)i)*99.0/((double)ct)));
-                while (j>i) {
-                    double d2=da[r[j]];
-                    if (d2<d) {
-                        int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                        d=d2;
-                    }
-                    j--;
-                }
-                i++;
-            }
-            if (pd!=null)
-                pd.setProgress(99);
-            sw.profile("getRanked: pass 2: sort");
-            if (cacheRanks)
-                ranks=r;
-            da=null;
-            if (pd!=null)
-                pd.end();
-            pd=null;
-        } else {
-            r=ranks;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rankInts(cont,cont.length,true);
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
         }
-
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x=r.length;
-            int ct=0;
-            int i=0; // pass 1 : find the # of relevant cases
-            while(i<x) {
-                if (m.get(i)==markspec)
-                    ct++;
-                i++;
-            }
-            if (ct==0) return null;
-            int[] mr=new int[ct];
-            i=0;
-            int mri=0;
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    mr[mri++]=r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public String toString() {
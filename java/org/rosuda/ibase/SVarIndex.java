@@ -0,0 +1,41 @@
+package org.rosuda.ibase;
+
+/** SVarIndex - virtual numeric variable holding the case numbers 1, 2, ..., n. The values are computed on access, so the variable uses no space per case. It is used as the x variable of series plots which have no explicit x variable. Like the buffer variables it is read-only and can be categorized (see {@link SVarBuffer}).
+    @version $Id$
+*/
+public final class SVarIndex extends SVarBuffer
+{
+    /** creates a new index variable
+        @param Name variable name
+        @param len number of cases */
+    public SVarIndex(String Name, int len)
+    {
+        super(Name, true, false, len);
+        contentsType=CT_Number;
+        min=(len>0)?1:0;
+        max=len;
+    }
+
+    public boolean isMissingAt(int i) { return (i<0||i>=n); }
+
+    public Object at(int i) { return isMissingAt(i)?null:new Integer(i+1); }
+    public double atF(int i) { return isMissingAt(i)?0:(double)(i+1); }
+    public double atD(int i) { return isMissingAt(i)?double_NA:(double)(i+1); }
+    public int atI(int i) { return isMissingAt(i)?int_NA:(i+1); }
+
+    /** the values are already in ascending order */
+    int[] rank() {
+        final int[] r=new int[n];
+        int i=0;
+        while (i<n) { r[i]=i; i++; }
+        return r;
+    }
+
+    String catName(double v) {
+        return Integer.toString((int)v);
+    }
+
+    public String toString() {
+        return "SVarIndex(\""+name+"\","+(cat?"cat,":"cont,")+"n="+n+")";
+    }
+}
@@ -27,7 +27,6 @@ public class SVarInt extends SVar
     /** list if counts per category */
     List  ccnts;
 
-    int[] ranks=null;
 
     static int[] temp;
 
@@ -44,6 +43,7 @@ public class SVarInt extends SVar
         isnum=true;
         cont=new int[len];
         for (int i = 0; i < cont.length; i++) cont[i] = SVar.int_NA;
+        missingCount = len;
         insertPos = len;
     }
 
@@ -64,8 +64,10 @@ public class SVarInt extends SVar
     }
 
     private void updateCache() {
+        invalidateRanks();
         boolean firstValid=true;
         min=max=0;
+        missingCount=0;
 	int i=0;
 	while (i<cont.length) {
 	    if (cont[i]==int_NA) missingCount++;
@@ -88,6 +90,12 @@ public class SVarInt extends SVar
 	@param rebuild if set to <code>true</code> force rebuild even if the variable is already categorial. */
     public void categorize(boolean rebuild) {
 	if (cat && !rebuild) return;
+	buildCategories();
+        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
+    }
+
+    /** builds the list of categories and their counts from the current contents without sending any notification */
+    private void buildCategories() {
 	cats=new ArrayList(); ccnts=new ArrayList();
 	cat=true;
 	if (!isEmpty()) {
@@ -101,12 +109,12 @@ public class SVarInt extends SVar
 		} else {
 		    ccnts.set(i,new Integer(((Integer)ccnts.get(i)).intValue()+1));
 		}
+                ci++;
 	    }
             if (isNum()) { // if numerical and categorical then sort categories for convenience
                 sortCategories(SM_num);
             }
 	}
-        NotifyAll(new NotifyMsg(this,Common.NM_VarTypeChange));
     }
 
     /** sort categories by specifeid method
@@ -182,7 +190,6 @@ public class SVarInt extends SVar
      *  @return <code>true<code> if element was successfully added, or <code>false</code> upon failure - currently when non-numerical value is inserted in a numerical variable. It is strongly recommended to check the result and act upon it, because failing to do so can result in non-consistent datasets - i.e. mismatched row IDs */
     public boolean add(Object o) {
         if (insertPos>=cont.length) return false;
-        if (cacheRanks && ranks!=null) ranks=null; // remove ranks - we don't update them so far...
         int val=int_NA;
         if (o!=null) {
             try {
@@ -214,6 +221,7 @@ public class SVarInt extends SVar
 	} else
             missingCount++;
         cont[insertPos++]=d;
+        invalidateRanks();
         NotifyAll(new NotifyMsg(this,Common.NM_VarContentChange));
 	return true;
     }
@@ -230,19 +238,84 @@ public class SVarInt extends SVar
 
     public boolean replace(int i, int d) {
         if (i<0 || i>=cont.length || isCat()) return false;
+        invalidateRanks();
+        if (cont[i]==int_NA) missingCount--;
         cont[i]=d;
+        if (d==int_NA) missingCount++;
         return true;
     }
 
     
-    public boolean replaceAll(int d[]) {
+    /** replaces a range of values in one go, see {@link SVar#replaceRange(int,double[],int,int)}. min/max are only recomputed if one of the extremes was overwritten, categories (if any) are rebuilt once. */
+    public boolean replaceRange(int start, int[] d, int off, int len) {
+        if (start<0 || off<0 || len<0 || start+len>cont.length || off+len>d.length) return false;
+        boolean rescan=(missingCount>=cont.length);
+        int i=0;
+        while (i<len) {
+            if (put(start+i, d[off+i])) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    /** replaces the values of the specified cases, see {@link SVar#replaceCases}. NaNs are stored as missing values, if any other value is not an integer nothing is replaced. */
+    public boolean replaceCases(int[] cases, double[] d) {
+        if (cases.length!=d.length) return false;
+        int i=0;
+        while (i<cases.length) {
+            if (cases[i]<0 || cases[i]>=cont.length || (!Double.isNaN(d[i]) && (d[i]!=(int)d[i] || (int)d[i]==int_NA))) return false;
+            i++;
+        }
+        boolean rescan=(missingCount>=cont.length);
+        i=0;
+        while (i<cases.length) {
+            if (put(cases[i], Double.isNaN(d[i])?int_NA:((int)d[i]))) rescan=true;
+            i++;
+        }
+        contentsReplaced(rescan);
+        return true;
+    }
+
+    /** replaces all values
+        @param d new values, the length must match the size of the variable
+        @param copy if <code>false</code> the array <code>d</code> is used as the new content without copying (the caller must not modify it afterwards other than through this variable), otherwise the values are copied
+        @return <code>false</code> if the length doesn't match */
+    public boolean replaceAll(int d[], boolean copy) {
 	if (cont.length != d.length) return false;
-	System.arraycopy(d, 0, cont, 0, d.length);
+	if (copy) System.arraycopy(d, 0, cont, 0, d.length); else cont=d;
 	updateCache();
+	if (cat) buildCategories();
 	return true;
     }
 
+    public boolean replaceAll(int d[]) {
+	return replaceAll(d, true);
+    }
+
+    /** stores a value as part of a bulk replacement, keeping the missing count and min/max up to date
+        @return <code>true</code> if an extreme value was overwritten, i.e. min/max must be recomputed */
+    private boolean put(int i, int v) {
+        final int o=cont[i];
+        boolean rescan=false;
+        if (o==int_NA) missingCount--; else rescan=(o<=min || o>=max);
+        if (v==int_NA) missingCount++; else {
+            if (v>max) max=v;
+            if (v<min) min=v;
+        }
+        cont[i]=v;
+        return rescan;
+    }
+
+    /** updates cached information after a bulk replacement
+        @param rescan if <code>true</code> min/max are recomputed */
+    private void contentsReplaced(boolean rescan) {
+        if (rescan) updateCache(); else invalidateRanks();
+        if (cat) buildCategories();
+    }
+
     public Object at(int i) { return (i<0||i>=insertPos||cont[i]==SVar.int_NA)?null:new Integer(cont[i]); };
+    public boolean isMissingAt(int i) { return (i<0||i>=insertPos||cont[i]==SVar.int_NA); }
     public double atD(int i) { return (i<0||i>=insertPos)?double_NA:cont[i]; }
     public double atF(int i) { return (i<0||i>=insertPos)?0:cont[i]; }
     public int atI(int i) { return (i<0||i>=insertPos)?int_NA:cont[i]; }
@@ -319,6 +392,7 @@ public class SVarInt extends SVar
                     temp[i] = cont[z];
                 }
                 cont = temp;
+                invalidateRanks();
                 insertPos = cont.length;
                 return true;
             }
@@ -337,6 +411,7 @@ public class SVarInt extends SVar
                     else temp[i] = cont[z];
                 }
                 cont = temp;
+                invalidateRanks();
                 cont[index] = o==null?int_NA:Integer.parseInt(o.toString());
                 insertPos = cont.length;
                 return true;
@@ -357,89 +432,16 @@ public class SVarInt extends SVar
 cases: variable is not numerical or is categorical, no cases matching
         specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
         if (isCat() || !isNum() || size()==0) return null;
-
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-
-        int[] r=null;
-
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-
-        if (!cacheRanks || ranks==null) {
-            // due to the massive amount of lookups necessary during the sorting, we allocate a separate double buffer with a copy of the data and work on that one instead of the atD access, if the number of cases is large enough.
-
-            ProgressDlg pd=null;
-            if (size()>1000) {
-                pd=new ProgressDlg("Variable "+getName());
-                pd.begin("Calculating ranks ...");
-            }
-            int ct=size();
-
-	    // setup the permutation vector
-            r = new int[ct - missingCount];
-	    int zi = 0;
-            int[] da = cont;
-	    for (int z = 0; z < ct; z++) if (da[z] != int_NA) r[zi++] = z;
-
-            sw.profile("getRanked: pass 1: store relevant values");
-
-            // pass 3: sort by value
-            int i=0;
-	    ct = r.length;
-            while (i < ct-1) {
-                int d=da[r[i]];
-                int j=ct-1;
-                if (pd!=null && (i&255)==0)
-                    pd.setProgress((int)(((double)i)*99.0/((double)ct)));
-                while (j>i) {
-                    int d2=da[r[j]];
-                    if (d2<d) {
-                        int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                        d=d2;
-                    }
-                    j--;
-                }
-                i++;
-            }
-            if (pd!=null)
-                pd.setProgress(99);
-            sw.profile("getRanked: pass 2: sort");
-            if (cacheRanks)
-                ranks=r;
-            da=null;
-            if (pd!=null)
-                pd.end();
-            pd=null;
-        } else {
-            r=ranks;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            r=rankInts(cont,cont.length,true);
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
         }
-
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x=r.length;
-            int ct=0;
-            int i=0; // pass 1 : find the # of relevant cases
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    ct++;
-                i++;
-            }
-            if (ct==0) return null;
-            int[] mr=new int[ct];
-            i=0;
-            int mri=0;
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    mr[mri++]=r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public boolean hasEqualContents(int c2[]) {
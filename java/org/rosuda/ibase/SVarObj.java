@@ -27,7 +27,6 @@ public class SVarObj extends SVar
     /** list of counts per category */
     List  ccnts;
 
-    int[] ranks=null;
 
     /** if set to <code>true</code> then modification methods don't fire events */
     boolean muteNotify=false;
@@ -194,7 +193,7 @@ public class SVarObj extends SVar
      *  @param o object to be added. First call to <code>add</code> (even implicit if an object was specified on the call to the constructor) does also decide whether the variable will be numeric or not. If the first object is a subclass of <code>Number</code> then the variable is defined as numeric. There is a significant difference in handling numeric and non-numeric variabels, see package header.
      *  @return <code>true<code> if element was successfully added, or <code>false</code> upon failure - currently when non-numerical value is inserted in a numerical variable. It is strongly recommended to check the result and act upon it, because failing to do so can result in non-consistent datasets - i.e. mismatched row IDs */
     public boolean add(Object o) {
-        if (cacheRanks && ranks!=null) ranks=null; // remove ranks - we don't update them so far...
+        invalidateRanks();
         if (o==null)
             missingCount++;
 	if (o!=null && size()==missingCount && guessing) { // o not missing and all just missing so far and guess
@@ -247,7 +246,7 @@ public class SVarObj extends SVar
             if (!muteNotify) NotifyAll(new NotifyMsg(this,Common.NM_VarContentChange));
             return true;
         }
-        if (cacheRanks && ranks!=null) ranks=null; // remove ranks - we don't update them so far...
+        invalidateRanks();
         missingCount++;
         cont.add(index,null);
         if (!muteNotify) NotifyAll(new NotifyMsg(this,Common.NM_VarContentChange));
@@ -260,6 +259,7 @@ public class SVarObj extends SVar
         Object o=at(index);
         if (o == null && missingCount > -1) missingCount--;
         cont.remove(index);
+        invalidateRanks();
         if (cats!=null) this.categorize(true);
         return true;
     }
@@ -289,11 +289,66 @@ public class SVarObj extends SVar
         }
       }
       cont.set(i,o); // we don't modify the element unless we're through all checks etc.
+      invalidateRanks();
       if (!muteNotify) NotifyAll(new NotifyMsg(this, Common.NM_VarContentChange));
       if (cat) this.categorize(true);
       return true;
     }
 
+    /** replaces a range of values in one go, see {@link SVar#replaceRange(int,double[],int,int)}. Only numeric variables are supported, NaNs are stored as missing values. Categories (if any) are rebuilt once. */
+    public boolean replaceRange(int start, double[] d, int off, int len) {
+        if (!isnum || start<0 || off<0 || len<0 || start+len>size() || off+len>d.length) return false;
+        int i=0;
+        while (i<len) {
+            put(start+i, d[off+i]);
+            i++;
+        }
+        contentsReplaced();
+        return true;
+    }
+
+    /** replaces the values of the specified cases, see {@link SVar#replaceCases}. Only numeric variables are supported, NaNs are stored as missing values. */
+    public boolean replaceCases(int[] cases, double[] d) {
+        if (!isnum || cases.length!=d.length) return false;
+        final int n=size();
+        int i=0;
+        while (i<cases.length) {
+            if (cases[i]<0 || cases[i]>=n) return false;
+            i++;
+        }
+        i=0;
+        while (i<cases.length) {
+            put(cases[i], d[i]);
+            i++;
+        }
+        contentsReplaced();
+        return true;
+    }
+
+    /** stores a value as part of a bulk replacement, min/max only "grow" like in {@link #replace} */
+    private void put(int i, double v) {
+        if (cont.get(i)==null) missingCount--;
+        if (Double.isNaN(v)) {
+            missingCount++;
+            cont.set(i,null);
+        } else {
+            if (v>max) max=v;
+            if (v<min) min=v;
+            cont.set(i,new Double(v));
+        }
+    }
+
+    /** updates cached information after a bulk replacement without sending notifications */
+    private void contentsReplaced() {
+        invalidateRanks();
+        if (cat) {
+            boolean savedMuteNotify=muteNotify;
+            muteNotify=true;
+            categorize(true);
+            muteNotify=savedMuteNotify;
+        }
+    }
+
     public Object at(int i) { return cont.get(i); };
 
     /** returns the ID of the category of the object
@@ -366,111 +421,20 @@ public class SVarObj extends SVar
 cases: variable is not numerical or is categorical, no cases matching
         specification are present */
     public int[] getRanked(SMarker m, int markspec) {
-        Stopwatch sw=new Stopwatch();
         if (isCat() || !isNum() || size()==0) return null;
-
-        if (m==null && cacheRanks && ranks!=null) return ranks; // we can cache only ranks w/o a marker
-
-        int[] r=null;
-
-        /* okay in fact we always get the full ranks and then pick those marked (if desired) */
-
-        if (!cacheRanks || ranks==null) {
-            // due to the massive amount of lookups necessary during the sorting, we allocate a separate double buffer with a copy of the data and work on that one instead of the atD access, if the number of cases is large enough.
-            if (size()<1000) {
-                int ct=size();
-                if (ct==0) return null;
-                r = new int[ct];
-                int i=0;
-                while(i<ct) { r[i]=i; i++; }
-
-                sw.profile("getRanked: prepare");
-                // pass 3: sort by value
-                i=0;
-                while (i<ct-1) {
-                    double d=atD(r[i]);
-                    int j=ct-1;
-                    while (j>i) {
-                        double d2=atD(r[j]);
-                        if (d2<d) {
-                            int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                            d=d2;
-                        };
-                        j--;
-                    };
-                    i++;
-                };
-                sw.profile("getRanked: sort");
-                if (cacheRanks)
-                    ranks=r;
-            } else {
-                ProgressDlg pd=new ProgressDlg("Variable "+getName());
-                pd.begin("Calculating ranks ...");
-                int ct=size();
-                r = new int[ct];
-                double[] da = new double[ct];
-                sw.profile("getRanked: alloc double array for "+ct+" cases");
-                int i=0; // pass 2: store relevant IDs
-                while(i<ct) {
-                    r[i]=i; da[i]=atD(i);
-                    i++;
-                }
-                sw.profile("getRanked: pass 2: store relevant values");
-
-                // pass 3: sort by value
-                i=0;
-                while (i<ct-1) {
-                    double d=da[r[i]];
-                    int j=ct-1;
-                    if ((i&255)==0)
-                        pd.setProgress((int)(((double)i)*99.0/((double)ct)));
-                    while (j>i) {
-                        double d2=da[r[j]];
-                        if (d2<d) {
-                            int xx=r[i]; r[i]=r[j]; r[j]=xx;
-                            d=d2;
-                        }
-                        j--;
-                    }
-                    i++;
-                }
-                pd.setProgress(99);
-                sw.profile("getRanked: pass 3: sort");
-                if (cacheRanks)
-                    ranks=r;
-                da=null;
-                pd.end();
-                pd=null;
-            }
-        } else {
-            r=ranks;
+        int[] r=ranks;
+        if (!cacheRanks || r==null) {
+            final Stopwatch sw=new Stopwatch();
+            final int ct=size();
+            final double[] da=new double[ct];
+            int i=0;
+            while (i<ct) { da[i]=atD(i); i++; }
+            r=rankDoubles(da,ct);
+            sw.profile("getRanked: sort");
+            if (cacheRanks) ranks=r;
         }
-
         // we got the full list - now we need to thin it out if a marker was specified
-        if (m!=null && r!=null) {
-            int x=r.length;
-            int ct=0;
-            int i=0; // pass 1 : find the # of relevant cases
-            while(i<x) {
-                if (m.get(i)==markspec)
-                    ct++;
-                i++;
-            }
-            if (ct==0) return null;
-            int[] mr=new int[ct];
-            i=0;
-            int mri=0;
-            while(i<x) {
-                if (m.get(r[i])==markspec)
-                    mr[mri++]=r[i];
-                i++;
-            }
-            r=null;
-            r=mr;
-        }
-
-        // return the resulting list
-        return r;
+        return filterRanks(r,m,markspec);
     }
 
     public String toString() {
@@ -231,50 +231,16 @@ public class SVarSet {
 
     public boolean Export(PrintStream p, boolean all) { return Export(p,all,null); }
     public boolean Export(PrintStream p) { return Export(p,true,null); }
+    /** exports variables as tab-separated text (see {@link WriterTSV}).
+        @param p stream to write to
+        @param all if <code>false</code> only the selected cases are exported (unless there are none)
+        @param vars IDs of the variables to export or <code>null</code> for all variables
+        @return <code>true</code> on success */
     public boolean Export(PrintStream p, boolean all, int vars[]) {
-        boolean exportAll=all || mark==null || mark.marked()==0;
         try {
             if (p!=null) {
-                int j=0,tcnt=0,fvar=0;
-                j=0;
-                if (vars==null || vars.length<1) {
-                    while(j<count()) {
-                        p.print(((tcnt==0)?"":"\t")+at(j).getName());
-                        if (tcnt==0) fvar=j;
-                        tcnt++;
-                        j++;
-                    }
-                } else {
-                    while(j<vars.length) {
-                        p.print(((tcnt==0)?"":"\t")+at(vars[j]).getName());
-                        if (tcnt==0) fvar=vars[j];
-                        tcnt++;
-                        j++;
-                    }
-                }
-                p.println("");
-                int i=0;
-                while (i<at(fvar).size()) {
-                    if (exportAll || mark.at(i)) {
-                        j=fvar;
-                        j=0;
-                        if (vars==null || vars.length<1) {
-                            while(j<count()) {
-                                Object oo=at(j).at(i);
-                                p.print(((j==0)?"":"\t")+((oo==null)?"NA":oo.toString()));
-                                j++;
-                            }
-                        } else {
-                            while(j<vars.length) {
-                                Object oo=at(vars[j]).at(i);
-                                p.print(((j==0)?"":"\t")+((oo==null)?"NA":oo.toString()));
-                                j++;
-                            }
-                        }
-                        p.println("");
-                    }
-                    i++;
-                };
+                new WriterTSV(p).write(getExportVars(vars), getExportCases(all));
+                if (p.checkError()) return false;
             };
             return true;
         } catch (Exception eee) {
@@ -285,6 +251,51 @@ public class SVarSet {
         return false;
     }
 
+    /** exports variables into a file. Files with the extension <code>.flf2</code> are written in the binary FLF2 format (see {@link WriterFLF2}), all others as tab-separated text which is compressed if the extension is <code>.gz</code>.
+        @param f file to write to
+        @param all if <code>false</code> only the selected cases are exported (unless there are none)
+        @param vars IDs of the variables to export or <code>null</code> for all variables
+        @return <code>true</code> on success */
+    public boolean Export(File f, boolean all, int vars[]) {
+        try {
+            if (f.getName().toLowerCase().endsWith(".flf2")) {
+                new WriterFLF2().write(getExportVars(vars), getExportCases(all), f);
+                return true;
+            }
+            OutputStream os=WriterTSV.open(f);
+            try {
+                new WriterTSV(os).write(getExportVars(vars), getExportCases(all));
+            } finally {
+                os.close();
+            }
+            return true;
+        } catch (Exception eee) {
+            if (Global.DEBUG>0) {
+                System.out.println("* SVarSet.Export...: something went wrong during the export: "+eee.getMessage()); eee.printStackTrace();
+            };
+        };
+        return false;
+    }
+
+    /** returns the variables with the specified IDs or all variables if <code>vars</code> is <code>null</code> or empty */
+    SVar[] getExportVars(int vars[]) {
+        if (vars==null || vars.length<1) {
+            SVar[] v=new SVar[count()];
+            int j=0;
+            while (j<v.length) { v[j]=at(j); j++; }
+            return v;
+        }
+        SVar[] v=new SVar[vars.length];
+        int j=0;
+        while (j<v.length) { v[j]=at(vars[j]); j++; }
+        return v;
+    }
+
+    /** returns the selected cases or <code>null</code> (=all cases) if <code>all</code> is set or nothing is selected */
+    int[] getExportCases(boolean all) {
+        return (all || mark==null || mark.marked()==0)?null:mark.getSelectedIDs();
+    }
+
     public void printSummary() {
         System.out.println("DEBUG for SVarSet ["+toString()+"]");
         for (Enumeration e=elements(); e.hasMoreElements();) {
@@ -0,0 +1,248 @@
+package org.rosuda.ibase;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+import org.rosuda.util.*;
+
+/** TextBuffer - memory-mapped text file with an index of its lines, used by the parallel loaders. The file is split into blocks and the line breaks of each block are counted in parallel, so the start of any line can be found by scanning one block only. Lines are terminated by <code>\n</code> or <code>\r\n</code> just like {@link BufferedReader#readLine}, files containing a <code>\r</code> on its own are not supported (see {@link #hasLoneCR}).
+    <p>The class also provides allocation-free scanners for numbers. They only handle the plain decimal notation that is exactly representable by a single rounding step and report anything else as not simple, so the caller can fall back to the regular parser and the results are always identical to <code>Double.valueOf</code> and <code>Integer.valueOf</code>.
+    <p>All methods only use absolute reads of the buffer, so they can be used by several threads at once.
+    @version $Id$
+*/
+class TextBuffer {
+    /** size of the blocks of the line index */
+    static final int BLOCK = 1<<20;
+    /** returned by {@link #scanDouble} if the value is not a plain decimal number */
+    static final double NOT_SIMPLE = Double.longBitsToDouble(0x7ff8000000dead00L);
+    /** returned by {@link #scanInt} if the value is not a plain integer */
+    static final long NOT_SIMPLE_INT = Long.MIN_VALUE;
+
+    static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    final ByteBuffer b;
+    /** length of the file */
+    final int len;
+    /** number of line breaks before each block (length blocks+1) */
+    int[] lineBase;
+    /** total number of lines (a last line without line break counts as well) */
+    int lines;
+    boolean loneCR;
+
+    TextBuffer(ByteBuffer b) {
+        this.b=b;
+        len=b.limit();
+        index();
+    }
+
+    /** maps a file and builds its line index
+        @return the buffer or <code>null</code> if the file is too large to be mapped as a whole */
+    static TextBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (size>Integer.MAX_VALUE) return null;
+            return new TextBuffer(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /** counts the line breaks of all blocks */
+    void index() {
+        final int blocks = (len+BLOCK-1)/BLOCK;
+        final int[] nl = new int[blocks];
+        final boolean[] cr = new boolean[blocks];
+        Parallel.forRange(blocks, 1, new Parallel.Task() {
+            public void run(int chunk, int from, int to) {
+                int bl = from;
+                while (bl<to) {
+                    int i = bl*BLOCK, e = i+BLOCK, n = 0;
+                    if (e>len) e = len;
+                    while (i<e) {
+                        final byte c = b.get(i);
+                        if (c=='\n') n++;
+                        else if (c=='\r' && (i+1>=len || b.get(i+1)!='\n')) cr[bl] = true;
+                        i++;
+                    }
+                    nl[bl++] = n;
+                }
+            }
+        });
+        lineBase = new int[blocks+1];
+        int i = 0;
+        while (i<blocks) {
+            lineBase[i+1] = lineBase[i]+nl[i];
+            if (cr[i]) loneCR = true;
+            i++;
+        }
+        lines = lineBase[blocks];
+        if (len>0 && b.get(len-1)!='\n') lines++;
+    }
+
+    /** line and position of the sequential reader, see {@link #readLine} */
+    int cline, cpos;
+
+    /** reads the next line like {@link BufferedReader#readLine}. Sequential reading is meant for the structure of a file and is not thread-safe.
+        @return the line or <code>null</code> at the end of the file */
+    String readLine() {
+        if (cline>=lines) return null;
+        final String s = string(cpos, lineEnd(cpos));
+        cpos = nextLine(cpos);
+        cline++;
+        return s;
+    }
+
+    /** skips lines of the sequential reader
+        @return <code>false</code> if there are less than <code>n</code> lines left (the reader is then at the end of the file) */
+    boolean skipLines(int n) {
+        if (cline+n>lines) {
+            cline = lines; cpos = len;
+            return false;
+        }
+        cline += n;
+        cpos = lineStart(cline);
+        return true;
+    }
+
+    /** returns <code>true</code> if the file contains a <code>\r</code> that is not followed by <code>\n</code> */
+    boolean hasLoneCR() { return loneCR; }
+
+    /** returns the number of lines */
+    int lines() { return lines; }
+
+    /** returns the position of the first character of a line (0-based) or <code>len</code> if there is no such line */
+    int lineStart(int line) {
+        if (line<=0) return 0;
+        if (line>=lines) return len;
+        // find the block containing the line break number "line"
+        int lo = 0, hi = lineBase.length-1;
+        while (lo<hi) {
+            final int mid = (lo+hi)>>>1;
+            if (lineBase[mid+1]<line) lo = mid+1; else hi = mid;
+        }
+        int k = lineBase[lo], i = lo*BLOCK;
+        while (true) {
+            if (b.get(i++)=='\n' && ++k==line) return i;
+        }
+    }
+
+    /** returns the end of the contents of the line starting at <code>pos</code> (excluding the line terminator) */
+    int lineEnd(int pos) {
+        while (pos<len && b.get(pos)!='\n') pos++;
+        if (pos>0 && b.get(pos-1)=='\r' && pos<len) pos--;
+        return pos;
+    }
+
+    /** returns the start of the line following the one that contains <code>pos</code> */
+    int nextLine(int pos) {
+        while (pos<len && b.get(pos)!='\n') pos++;
+        return (pos<len)?pos+1:len;
+    }
+
+    /** returns the characters between <code>s</code> and <code>e</code> decoded using the default encoding (as used by <code>FileReader</code>) */
+    String string(int s, int e) {
+        final byte[] a = new byte[e-s];
+        int i = 0;
+        while (s<e) a[i++] = b.get(s++);
+        return new String(a);
+    }
+
+    /** returns <code>true</code> if the characters between <code>s</code> and <code>e</code> are "NA" */
+    boolean isNA(int s, int e) {
+        return e-s==2 && b.get(s)=='N' && b.get(s+1)=='A';
+    }
+
+    /** parses a plain decimal number ([+-]digits[.digits][e[+-]digits]) with at most 15 significant digits and a small exponent
+        @return the value or {@link #NOT_SIMPLE} (test with {@link #isSimple}) */
+    double scanDouble(int s, int e) {
+        int i = s;
+        if (i>=e) return NOT_SIMPLE;
+        byte c = b.get(i);
+        boolean neg = false;
+        if (c=='-' || c=='+') { neg = (c=='-'); i++; }
+        long m = 0;
+        int digits = 0, exp = 0;
+        boolean any = false;
+        while (i<e && (c=b.get(i))>='0' && c<='9') {
+            any = true;
+            if (m!=0 || c!='0') {
+                if (++digits>15) return NOT_SIMPLE;
+                m = m*10+(c-'0');
+            }
+            i++;
+        }
+        if (i<e && b.get(i)=='.') {
+            i++;
+            while (i<e && (c=b.get(i))>='0' && c<='9') {
+                any = true;
+                if (m!=0 || c!='0') {
+                    if (++digits>15) return NOT_SIMPLE;
+                    m = m*10+(c-'0');
+                }
+                exp--;
+                i++;
+            }
+        }
+        if (!any) return NOT_SIMPLE;
+        if (i<e && ((c=b.get(i))=='e' || c=='E')) {
+            i++;
+            boolean eneg = false, ed = false;
+            if (i<e && ((c=b.get(i))=='-' || c=='+')) { eneg = (c=='-'); i++; }
+            int x = 0;
+            while (i<e && (c=b.get(i))>='0' && c<='9') {
+                ed = true;
+                if (x<10000) x = x*10+(c-'0');
+                i++;
+            }
+            if (!ed) return NOT_SIMPLE;
+            exp += eneg?-x:x;
+        }
+        if (i!=e) return NOT_SIMPLE;
+        double d;
+        // m<2^53 and 10^|exp| are exact, so a single multiplication or division is correctly rounded
+        if (m==0) d = 0.0;
+        else if (exp==0) d = (double)m;
+        else if (exp>0 && exp<=22) d = ((double)m)*POW10[exp];
+        else if (exp<0 && exp>=-22) d = ((double)m)/POW10[-exp];
+        else return NOT_SIMPLE;
+        return neg?-d:d;
+    }
+
+    /** returns <code>false</code> if the value returned by {@link #scanDouble} is {@link #NOT_SIMPLE} */
+    static boolean isSimple(double d) {
+        return Double.doubleToRawLongBits(d)!=Double.doubleToRawLongBits(NOT_SIMPLE);
+    }
+
+    /** parses a plain integer ([-]digits with at most 9 digits)
+        @return the value or {@link #NOT_SIMPLE_INT} */
+    long scanInt(int s, int e) {
+        int i = s;
+        if (i<e && b.get(i)=='-') i++;
+        if (i>=e || e-i>9) return NOT_SIMPLE_INT;
+        int v = 0;
+        while (i<e) {
+            final byte c = b.get(i++);
+            if (c<'0' || c>'9') return NOT_SIMPLE_INT;
+            v = v*10+(c-'0');
+        }
+        return (b.get(s)=='-')?-v:v;
+    }
+
+    /** same as <code>Tools.parseDouble</code> on the characters between <code>s</code> and <code>e</code> */
+    double parseDouble(int s, int e) {
+        final double d = scanDouble(s, e);
+        return isSimple(d)?d:Tools.parseDouble(string(s, e));
+    }
+
+    /** same as <code>Tools.parseInt</code> on the characters between <code>s</code> and <code>e</code> */
+    int parseInt(int s, int e) {
+        final long l = scanInt(s, e);
+        return (l!=NOT_SIMPLE_INT)?(int)l:Tools.parseInt(string(s, e));
+    }
+}
@@ -0,0 +1,283 @@
+package org.rosuda.ibase;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** Writer for the FLF2 (binary Fast Loading Files) data format, see {@link LoaderFLF2} for the format description. It also converts FLF1 and TSV files into FLF2, either by {@link #convert} or from the command line:
+<pre>java org.rosuda.ibase.WriterFLF2 &lt;input file&gt; &lt;output file&gt;</pre>
+Variables of type {@link SVarFixInt}, {@link SVarInt} and {@link SVarBufferInt} are stored as INT, other numeric variables as FLT and all remaining variables as FAC. The levels of variables that are not categorized are determined while writing, the variables are not changed. Polygon variables are not supported by FLF2 and are skipped.
+@version $Id$
+*/
+public class WriterFLF2 {
+    /** size of the output buffer */
+    static final int BUFFER_SIZE = 1<<20;
+
+    FileChannel ch;
+    ByteBuffer buf;
+    long pos;
+
+    /** writes all variables of a set into an FLF2 file. All variables must have the same length.
+        @param set variables to write
+        @param f output file
+        @return number of variables written */
+    public int write(SVarSet set, File f) throws IOException {
+        SVar[] all = new SVar[set.count()];
+        int i = 0;
+        while (i<all.length) { all[i] = set.at(i); i++; }
+        return write(all, null, f);
+    }
+
+    /** writes variables into an FLF2 file.
+        @param list variables to write (<code>null</code> entries are ignored)
+        @param cases indices of the cases to write or <code>null</code> to write all cases, in which case all variables must have the same length
+        @param f output file
+        @return number of variables written */
+    public int write(SVar[] list, int[] cases, File f) throws IOException {
+        int n = list.length;
+        int vc = 0, recs = (cases==null)?-1:cases.length, maxCase = -1;
+        SVar[] vars = new SVar[n];
+        int[] types = new int[n];
+        int i = 0;
+        if (cases!=null)
+            while (i<cases.length) {
+                if (cases[i]<0) throw new IOException("Invalid case index "+cases[i]);
+                if (cases[i]>maxCase) maxCase = cases[i];
+                i++;
+            }
+        i = 0;
+        while (i<n) {
+            SVar v = list[i++];
+            if (v==null) continue;
+            if (v.getContentsType()==SVar.CT_Map) {
+                System.out.println("WriterFLF2: skipping variable \""+v.getName()+"\" (polygons are not supported by FLF2)");
+                continue;
+            }
+            if (cases!=null) {
+                if (maxCase>=v.size()) throw new IOException("Variable \""+v.getName()+"\" has only "+v.size()+" cases");
+            } else if (recs<0) recs = v.size();
+            else if (v.size()!=recs) throw new IOException("Variable \""+v.getName()+"\" has "+v.size()+" cases, expected "+recs);
+            int t;
+            if (v.isNum() && !(v instanceof SVarFixFact))
+                t = (v instanceof SVarFixInt || v instanceof SVarInt || v instanceof SVarBufferInt)?LoaderFLF2.T_INT:LoaderFLF2.T_FLT;
+            else t = LoaderFLF2.T_FAC;
+            vars[vc] = v; types[vc] = t; vc++;
+        }
+        if (vc<1 || recs<1) throw new IOException("Nothing to write (at least 1x1 required)");
+
+        // names and levels are needed in advance to find out where the blocks start
+        byte[][] names = new byte[vc][];
+        byte[][][] levels = new byte[vc][][];
+        // level indices of variables that are not categorized - the variables themselves are not modified
+        HashMap[] codes = new HashMap[vc];
+        int dirLen = 0;
+        i = 0;
+        while (i<vc) {
+            names[i] = vars[i].getName().getBytes("UTF-8");
+            dirLen += 24+4+names[i].length;
+            if (types[i]==LoaderFLF2.T_FAC) {
+                ArrayList cats = null;
+                if (!vars[i].isCat()) {
+                    cats = new ArrayList();
+                    codes[i] = levelsOf(vars[i], cases, recs, cats);
+                }
+                int ls = (cats==null)?vars[i].getNumCats():cats.size();
+                levels[i] = new byte[ls][];
+                dirLen += 4;
+                int k = 0;
+                while (k<ls) {
+                    Object c = (cats==null)?vars[i].getCatAt(k):cats.get(k);
+                    levels[i][k] = ((c==null)?"NA":c.toString()).getBytes("UTF-8");
+                    dirLen += 4+levels[i][k].length;
+                    k++;
+                }
+            }
+            i++;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            ch = raf.getChannel();
+            buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            pos = LoaderFLF2.HEADER_SIZE+dirLen;
+            ch.position(pos);
+
+            long[] dataOff = new long[vc];
+            long[] naOff = new long[vc];
+            byte[] na = new byte[(recs+7)/8];
+            i = 0;
+            while (i<vc) {
+                SVar v = vars[i];
+                boolean hasNA = false;
+                java.util.Arrays.fill(na, (byte)0);
+                align();
+                dataOff[i] = pos;
+                int k = 0;
+                if (types[i]==LoaderFLF2.T_FLT) {
+                    while (k<recs) {
+                        double d = v.atD((cases==null)?k:cases[k]);
+                        if (Double.isNaN(d)) { na[k>>3]|=(byte)(1<<(k&7)); hasNA=true; }
+                        if (buf.remaining()<8) flush();
+                        buf.putDouble(d); pos+=8;
+                        k++;
+                    }
+                } else if (types[i]==LoaderFLF2.T_INT) {
+                    while (k<recs) {
+                        // atD returns NA for missing values of all numeric variables without creating objects (atI may round)
+                        double d = v.atD((cases==null)?k:cases[k]);
+                        int iv = 0;
+                        if (Double.isNaN(d)) { na[k>>3]|=(byte)(1<<(k&7)); hasNA=true; }
+                        else iv = (int)d;
+                        if (buf.remaining()<4) flush();
+                        buf.putInt(iv); pos+=4;
+                        k++;
+                    }
+                } else {
+                    HashMap cm = codes[i];
+                    while (k<recs) {
+                        int c = (cases==null)?k:cases[k];
+                        int ci = (cm==null)?v.getCatIndex(c):((Integer)cm.get(levelOf(v, c))).intValue();
+                        if (ci<0) { na[k>>3]|=(byte)(1<<(k&7)); hasNA=true; ci=-1; }
+                        if (buf.remaining()<4) flush();
+                        buf.putInt(ci); pos+=4;
+                        k++;
+                    }
+                }
+                if (hasNA) {
+                    align();
+                    naOff[i] = pos;
+                    put(na);
+                }
+                i++;
+            }
+            flush();
+
+            // header and column directory
+            ch.position(0);
+            pos = 0;
+            put(LoaderFLF2.MAGIC);
+            buf.putInt(LoaderFLF2.VERSION);
+            buf.putInt(vc);
+            buf.putInt(recs);
+            buf.putInt(dirLen);
+            i = 0;
+            while (i<vc) {
+                if (buf.remaining()<28) flush();
+                buf.putInt(types[i]);
+                buf.putInt((naOff[i]!=0)?LoaderFLF2.F_NA:0);
+                buf.putLong(dataOff[i]);
+                buf.putLong(naOff[i]);
+                putString(names[i]);
+                if (levels[i]!=null) {
+                    if (buf.remaining()<4) flush();
+                    buf.putInt(levels[i].length);
+                    int k = 0;
+                    while (k<levels[i].length) putString(levels[i][k++]);
+                }
+                i++;
+            }
+            flush();
+        } finally {
+            ch = null; buf = null;
+            raf.close();
+        }
+        return vc;
+    }
+
+    /** returns the level of a case in the same way {@link SVar#categorize} does, i.e. missing values are a level on their own */
+    static Object levelOf(SVar v, int i) {
+        Object o = v.at(i);
+        return (o==null)?SVar.missingCat:o;
+    }
+
+    /** determines the levels of a variable that is not categorized in the order of their first occurrence (the same order {@link SVar#categorize} uses)
+        @param v variable
+        @param cases cases to write or <code>null</code> for all
+        @param recs number of cases to write
+        @param cats list receiving the levels
+        @return map of the levels to their indices */
+    static HashMap levelsOf(SVar v, int[] cases, int recs, ArrayList cats) {
+        HashMap m = new HashMap();
+        int k = 0;
+        while (k<recs) {
+            Object o = levelOf(v, (cases==null)?k:cases[k]);
+            if (!m.containsKey(o)) {
+                m.put(o, new Integer(cats.size()));
+                cats.add(o);
+            }
+            k++;
+        }
+        return m;
+    }
+
+    /** writes the buffer to the file */
+    void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    /** pads the output to the next multiple of 8 */
+    void align() throws IOException {
+        while ((pos&7)!=0) {
+            if (!buf.hasRemaining()) flush();
+            buf.put((byte)0); pos++;
+        }
+    }
+
+    void put(byte[] b) throws IOException {
+        int o = 0;
+        while (o<b.length) {
+            if (!buf.hasRemaining()) flush();
+            int l = b.length-o;
+            if (l>buf.remaining()) l = buf.remaining();
+            buf.put(b, o, l);
+            o += l; pos += l;
+        }
+    }
+
+    void putString(byte[] s) throws IOException {
+        if (buf.remaining()<4) flush();
+        buf.putInt(s.length); pos+=4;
+        put(s);
+    }
+
+    /** converts an FLF1 or TSV file into FLF2. The input format is recognized by the FLF1 magic, anything else is treated as TSV file with variable names in the first line.
+        @param in input file
+        @param out output file
+        @return number of variables written */
+    public static int convert(File in, File out) throws IOException {
+        SVarSet set = new SVarSet();
+        BufferedReader r = new BufferedReader(new FileReader(in));
+        String s;
+        try {
+            s = r.readLine();
+        } finally {
+            r.close();
+        }
+        if (s!=null && s.equals("FLF1"))
+            new LoaderFLF().load(in, set);
+        else
+            Loader.LoadTSV(in, set, true, null);
+        return new WriterFLF2().write(set, out);
+    }
+
+    public static void main(String[] args) {
+        if (args.length!=2) {
+            System.out.println("Usage: java org.rosuda.ibase.WriterFLF2 <input file> <output file>\n\nConverts FLF1 or TSV files into FLF2.");
+            System.exit(1);
+        }
+        SVar.int_NA=-2147483648; // same as in the framework
+        try {
+            int n = convert(new File(args[0]), new File(args[1]));
+            System.out.println("WriterFLF2: "+n+" variables written to "+args[1]);
+        } catch (IOException e) {
+            System.out.println("WriterFLF2: "+e.getMessage());
+            System.exit(1);
+        }
+    }
+}
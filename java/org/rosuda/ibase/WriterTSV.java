@@ -0,0 +1,170 @@
+package org.rosuda.ibase;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+
+/** Writer for tab-separated text files with variable names in the first line (as read by {@link Loader}). The values are formatted directly into a byte buffer - numeric values are read as primitives and the labels of factors are encoded only once per level, so no object is created per value for the common variable types. The output is the same as produced by <code>toString()</code> of the values, missing values are written as <code>NA</code>.
+    <p>Only the cases in the list passed to {@link #write} are written, so exporting a selection only touches the selected cases (see {@link SMarker#getSelectedIDs}).
+@version $Id$
+*/
+public class WriterTSV {
+    /** size of the output buffer */
+    static final int BUFFER_SIZE = 1<<16;
+
+    /** kinds of variables */
+    static final int K_OBJ = 0;
+    static final int K_INT = 1;
+    static final int K_DBL = 2;
+    static final int K_FAC = 3;
+
+    static final byte[] NA = { 'N', 'A' };
+
+    OutputStream out;
+    byte[] buf;
+    int len;
+    byte[] eol;
+
+    /** creates a new writer
+        @param out stream to write to. It is not closed by the writer. */
+    public WriterTSV(OutputStream out) {
+        this.out = out;
+        buf = new byte[BUFFER_SIZE];
+        eol = System.getProperty("line.separator", "\n").getBytes();
+    }
+
+    /** opens a file for writing, the output is compressed by gzip if the name of the file ends with <code>.gz</code> */
+    public static OutputStream open(File f) throws IOException {
+        OutputStream os = new FileOutputStream(f);
+        if (f.getName().toLowerCase().endsWith(".gz")) return new GZIPOutputStream(os, BUFFER_SIZE);
+        return new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    /** writes a header line with the variable names and one line for each case
+        @param vars variables (columns)
+        @param cases indices of the cases to write or <code>null</code> to write all cases (up to the size of the first variable) */
+    public void write(SVar[] vars, int[] cases) throws IOException {
+        int nv = vars.length;
+        int[] kind = new int[nv];
+        byte[][][] labels = new byte[nv][][];
+        int j = 0;
+        while (j<nv) {
+            SVar v = vars[j];
+            if (j>0) put((byte)'\t');
+            put(v.getName());
+            if (v instanceof SVarInt || v instanceof SVarFixInt || v instanceof SVarBufferInt || v instanceof SVarIndex)
+                kind[j] = K_INT;
+            else if (v instanceof SVarDouble || v instanceof SVarFixDouble || v instanceof SVarBufferDouble)
+                kind[j] = K_DBL;
+            else if (v instanceof SVarFact || v instanceof SVarFixFact || v instanceof SVarBufferFact) {
+                kind[j] = K_FAC;
+                labels[j] = new byte[v.getNumCats()][];
+            } else
+                kind[j] = K_OBJ;
+            j++;
+        }
+        put(eol);
+        int n = (cases==null)?((nv>0)?vars[0].size():0):cases.length;
+        int k = 0;
+        while (k<n) {
+            int i = (cases==null)?k:cases[k];
+            j = 0;
+            while (j<nv) {
+                if (j>0) put((byte)'\t');
+                SVar v = vars[j];
+                switch (kind[j]) {
+                case K_INT: {
+                    int x = v.atI(i);
+                    if (x==SVar.int_NA) put(NA); else putInt(x);
+                    break;
+                }
+                case K_DBL: {
+                    double d = v.atD(i);
+                    if (Double.isNaN(d)) put(NA); else putDouble(d);
+                    break;
+                }
+                case K_FAC: {
+                    int c = v.getCatIndex(i);
+                    byte[][] l = labels[j];
+                    if (c<0 || c>=l.length) put(NA);
+                    else {
+                        if (l[c]==null) {
+                            Object o = v.getCatAt(c);
+                            l[c] = (o==null)?NA:o.toString().getBytes();
+                        }
+                        put(l[c]);
+                    }
+                    break;
+                }
+                default: {
+                    Object o = v.at(i);
+                    if (o==null) put(NA); else put(o.toString());
+                }
+                }
+                j++;
+            }
+            put(eol);
+            k++;
+        }
+        flush();
+    }
+
+    /** writes the contents of the buffer to the stream */
+    public void flush() throws IOException {
+        if (len>0) out.write(buf, 0, len);
+        len = 0;
+        out.flush();
+    }
+
+    void put(byte b) throws IOException {
+        if (len>=buf.length) { out.write(buf, 0, len); len = 0; }
+        buf[len++] = b;
+    }
+
+    void put(byte[] b) throws IOException {
+        if (len+b.length>buf.length) {
+            out.write(buf, 0, len); len = 0;
+            if (b.length>buf.length) { out.write(b); return; }
+        }
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    /** writes a string - ASCII strings are copied directly, others are encoded using the default encoding */
+    void put(String s) throws IOException {
+        int l = s.length();
+        if (len+l>buf.length) { out.write(buf, 0, len); len = 0; }
+        if (l<=buf.length) {
+            int i = 0;
+            while (i<l) {
+                char c = s.charAt(i);
+                if (c>127) break;
+                buf[len+i] = (byte)c;
+                i++;
+            }
+            if (i==l) { len += l; return; }
+        }
+        put(s.getBytes());
+    }
+
+    /** writes the decimal representation of an integer */
+    void putInt(int x) throws IOException {
+        if (len+11>buf.length) { out.write(buf, 0, len); len = 0; }
+        if (x==Integer.MIN_VALUE) { put(Integer.toString(x)); return; }
+        if (x<0) { buf[len++] = (byte)'-'; x = -x; }
+        int e = len;
+        do { buf[e++] = (byte)('0'+x%10); x /= 10; } while (x>0);
+        // digits were written in reverse order
+        int a = len, b = e-1;
+        while (a<b) { byte t = buf[a]; buf[a++] = buf[b]; buf[b--] = t; }
+        len = e;
+    }
+
+    /** writes a double in the same format as <code>Double.toString</code>. Integral values below 10^7 (the most common case) are formatted directly. */
+    void putDouble(double d) throws IOException {
+        if (d!=0.0 && d>-1e7 && d<1e7 && d==(int)d) {
+            putInt((int)d);
+            put((byte)'.'); put((byte)'0');
+        } else
+            put(Double.toString(d));
+    }
+}
@@ -101,6 +101,7 @@ public class BarCanvas extends BaseCanvas {
     
     /** rebuilds bars */
     public void updateObjects() {
+	invalidatePrimitiveIndex();
 	countMax=0; c_max=0;
 	final Object[] cts=v.getCategories();
 	cat_nam=new String[cts.length+1];
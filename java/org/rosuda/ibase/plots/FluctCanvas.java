@@ -478,15 +478,7 @@ public class FluctCanvas extends PGSCanvas implements Dependent, MouseListener,
 	    try {
 		PrintStream p=Tools.getNewOutputStreamDlg(myFrame,"Export selected cases to ...","selected.txt");
 		if (p!=null) {
-		    p.println(v[0].getName()+"\t"+v[1].getName());
-                    int i=0, sz=v[0].size();
-                    while(i<sz) {
-                        if (m.at(i)) {
-                            Object oo=v[0].at(i);
-                            p.println(((oo==null)?"NA":oo.toString())+"\t"+((v[1].at(i)==null)?"NA":v[1].at(i).toString()));
-                        }
-                        i++;
-                    }
+		    new WriterTSV(p).write(new SVar[] { v[0], v[1] }, m.getSelectedIDs());
 		    p.close();
 		}
 	    } catch (Exception eee) {};
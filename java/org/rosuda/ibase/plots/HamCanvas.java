@@ -51,6 +51,7 @@ public class HamCanvas extends BaseCanvas {
     }
     
     public void updateObjects() {
+        invalidatePrimitiveIndex();
         Dimension Dsize=getSize();
         int w=Dsize.width, h=Dsize.height;
         int axi=0; while (axi<ai.length)
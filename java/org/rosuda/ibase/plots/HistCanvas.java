@@ -134,7 +134,45 @@ public class HistCanvas extends BaseCanvas {
     
     public SVar getData(final int id) { return (id==0)?v:null; }
     
+    /** IDs of all non-missing cases ordered by value and the corresponding values, see {@link #validateSorted} */
+    private int[] sortedIDs;
+    private double[] sortedValues;
+    /** variable and its content version the sorted index was built for */
+    private SVar sortedOf;
+    private long sortedVersion;
+    
+    /** makes sure the sorted index is up to date. It is built directly from the values of all non-missing cases (categorized variables have no ranks, see {@link SVar#getRanked}) and is rebuilt only if the contents of the variable change, so re-binning doesn't need to access the variable at all. */
+    void validateSorted() {
+        if (sortedIDs!=null && sortedOf==v && sortedVersion==v.getContentVersion()) return;
+        final int n=v.size();
+        final double[] val=new double[n];
+        int i=0;
+        while (i<n) {
+            val[i]=v.isMissingAt(i)?Double.NaN:v.atD(i);
+            i++;
+        }
+        final int[] ids=SVar.rankDoubles(val, n);
+        final int k=ids.length;
+        final double[] sv=new double[k];
+        i=0;
+        while (i<k) { sv[i]=val[ids[i]]; i++; }
+        sortedIDs=ids;
+        sortedValues=sv;
+        sortedOf=v;
+        sortedVersion=v.getContentVersion();
+    }
+    
+    /** returns the index of the first value in <code>sv[from..to-1]</code> (ascending) that belongs to bin <code>bin</code> or any later bin, or <code>to</code> if there is none. The bin of a value is computed exactly as it used to be for each case, so the result is the same as binning all cases one by one. */
+    int firstInBin(final double[] sv, int from, int to, final double vBegin, final int bin) {
+        while (from<to) {
+            final int mid=(from+to)>>>1;
+            if ((int)((sv[mid]-vBegin)/binw)<bin) from=mid+1; else to=mid;
+        }
+        return from;
+    }
+    
     public void updateObjects() {
+        invalidatePrimitiveIndex();
         // we should set recalcBar to false if anchor/binw didn't change (re-introduce recalcBar)
         
         bars=((int)((v.getMax()-anchor)/binw))+1;
@@ -145,41 +183,28 @@ public class HistCanvas extends BaseCanvas {
         int i=0;
         while(i<bars) { pp[i]=new PPrimRectangle(); setColors((PPrimBase)pp[i]); i++; }
         
-        final int count[]=new int[bars];
-        final int es=v.size();
-        final int id2bar[]=new int[es];
-        i=0;
+        // cases are taken from the sorted index, each bin is a contiguous range found by binary search
+        validateSorted();
+        final int[] sr=sortedIDs;
+        final double[] sv=sortedValues;
+        final double vBegin=normalAx.vBegin;
         int countMax = 0;
-        while (i<es) {
-            final Object o=v.at(i);
-            if (o!=null) {
-                final double f=((Number)o).doubleValue();
-                final int box=(int)((f-normalAx.vBegin)/binw);
-                id2bar[i]=box+1;
-                if (box>=0 && box<bars) {
-                    count[box]++;
-                    if (count[box]>countMax) countMax=count[box];
-                }
-            }
-            i++;
-        }
-        
+        int lo=firstInBin(sv, 0, sv.length, vBegin, 0);
         i=0;
-        // calculate counts
-        while(i<es) {
-            int b=id2bar[i];
-            if (b>0) {
-                b--;
-                final PPrimRectangle pr=(PPrimRectangle)pp[b];
-                if (pr.ref==null) {
-                    pr.ref=new int[count[b]];
-                    paintpp++;
-                }
-                count[b]--;
-                pr.ref[count[b]]=i;
+        while (i<bars) {
+            final int hi=firstInBin(sv, lo, sv.length, vBegin, i+1);
+            final int ct=hi-lo;
+            if (ct>0) {
+                final PPrimRectangle pr=(PPrimRectangle)pp[i];
+                pr.ref=new int[ct];
+                System.arraycopy(sr, lo, pr.ref, 0, ct);
+                paintpp++;
+                if (ct>countMax) countMax=ct;
             }
+            lo=hi;
             i++;
         }
+        
         i=0;
         if(autoScaleYAxis) ay.setValueRange(countMax);
         
@@ -204,11 +229,10 @@ public class HistCanvas extends BaseCanvas {
             }
         } else{
             final int bly=ay.getValuePos(0);
-            while(i<es) {
-                int b=id2bar[i];
-                if (b>0) {
-                    b--;
-                    final PPrimRectangle pr=(PPrimRectangle)pp[b];
+            while(i<bars) {
+                final PPrimRectangle pr=(PPrimRectangle)pp[i];
+                if (pr.ref!=null) {
+                    final int b=i;
                     final int ly=bly;
                     final int x1=ax.getValuePos(ax.vBegin+b*binw);
                     final int x2=ax.getValuePos(ax.vBegin+(b+1)*binw);
@@ -80,6 +80,7 @@ public class KapMeCanvas extends BaseCanvas {
         super(gd,f,mark);
         setTitle("Kaplan-Meier Plot");
         allow180=false;
+        incrementalSelection=false; // the selection is painted as curves
         
         vTime=time; vEvent=event;
         ay=new Axis(null,Axis.O_Y,Axis.T_Num); ay.addDepend(this); ay.setValueRange(0,1);
@@ -95,6 +96,7 @@ public class KapMeCanvas extends BaseCanvas {
     }
     
     public void updateObjects() {
+        invalidatePrimitiveIndex();
         int[] tRanks = vTime.getRanked();
         calcKM(tRanks);
     }
@@ -50,6 +50,9 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
 
     int X,Y,W,H, TW,TH;
     double totMin, totMax;
+
+    /** decimation pyramids of the series (built when needed, see {@link #paintDecimated}) */
+    SeriesPyramid[] pyr;
     /** create a new lineplot
 	@param f associated frame (or <code>null</code> if none)
 	@param v1 variable 1
@@ -79,8 +82,7 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	A[1].setValueRange(totMin,totMax-totMin);
          A[1].addDepend(this);
 	if (xv==null) {
-	    xv=new SVarObj("index.LC");
-	    i=1; while(i<=v[1].size()) { xv.add(new Integer(i)); i++; };
+	    xv=new SVarIndex("index.LC",v[1].size());
             setTitle("Series plot of "+vnlist);
         } else setTitle("Series plot of "+xv.getName()+" vs "+vnlist);
         f.setTitle(getTitle());
@@ -125,6 +127,7 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
     }
     
     public void Notifying(NotifyMsg msg, Object o, Vector path) {
+        if ((msg.getMessageID()&Common.NM_MASK)==Common.NM_VarChange) pyr=null;
         setUpdateRoot((msg.getMessageID()==Common.NM_MarkerChange)?0:0);
         repaint();
     };
@@ -204,30 +207,25 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
             };
         }
 
-	g.setColor("line");
 	for (int j=1;j<v.length;j++) {
-            if (j==2) g.setColor(255,0,0);
-            if (j==3) g.setColor(0,0,255);
-            if (j==4) g.setColor(128,0,128);
-            if (j==5) g.setColor(0,128,128);
-            if (j==6) g.setColor(128,128,0);
-            if (j==7) g.setColor(0,0,0);
+            setSeriesColor(g,j);
+            if (paintDecimated(g,j)) continue;
             boolean lmc=false;
-            for (int i=1;i<v[0].size() && i<v[j].size();i++) {
+            int first=1, last=v[0].size()-1;
+            if (last>=v[j].size()) last=v[j].size()-1;
+            if (v[0] instanceof SVarIndex) { // only the visible cases (and the segments leaving the plot) are drawn
+                final double vb=Math.floor(A[0].vBegin)-2.0, ve=Math.ceil(A[0].vBegin+A[0].vLen);
+                if (vb>first) first=(vb>last)?last+1:(int)vb;
+                if (ve<last) last=(ve<first)?first-1:(int)ve;
+            }
+            for (int i=first;i<=last;i++) {
                 int x1=A[0].getCasePos(i-1), x2=A[0].getCasePos(i);
-                if ((drawBackline || x2>=x1) && v[j].at(i)!=null && v[j].at(i-1)!=null) {
+                if ((drawBackline || x2>=x1) && !v[j].isMissingAt(i) && !v[j].isMissingAt(i-1)) {
                     if (m.at(i)!=lmc) { lmc=!lmc;
                         if (lmc && !ignoreMarker)
                             g.setColor("marked");
-                        else {
-                            if (j==1) g.setColor("line");
-                            if (j==2) g.setColor(255,0,0);
-                            if (j==3) g.setColor(0,0,255);
-                            if (j==4) g.setColor(128,0,128);
-                            if (j==5) g.setColor(0,128,128);
-                            if (j==6) g.setColor(128,128,0);
-                            if (j>6) g.setColor(0,0,0);
-                        }
+                        else
+                            setSeriesColor(g,j);
                     }
                     if (type==LT_DIRECT) {
                         g.drawLine(A[0].getCasePos(i-1),TH-A[1].getValuePos(v[j].atD(i-1)),
@@ -269,6 +267,101 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
         setUpdateRoot(3); // by default no repaint is necessary unless resize occurs
     };
 
+    /** sets the color of series <code>j</code> */
+    void setSeriesColor(PoGraSS g, int j) {
+        if (j==1) g.setColor("line");
+        if (j==2) g.setColor(255,0,0);
+        if (j==3) g.setColor(0,0,255);
+        if (j==4) g.setColor(128,0,128);
+        if (j==5) g.setColor(0,128,128);
+        if (j==6) g.setColor(128,128,0);
+        if (j>6) g.setColor(0,0,0);
+    }
+
+    /** draws series <code>j</code> by pixel columns if it has more cases than pixels in the visible range. For each column the minimum and maximum of the column's cases are taken from the decimation pyramid (see {@link SeriesPyramid}) and drawn as a vertical line, the last case of a column is connected to the first case of the next one. Marked cases are aggregated in the same way and drawn on top. This is used only if the x variable is the case index, i.e. the cases are equally spaced and ordered along the x axis.
+        @return <code>true</code> if the series was drawn, <code>false</code> if it should be drawn case by case */
+    boolean paintDecimated(PoGraSS g, int j) {
+        if (!(v[0] instanceof SVarIndex) || W<1) return false;
+        int n=v[0].size();
+        if (v[j].size()<n) n=v[j].size();
+        final double cpp=A[0].vLen/((double)W);
+        if (n<1 || cpp<SeriesPyramid.BASE) return false;
+        if (pyr==null || pyr.length!=v.length) pyr=new SeriesPyramid[v.length];
+        SeriesPyramid sp=pyr[j];
+        if (sp==null || sp.getVariable()!=v[j] || !sp.isValid()) { // also rebuilt after changes without notification (e.g. batch updates from R)
+            Stopwatch sw=new Stopwatch();
+            sp=pyr[j]=new SeriesPyramid(v[j]);
+            sw.profile("LineCanvas: build pyramid for "+v[j].getName());
+        }
+        final int l=sp.getLevel(cpp);
+        if (l<0) return false;
+        final int bs=sp.getBlockSize(l);
+        // visible cases (value of case i is i+1) including one case on each side
+        int first=(int)Math.floor(A[0].vBegin)-2, last=(int)Math.ceil(A[0].vBegin+A[0].vLen);
+        if (first<0) first=0;
+        if (last>n-1) last=n-1;
+        if (first>last) return true;
+        final int bLast=last/bs;
+        int b=first/bs;
+        int cx=0, px=0, cFirst=-1, cLast=-1, pLast=-1;
+        double cMin=Double.NaN, cMax=Double.NaN;
+        while (b<=bLast+1) {
+            int x=0;
+            if (b<=bLast) x=A[0].getValuePos((double)(b*bs+1));
+            if (b>bLast || (cFirst>=0 && x!=cx)) { // flush the current column
+                if (!Double.isNaN(cMin))
+                    g.drawLine(cx,TH-A[1].getValuePos(cMin),cx,TH-A[1].getValuePos(cMax));
+                if (pLast>=0 && !v[j].isMissingAt(pLast) && !v[j].isMissingAt(cFirst)) {
+                    final int py=TH-A[1].getValuePos(v[j].atD(pLast)), cy=TH-A[1].getValuePos(v[j].atD(cFirst));
+                    if (type==LT_DIRECT)
+                        g.drawLine(px,py,cx,cy);
+                    else {
+                        g.drawLine(px,py,cx,py);
+                        g.drawLine(cx,py,cx,cy);
+                    }
+                }
+                px=cx; pLast=cLast; cFirst=-1;
+                cMin=cMax=Double.NaN;
+            }
+            if (b>bLast) break;
+            if (cFirst<0) { cx=x; cFirst=b*bs; }
+            cLast=(b+1)*bs-1;
+            if (cLast>=n) cLast=n-1;
+            cMin=SeriesPyramid.lower(cMin,sp.getMin(l,b));
+            cMax=SeriesPyramid.upper(cMax,sp.getMax(l,b));
+            b++;
+        }
+        if (m!=null && m.marked()>0 && !ignoreMarker) {
+            // a marked case i marks the segment from case i-1 to i, so both values are included in the column of case i
+            g.setColor("marked");
+            final int[] sel=m.getSelectedIDs();
+            cx=0; cMin=cMax=Double.NaN;
+            int k=0;
+            while (k<=sel.length) {
+                int i=-1, x=0;
+                if (k<sel.length) {
+                    i=sel[k];
+                    if (i<1 || i<first || i>last) { k++; continue; }
+                    x=A[0].getValuePos((double)(i+1));
+                }
+                if ((i<0 || x!=cx) && !Double.isNaN(cMin)) {
+                    g.drawLine(cx,TH-A[1].getValuePos(cMin),cx,TH-A[1].getValuePos(cMax));
+                    cMin=cMax=Double.NaN;
+                }
+                if (i<0) break;
+                cx=x;
+                if (!v[j].isMissingAt(i) && !v[j].isMissingAt(i-1)) {
+                    final double d1=v[j].atD(i-1), d2=v[j].atD(i);
+                    cMin=SeriesPyramid.lower(SeriesPyramid.lower(cMin,d1),d2);
+                    cMax=SeriesPyramid.upper(SeriesPyramid.upper(cMax,d1),d2);
+                }
+                k++;
+            }
+            setSeriesColor(g,j);
+        }
+        return true;
+    }
+
     public void mouseClicked(MouseEvent ev) 
     {
 	int x=ev.getX(), y=ev.getY();
@@ -386,15 +479,7 @@ public class LineCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    try {
 		PrintStream p=Tools.getNewOutputStreamDlg(myFrame,"Export selected cases to ...","selected.txt");
 		if (p!=null) {
-		    p.println(v[0].getName()+"\t"+v[1].getName());
-                    int i=0, sz=v[0].size();
-                    while(i<sz) {
-                        if (m.at(i)) {
-                            Object oo=v[0].at(i);
-                            p.println(((oo==null)?"NA":oo.toString())+"\t"+((v[1].at(i)==null)?"NA":v[1].at(i).toString()));
-                        }
-			i++;
-		    }
+		    new WriterTSV(p).write(new SVar[] { v[0], v[1] }, m.getSelectedIDs());
 		    p.close();
 		}
 	    } catch (Exception eee) {};
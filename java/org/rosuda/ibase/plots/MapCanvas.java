@@ -21,6 +21,11 @@ public class MapCanvas extends BaseCanvas
 	boolean fixedAspectRatio = true;
     double minX, minY, maxX, maxY;
 
+    /** simplified polygons, one for each primitive */
+    MapSimplifier simp;
+    /** case (map segment) of each polygon */
+    int[] entCase;
+
     public MapCanvas(int gd, Frame f, SVar mv, SMarker mark) {
         super(gd,f,mark);
         setTitle("Polygon Map ("+mv.getName()+")");
@@ -68,6 +73,24 @@ public class MapCanvas extends BaseCanvas
                 i++;
             };
             pp=new PlotPrimitive[tot];
+            // flat list of all polygons for simplification
+            final MapSegmentEntry[] ents=new MapSegmentEntry[tot];
+            entCase=new int[tot];
+            int ps=0;
+            i=0;
+            while (i<v.size() && ps<tot) {
+                MapSegment ms=(MapSegment) v.at(i);
+                if (ms!=null) {
+                    int j=0;
+                    while (j<ms.count() && ps<tot) {
+                        ents[ps]=ms.at(j);
+                        entCase[ps]=i;
+                        j++; ps++;
+                    }
+                }
+                i++;
+            }
+            simp=new MapSimplifier(ents,Math.max(maxX-minX,maxY-minY));
             //System.out.println("global bounds: ("+minX+","+minY+")-("+maxX+","+maxY+")");
             boolean ins=ignoreNotifications;
             ignoreNotifications=true;
@@ -125,27 +148,35 @@ public class MapCanvas extends BaseCanvas
         if (Global.DEBUG>0)
             System.out.println(" X:["+ax+"]["+minX+".."+maxX+"] Y:["+ay+"]["+minY+".."+maxY+"]");
         
-        int i=0;
+        // the simplified polygons may deviate from the original ones by half a pixel
+        double tol=Math.min(Math.abs(ax.vLen/((double)ax.gLen)),Math.abs(ay.vLen/((double)ay.gLen)))/2.0;
+        final int level=simp.getLevel(tol);
+        // polygons outside of the visible area are not projected (their primitives have no polygon)
+        final double vx1=Math.min(ax.vBegin,ax.vBegin+ax.vLen), vx2=Math.max(ax.vBegin,ax.vBegin+ax.vLen);
+        final double vy1=Math.min(ay.vBegin,ay.vBegin+ay.vLen), vy2=Math.max(ay.vBegin,ay.vBegin+ay.vLen);
         int ps=0;
-        while (i<v.size() && ps<pp.length) {
-            MapSegment ms=(MapSegment) v.at(i);
-            if (ms!=null) {
-                int j=0;
-                while (j<ms.count()) {
-                    PPrimPolygon pri=new PPrimPolygon();
-                    pri.ref=new int[1];
-                    pri.ref[0]=i;
-					pri.drawBorder=paintOutline;
-                    if (orientation==0 || orientation==2)
-                        pri.pg=new Polygon(MapSegmentTools.transViaAxisX(ms,j,ax),MapSegmentTools.transViaAxisY(ms,j,ay),ms.getSizeAt(j));
-                    else
-                        pri.pg=new Polygon(MapSegmentTools.transViaAxisY(ms,j,ay),MapSegmentTools.transViaAxisX(ms,j,ax),ms.getSizeAt(j));
-                    pp[ps]=pri;
-                    j++; ps++;
-                }
+        while (ps<pp.length) {
+            PPrimPolygon pri=(pp[ps] instanceof PPrimPolygon)?(PPrimPolygon)pp[ps]:null;
+            if (pri==null) {
+                pri=new PPrimPolygon();
+                pri.ref=new int[1];
+                pri.ref[0]=entCase[ps];
+                pp[ps]=pri;
+            }
+            pri.drawBorder=paintOutline;
+            final MapSegmentEntry mse=simp.at(ps);
+            if (mse==null || mse.maxX<vx1 || mse.minX>vx2 || mse.maxY<vy1 || mse.minY>vy2)
+                pri.pg=null;
+            else {
+                final double[] xp=simp.getX(ps,level), yp=simp.getY(ps,level);
+                if (orientation==0 || orientation==2)
+                    pri.pg=new Polygon(MapSegmentTools.transViaAxis(xp,ax),MapSegmentTools.transViaAxis(yp,ay),xp.length);
+                else
+                    pri.pg=new Polygon(MapSegmentTools.transViaAxis(yp,ay),MapSegmentTools.transViaAxis(xp,ax),xp.length);
             }
-            i++;
+            ps++;
         }
+        invalidatePrimitiveIndex();
         setUpdateRoot(0);
     }
     
@@ -165,7 +196,14 @@ public class MapCanvas extends BaseCanvas
         if (cmd=="bounds") {
             setUpdateRoot(0);
             paintOutline=!paintOutline;
-			updateObjects(); // currently the outline is a property of the objects, so we need to re-create them.. silly, I know ...
+            // only the style of the primitives changes, so the geometry is kept
+            if (pp!=null) {
+                int i=0;
+                while (i<pp.length) {
+                    if (pp[i] instanceof PPrimPolygon) ((PPrimPolygon)pp[i]).drawBorder=paintOutline;
+                    i++;
+                }
+            }
             repaint();
         }        	
 	return null;
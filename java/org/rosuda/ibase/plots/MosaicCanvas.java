@@ -96,9 +96,11 @@ public class MosaicCanvas extends BaseCanvas {
     }
     
     public void updateObjects() {
+        invalidatePrimitiveIndex();
         // updateObjects is called when variables are categorized, i.e. before the frequency table is initialized, so:
         if(dontPaint) return;
         
+        ft.validate(); // counts the cases again only if the contents of the variables changed
         create(mLeft,mTop, getWidth()-mRight, getHeight()-mBottom, "");
         if(pp==null || pp.length!=rects.size()) pp = new PlotPrimitive[rects.size()];
         rects.toArray(pp);
@@ -384,7 +386,7 @@ public class MosaicCanvas extends BaseCanvas {
         final int k = vs;
         final String name = v[levelid].getName();
         
-        final Object[] lnames = v[levelid].getCategories();
+        final String[] lnames = ft.getLnames()[levelid];
         final int levels = lnames.length;
         
         final double[] exp = ft.getExp();
@@ -575,7 +577,7 @@ public class MosaicCanvas extends BaseCanvas {
     
     public void Notifying(final NotifyMsg msg, final Object o, final Vector path) {
         if(!ignoreNotifications && msg.getMessageID()==Common.NM_VarSeqChange){
-            ft=new FrequencyTable(v);
+            ft.reorder();
         }
         super.Notifying(msg, o, path);
     }
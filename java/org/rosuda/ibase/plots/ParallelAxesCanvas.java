@@ -14,6 +14,7 @@ import java.awt.Rectangle;
 import java.awt.TextField;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Vector;
@@ -22,7 +23,9 @@ import org.rosuda.ibase.*;
 import org.rosuda.ibase.toolkit.*;
 import org.rosuda.ibase.toolkit.PGSCanvas.*;
 import org.rosuda.pograss.PoGraSS;
+import org.rosuda.pograss.PoGraSSimage;
 import org.rosuda.util.RespDialog;
+import org.rosuda.util.Parallel;
 import org.rosuda.util.SpacingPanel;
 import org.rosuda.util.Tools;
 
@@ -92,6 +95,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
     private static final String M_HIDELINES = "Hide lines";
     private static final String M_TOGGLELINES = "toggleLines";
     private static final String M_HIDENALINES = "hideNAlines";
+    private static final String M_DENSITY = "toggleDensity";
     private static final String M_COMMON = "common";
     private static final String M_YRANGEDLG = "YrangeDlg";
     private static final String M_SCALEDLG = "scaleDlg";
@@ -116,6 +120,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
     private MenuItem MInodeSizeUp=null;
     private MenuItem MInodeSizeDown=null;
     private MenuItem MIhideNAlines=null;
+    private MenuItem MIdensity=null;
     private MenuItem MIPCP=null;
     private MenuItem MIBox=null;
     private MenuItem MIPCPBox=null;
@@ -170,6 +175,29 @@ public class ParallelAxesCanvas extends BaseCanvas {
     
     private int nodeSize=2;
     
+    /**
+     * PCP density mode fields (see {@link #setDensityMode})
+     */
+    private boolean densityMode=false;
+    /** maximal number of bins per axis in density mode */
+    public int densityBins=256;
+    /** bins per axis, range of the value positions covered by the bins */
+    private int dBins, dLo, dSpan;
+    /** variable index and position of the axis at each display position */
+    private int[] dAxis, dPos;
+    /** axis of each variable */
+    private Axis[] dYax;
+    /** for each pair of adjacent axes (in display order) the number of line segments by bins of both end points (<code>bin1*dBins+bin2</code>), of all cases and of the selected cases */
+    private int[][] dAll, dSel;
+    /** for each pair of adjacent axes the cases ordered by their bin pair and the start of each bin pair in that list (see {@link #densityIndex}), <code>null</code> if not built yet */
+    private int[][] dIndex, dIndexStart;
+    /** maximal number of pairs of axes whose index is kept */
+    private static final int DENSITY_INDEX_CACHE = 2;
+    /** marker version {@link #dSel} was computed for */
+    private long dSelVersion=-1;
+    /** cached rasters of {@link #dAll} and {@link #dSel} */
+    private BufferedImage dImgAll, dImgSel;
+    
     public Color COL_AXES=Color.WHITE;
     
     public boolean isMouseOnHilite=false;
@@ -181,6 +209,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
      * @param mark associated marker */
     public ParallelAxesCanvas(final int gd, final Frame f, final SVar var, final SVar cvar, final SMarker mark, final int type) {
         super(gd,f,mark);
+        incrementalSelection=false; // boxplots paint their selection on their own
         
         this.type=type;
         
@@ -296,6 +325,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
      */
     public ParallelAxesCanvas(final int gd, final Frame f, final SVar[] yvs, final SMarker mark, final int type) {
         super(gd, f, mark);
+        incrementalSelection=false; // boxplots paint their selection on their own
         
         this.type=type;
         initFlagsAndFields();
@@ -350,6 +380,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
             M_SHOWAXES,M_TOGGLEAXES,
             M_HIDELINES,M_TOGGLELINES,
             "@NHide NA Lines",M_HIDENALINES,
+            "Density Raster",M_DENSITY,
             M_MINUS,
             "@TCommon Scale",M_COMMON,
             M_MINUS,
@@ -382,6 +413,8 @@ public class ParallelAxesCanvas extends BaseCanvas {
         MInodeSizeUp.setEnabled(false);
         MIhideNAlines=EzMenu.getItem(f,M_HIDENALINES);
         MIhideNAlines.setEnabled(type==TYPE_PCP);
+        MIdensity=EzMenu.getItem(f,M_DENSITY);
+        MIdensity.setEnabled(type==TYPE_PCP);
         MItransHighl=EzMenu.getItem(f,M_TRANSHIGHL);
         MIPCP=EzMenu.getItem(f,M_PCP);
         MIBox=EzMenu.getItem(f,M_BOX);
@@ -443,6 +476,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
             setUpdateRoot(0);
             repaint();
         }
+        if (M_DENSITY.equals(cmd)) setDensityMode(!densityMode);
         if (M_TOGGLEAXES.equals(cmd)) {
             drawAxes=!drawAxes;
             MIaxes.setLabel((drawAxes)?"Hide Axes":M_SHOWAXES);
@@ -1042,8 +1076,10 @@ public class ParallelAxesCanvas extends BaseCanvas {
     
     public void mouseMoved(final MouseEvent e) {
         int x=e.getX(); int y=e.getY();
-        PlotPrimitive p=getFirstPrimitiveContaining(x,y);
-        if(p!=null) isMouseOnHilite=p.hilitcontains(x,y);
+        if (!isDensity()) { // in density mode hit-testing visits all cases, so it's done for queries only
+            PlotPrimitive p=getFirstPrimitiveContaining(x,y);
+            if(p!=null) isMouseOnHilite=p.hilitcontains(x,y);
+        }
         super.mouseMoved(e);
     }
     
@@ -1107,6 +1143,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
     }
     
     public void updateObjects() {
+        invalidatePrimitiveIndex();
         if(!getValid()) return;
         
         switch(type){
@@ -1114,6 +1151,12 @@ public class ParallelAxesCanvas extends BaseCanvas {
                 initBoxes(0);
                 break;
             case TYPE_PCP:
+                if (densityMode) {
+                    polylines.clear();
+                    pp=new PlotPrimitive[0];
+                    initDensity();
+                    break;
+                }
                 if (pp==null || pp.length!=v[0].size()) {
                     pp=new PlotPrimitive[v[0].size()];
                 }
@@ -1242,6 +1285,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
     }
     
     public void paintSelected(final PoGraSS g) {
+        if (isDensity()) paintDensity(g, true);
         // in boxplots painting of selected primitives is handled by the canvas itself, not by the primitive
         if(type==TYPE_BOX || type==TYPE_PCPBOX){
             if(markStats!=null){
@@ -1474,6 +1518,7 @@ public class ParallelAxesCanvas extends BaseCanvas {
         MIsortByMarkedMedian.setEnabled(enable);
         MIsortByMarkedMax.setEnabled(enable);
         MIsortByMarkedMin.setEnabled(enable);
+        MIdensity.setEnabled(type==TYPE_PCP);
     }
     
     private void initBoxes(int additionalSpace) {
@@ -1532,66 +1577,378 @@ public class ParallelAxesCanvas extends BaseCanvas {
         }
     }
     
-    private void initPolylines(int offset) {
+    private void initPolylines(final int offset) {
         polylines.clear();
-        final int[][] xs = new int[v[0].size()][v.length];
-        final int[][] ys = new int[v[0].size()][v.length];
-        //boolean[] na = new boolean[v[0].size()];
-        final int[][] na = new int[v[0].size()][];
-        final int[] naIndices = new int[v.length+1];
-        for (int i=0;i<v[0].size();i++){
-            int numNAs=0;
-            for (int j=0;j<v.length;j++){
-                xs[i][ax.getCatSeqIndex(j)] = getAxCatPos(j);
-                if(v[j].isCat()){
-                    ys[i][ax.getCatSeqIndex(j)] = ((commonScale||j==0)?ay:opAy[j-1]).getValuePos(v[j].getCatIndex(i));
-                } else {
-                    ys[i][ax.getCatSeqIndex(j)] = ((commonScale||j==0)?ay:opAy[j-1]).getValuePos(v[j].atD(i));
+        final int cases = v[0].size();
+        final int nv = v.length;
+        // axis geometry is evaluated once, the polylines are then built in parallel
+        final int[] seq = new int[nv];
+        final int[] xpos = new int[nv];
+        final Axis[] yax = new Axis[nv];
+        for (int j=0;j<nv;j++){
+            seq[j] = ax.getCatSeqIndex(j);
+            xpos[seq[j]] = getAxCatPos(j);
+            yax[j] = (commonScale||j==0)?ay:opAy[j-1];
+        }
+        final PPrimPolygon[] pl = new PPrimPolygon[cases];
+        forCases(cases, new Parallel.Task() {
+            public void run(final int chunk, final int from, final int to) {
+                final int[] naIndices = new int[nv+1];
+                for (int i=from;i<to;i++){
+                    final int[] xs = new int[nv];
+                    final int[] ys = new int[nv];
+                    int numNAs=0;
+                    for (int j=0;j<nv;j++){
+                        xs[seq[j]] = xpos[seq[j]];
+                        if(v[j].isCat()){
+                            ys[seq[j]] = yax[j].getValuePos(v[j].getCatIndex(i));
+                        } else {
+                            ys[seq[j]] = yax[j].getValuePos(v[j].atD(i));
+                        }
+                        if ((!drawHidden && m.at(i)) || v[j].at(i)==null) {
+                            naIndices[numNAs++] = j;
+                        }
+                    }
+                    
+                    final PPrimPolygon p = new PPrimPolygon();
+                    if(orientation==0) p.pg = new Polygon(xs, ys, nv);
+                    else               p.pg = new Polygon(ys, xs, nv);
+                    p.closed=false;
+                    p.fill=false;
+                    p.selectByCorners=!drawLines;
+                    p.drawCorners = drawPoints;
+                    p.ref = new int[] {i};
+                    p.setNodeSize(nodeSize);
+                    p.drawBorder=drawLines;
+                    p.showInvisibleLines=drawNAlines;
+                    final boolean[] nas = new boolean[nv];
+                    final boolean[] gap = new boolean[nv];
+                    
+                    if(numNAs>0){
+                        final boolean[] nod = new boolean[nv];
+                        for(int k=0; k<numNAs; k++) {
+                            nas[naIndices[k]]=true;
+                            if(naIndices[k]>0) nas[naIndices[k]-1]=true;
+                            nod[naIndices[k]]=true;
+                        }
+                        p.noDotsAt = nod;
+                        for(int k=0; k<numNAs-1; k++){
+                            if(naIndices[k+1]-naIndices[k]==2) gap[naIndices[k]+1]=true;
+                        }
+                        if(naIndices[0]==1) gap[0]=true;
+                        if(naIndices[numNAs-1]==gap.length-2) gap[gap.length-1]=true;
+                    }
+                    p.invisibleLines=nas;
+                    p.setGapDots(gap);
+                    pl[i] = p;
+                }
+            }
+        });
+        
+        for(int j=0; j<cases; j++){
+            pp[j+offset] = pl[j];
+            polylines.add(pl[j]);
+            setColors(pl[j]);
+        }
+    }
+    
+    /** switches the density mode of the PCP. In density mode no polyline is created for each case, instead the line segments between adjacent axes are counted by the (binned) positions of their end points, separately for all and for the selected cases, and both counts are painted as color-mapped rasters. Memory and painting time don't depend on the number of cases, so this mode is meant for very large datasets. Selection and queries work on the cases whose segments pass through the selected area.
+     * @param dm <code>true</code> to use density mode */
+    public void setDensityMode(final boolean dm) {
+        densityMode=dm;
+        if (MIdensity!=null) MIdensity.setLabel(dm?"Individual Lines":"Density Raster");
+        if (!dm) { dAll=dSel=null; dIndex=dIndexStart=null; dImgAll=dImgSel=null; pp=null; }
+        updateGeometry=true;
+        setUpdateRoot(0);
+        repaint();
+    }
+    
+    public boolean isDensityMode() { return densityMode; }
+    
+    private boolean isDensity() { return densityMode && type==TYPE_PCP; }
+    
+    /** sets up the density geometry and counts the segments of all cases */
+    private void initDensity() {
+        final int nv = v.length;
+        dAxis = new int[nv];
+        dPos = new int[nv];
+        dYax = new Axis[nv];
+        for (int j=0;j<nv;j++){
+            final int k = ax.getCatSeqIndex(j);
+            dAxis[k] = j;
+            dPos[k] = getAxCatPos(j);
+            dYax[j] = (commonScale||j==0)?ay:opAy[j-1];
+        }
+        final Rectangle r = getBounds();
+        if (orientation==0) { dLo=mTop; dSpan=r.height-mBottom-mTop+1; }
+        else { dLo=mLeft; dSpan=r.width-mRight-mLeft+1; }
+        if (dSpan<1) dSpan=1;
+        dBins = (dSpan<densityBins)?dSpan:densityBins;
+        dAll = countSegments(null, v[0].size());
+        dIndex = new int[dAll.length][];
+        dIndexStart = new int[dAll.length][];
+        dSel = null; dSelVersion = -1;
+        dImgAll = dImgSel = null;
+    }
+    
+    /** returns the bin of the position of case <code>i</code> on the axis of variable <code>j</code> or -1 if the value is missing or outside of the plot */
+    private int densityBin(final int j, final int i) {
+        if (v[j].isMissingAt(i)) return -1;
+        final int p = (v[j].isCat()?dYax[j].getValuePos(v[j].getCatIndex(i)):dYax[j].getValuePos(v[j].atD(i)))-dLo;
+        return (p<0 || p>=dSpan)?-1:(int)(((long)p)*((long)dBins)/((long)dSpan));
+    }
+    
+    /** counts the line segments between adjacent axes
+     * @param cases cases to count or <code>null</code> for all cases
+     * @param n number of cases */
+    private int[][] countSegments(final int[] cases, final int n) {
+        final int nv = v.length;
+        final int np = (nv>1)?nv-1:0;
+        final int bb = dBins*dBins;
+        final int[][] total = new int[np][bb];
+        if (np==0 || n==0) return total;
+        forCases(n, new Parallel.Task() {
+            public void run(final int chunk, final int from, final int to) {
+                final int[][] c = new int[np][bb];
+                final int[] b = new int[nv];
+                for (int l=from;l<to;l++){
+                    final int i = (cases==null)?l:cases[l];
+                    for (int k=0;k<nv;k++) b[k] = densityBin(dAxis[k], i);
+                    for (int k=0;k<np;k++)
+                        if (b[k]>=0 && b[k+1]>=0) c[k][b[k]*dBins+b[k+1]]++;
                 }
-                if ((!drawHidden && m.at(i)) || v[j].at(i)==null) {
-                    naIndices[numNAs++] = j;
+                synchronized (total) {
+                    for (int k=0;k<np;k++) {
+                        final int[] t = total[k], ck = c[k];
+                        for (int x=0;x<bb;x++) t[x]+=ck[x];
+                    }
                 }
             }
-            if(numNAs>0){
-                na[i] = new int[numNAs];
-                System.arraycopy(naIndices, 0, na[i], 0, numNAs);
+        });
+        return total;
+    }
+    
+    /** renders segment counts into an image: each segment is spread over the columns between its axes (the weight of each segment is the same in each column) and the accumulated density is mapped to the opacity of the color on a log scale */
+    private BufferedImage renderDensity(final int[][] counts, final Color col) {
+        final Rectangle r = getBounds();
+        final int w = r.width, h = r.height;
+        if (w<1 || h<1) return null;
+        final float[] acc = new float[w*h];
+        final int uMax = (orientation==0)?w:h, wMax = (orientation==0)?h:w;
+        for (int k=0;k<counts.length;k++){
+            final int u0 = dPos[k], u1 = dPos[k+1];
+            final int du = u1-u0, step = (du<0)?-1:1;
+            if (du==0) continue;
+            final int[] c = counts[k];
+            for (int a=0;a<dBins;a++){
+                final int wa = dLo+(a*dSpan+dSpan/2)/dBins;
+                for (int b=0;b<dBins;b++){
+                    final int n = c[a*dBins+b];
+                    if (n==0) continue;
+                    final int wb = dLo+(b*dSpan+dSpan/2)/dBins;
+                    int prev = wa;
+                    int u = u0;
+                    while (u!=u1) {
+                        u+=step;
+                        final int cw = wa+(int)(((long)(wb-wa))*((long)(u-u0))/((long)du));
+                        final int lo = (prev<cw)?prev:cw, hi = (prev<cw)?cw:prev;
+                        prev = cw;
+                        if (u<0 || u>=uMax) continue;
+                        final float f = ((float)n)/((float)(hi-lo+1));
+                        for (int y=(lo<0)?0:lo; y<=hi && y<wMax; y++)
+                            acc[(orientation==0)?(y*w+u):(u*w+y)]+=f;
+                    }
+                }
             }
         }
-        
-        for(int j=0; j<xs.length; j++){
-            pp[j+offset] = new PPrimPolygon();
-            polylines.add(pp[j+offset]);
-            if(orientation==0) ((PPrimPolygon)pp[j+offset]).pg = new Polygon(xs[j], ys[j], xs[j].length);
-            else               ((PPrimPolygon)pp[j+offset]).pg = new Polygon(ys[j], xs[j], xs[j].length);
-            ((PPrimPolygon)pp[j+offset]).closed=false;
-            ((PPrimPolygon)pp[j+offset]).fill=false;
-            ((PPrimPolygon)pp[j+offset]).selectByCorners=!drawLines;
-            ((PPrimPolygon)pp[j+offset]).drawCorners = drawPoints;
-            ((PPrimPolygon)pp[j+offset]).ref = new int[] {j};
-            ((PPrimPolygon)pp[j+offset]).setNodeSize(nodeSize);
-            ((PPrimPolygon)pp[j+offset]).drawBorder=drawLines;
-            ((PPrimPolygon)pp[j+offset]).showInvisibleLines=drawNAlines;
-            setColors((PPrimBase)pp[j+offset]);
-            final boolean[] nas = new boolean[xs[j].length];
-            final boolean[] gap = new boolean[xs[j].length];
-            
-            if(na[j]!=null){
-                final boolean[] nod = new boolean[xs[j].length];
-                for(int i=0; i<na[j].length; i++) {
-                    nas[na[j][i]]=true;
-                    if(na[j][i]>0) nas[na[j][i]-1]=true;
-                    nod[na[j][i]]=true;
+        float max = 0f;
+        for (int i=0;i<acc.length;i++) if (acc[i]>max) max=acc[i];
+        final int[] px = new int[acc.length];
+        if (max>0f) {
+            final double lm = Math.log(1.0+max);
+            final int rgb = col.getRGB()&0xffffff;
+            for (int i=0;i<acc.length;i++)
+                if (acc[i]>0f) {
+                    final int alpha = 51+(int)(204.0*Math.log(1.0+acc[i])/lm);
+                    px[i] = (((alpha>255)?255:alpha)<<24)|rgb;
                 }
-                ((PPrimPolygon)pp[j+offset]).noDotsAt = nod;
-                for(int i=0; i<na[j+offset].length-1; i++){
-                    if(na[j][i+1]-na[j][i]==2) gap[na[j][i]+1]=true;
+        }
+        final BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        img.setRGB(0, 0, w, h, px, 0, w);
+        return img;
+    }
+    
+    /** paints the density raster of all cases or of the selected cases */
+    private void paintDensity(final PoGraSS g, final boolean selected) {
+        if (dAll==null) return;
+        BufferedImage img;
+        if (selected) {
+            if (m.marked()<1) return;
+            if (dSel==null || dSelVersion!=m.getVersion()) {
+                final int[] ids = m.getSelectedIDs();
+                dSel = countSegments(ids, ids.length);
+                dSelVersion = m.getVersion();
+                dImgSel = null;
+            }
+            if (dImgSel==null) dImgSel = renderDensity(dSel, (borderColorSel!=null)?borderColorSel:Common.selectColor);
+            img = dImgSel;
+        } else {
+            if (dImgAll==null) dImgAll = renderDensity(dAll, (borderColor!=null)?borderColor:Color.black);
+            img = dImgAll;
+        }
+        if (img==null) return;
+        if(objectClipping) g.setClip(mLeft, mTop, getBounds().width-mLeft-mRight, getBounds().height-mTop-mBottom);
+        g.drawImage(new PoGraSSimage(img), 0, 0, img.getWidth(), img.getHeight());
+        if(objectClipping) g.resetClip();
+    }
+    
+    public void paintObjects(final PoGraSS g) {
+        if (isDensity()) paintDensity(g, false);
+        else super.paintObjects(g);
+    }
+    
+    /** returns the position of case <code>i</code> on the axis of variable <code>j</code> */
+    private int densityPos(final int j, final int i) {
+        return v[j].isCat()?dYax[j].getValuePos(v[j].getCatIndex(i)):dYax[j].getValuePos(v[j].atD(i));
+    }
+    
+    /** returns the index of the segments between the axes at display positions <code>k</code> and <code>k+1</code>: the cases are ordered by the bin pair of their segment (as counted in {@link #dAll}), the cases of bin pair <code>x</code> are at positions <code>dIndexStart[k][x]</code> to <code>dIndexStart[k][x+1]-1</code>. Cases whose segment is not counted are not included. The index is built on first use. */
+    private int[] densityIndex(final int k) {
+        if (dIndex[k]!=null) return dIndex[k];
+        final int[] c = dAll[k];
+        final int bb = c.length;
+        final int[] start = new int[bb+1];
+        for (int x=0;x<bb;x++) start[x+1] = start[x]+c[x];
+        final int[] pos = new int[bb];
+        System.arraycopy(start, 0, pos, 0, bb);
+        final int[] idx = new int[start[bb]];
+        final int ja = dAxis[k], jb = dAxis[k+1], n = v[0].size();
+        for (int i=0;i<n;i++){
+            final int a = densityBin(ja, i);
+            if (a<0) continue;
+            final int b = densityBin(jb, i);
+            if (b<0) continue;
+            final int x = a*dBins+b;
+            if (pos[x]<start[x+1]) idx[pos[x]++] = i; // the counts are always consistent with the data unless it was changed without notification
+        }
+        dIndex[k] = idx;
+        dIndexStart[k] = start;
+        return idx;
+    }
+    
+    /** returns <code>true</code> if the segment of case <code>i</code> between the axes at display positions <code>k</code> and <code>k+1</code> intersects the given area (positions along the axes <code>rw1..rw2</code>, across the axes <code>ru1..ru2</code>) */
+    private boolean densitySegmentHits(final int k, final int i, final int ru1, final int ru2, final int rw1, final int rw2) {
+        int u0 = dPos[k], u1 = dPos[k+1];
+        if (u0==u1) return false;
+        final int ja = dAxis[k], jb = dAxis[k+1];
+        if (v[ja].isMissingAt(i) || v[jb].isMissingAt(i)) return false;
+        int w0 = densityPos(ja,i), w1 = densityPos(jb,i);
+        if (u0>u1) { int t=u0; u0=u1; u1=t; t=w0; w0=w1; w1=t; }
+        if (u1<ru1 || u0>ru2) return false;
+        // clip the segment to the u-range of the rectangle
+        final int cu0 = (u0<ru1)?ru1:u0, cu1 = (u1>ru2)?ru2:u1;
+        final int cw0 = w0+(int)(((long)(w1-w0))*((long)(cu0-u0))/((long)(u1-u0)));
+        final int cw1 = w0+(int)(((long)(w1-w0))*((long)(cu1-u0))/((long)(u1-u0)));
+        final int lo = (cw0<cw1)?cw0:cw1, hi = (cw0<cw1)?cw1:cw0;
+        return (hi>=rw1 && lo<=rw2);
+    }
+    
+    /** returns the cases whose line segments intersect a rectangle (density mode). Only the pairs of axes the rectangle overlaps are considered. For each of them the bin pairs whose segments can pass through the rectangle are determined first, only the cases of those bin pairs (see {@link #densityIndex}) are tested exactly, so the effort depends on the number of cases near the rectangle rather than on the size of the dataset.
+     * @param rec rectangle
+     * @param firstOnly if <code>true</code> only the first case found is returned */
+    private int[] densityCasesIntersecting(final Rectangle rec, final boolean firstOnly) {
+        if (dAxis==null || dIndex==null) return new int[0];
+        final int n = v[0].size(), np = dIndex.length;
+        final int ru1 = (orientation==0)?rec.x:rec.y, ru2 = ru1+((orientation==0)?rec.width:rec.height);
+        final int rw1 = (orientation==0)?rec.y:rec.x, rw2 = rw1+((orientation==0)?rec.height:rec.width);
+        final boolean[] need = new boolean[np];
+        int needed = 0, cached = 0;
+        for (int k=0;k<np;k++){
+            final int u0 = (dPos[k]<dPos[k+1])?dPos[k]:dPos[k+1], u1 = (dPos[k]<dPos[k+1])?dPos[k+1]:dPos[k];
+            need[k] = (u0!=u1 && u1>=ru1 && u0<=ru2);
+            if (need[k]) needed++;
+            if (dIndex[k]!=null) cached++;
+        }
+        // don't keep more indices than necessary, each of them has one entry per case
+        for (int k=0;k<np && cached>DENSITY_INDEX_CACHE-needed;k++)
+            if (!need[k] && dIndex[k]!=null) { dIndex[k]=dIndexStart[k]=null; cached--; }
+        final long[] hit = new long[(n+63)>>6];
+        int total = 0;
+        for (int k=0;k<np;k++){
+            if (!need[k]) continue;
+            final int[] idx = densityIndex(k), start = dIndexStart[k];
+            // range of the segments parameter (0 at axis k, 1 at axis k+1) inside the rectangle
+            final int u0 = dPos[k], u1 = dPos[k+1];
+            final int cu0 = (u0<u1)?((u0<ru1)?ru1:u0):((u1<ru1)?ru1:u1);
+            final int cu1 = (u0<u1)?((u1>ru2)?ru2:u1):((u0>ru2)?ru2:u0);
+            final double t0 = ((double)(cu0-u0))/((double)(u1-u0)), t1 = ((double)(cu1-u0))/((double)(u1-u0));
+            for (int a=0;a<dBins;a++){
+                final int a0 = dLo+(a*dSpan+dBins-1)/dBins, a1 = dLo+((a+1)*dSpan+dBins-1)/dBins-1;
+                for (int b=0;b<dBins;b++){
+                    final int x = a*dBins+b;
+                    if (start[x]==start[x+1]) continue;
+                    final int b0 = dLo+(b*dSpan+dBins-1)/dBins, b1 = dLo+((b+1)*dSpan+dBins-1)/dBins-1;
+                    // positions the segments of this bin pair can take inside the u-range of the rectangle (plus one pixel for rounding)
+                    final double l0 = (1.0-t0)*a0+t0*b0, l1 = (1.0-t1)*a0+t1*b0;
+                    final double h0 = (1.0-t0)*a1+t0*b1, h1 = (1.0-t1)*a1+t1*b1;
+                    if (((l0<l1)?l0:l1)-1.0>rw2 || ((h0>h1)?h0:h1)+1.0<rw1) continue;
+                    for (int p=start[x];p<start[x+1];p++){
+                        final int i = idx[p];
+                        if ((hit[i>>6]&(1L<<i))!=0 || !densitySegmentHits(k, i, ru1, ru2, rw1, rw2)) continue;
+                        hit[i>>6]|=1L<<i;
+                        total++;
+                    }
                 }
-                if(na[j][0]==1) gap[0]=true;
-                if(na[j][na[j].length-1]==gap.length-2) gap[gap.length-1]=true;
             }
-            ((PPrimPolygon)pp[j+offset]).invisibleLines=nas;
-            ((PPrimPolygon)pp[j+offset]).setGapDots(gap);
         }
+        if (firstOnly && total>1) total=1;
+        final int[] ret = new int[total];
+        int c = 0;
+        for (int w=0;w<hit.length && c<total;w++){
+            long h = hit[w];
+            int i = w<<6;
+            while (h!=0 && c<total) {
+                if ((h&1L)!=0) ret[c++] = i;
+                h>>>=1; i++;
+            }
+        }
+        return ret;
+    }
+    
+    /** creates a transient polyline primitive for a case, referencing the given cases (density mode) */
+    private PPrimPolygon densityPrimitive(final int i, final int[] ref) {
+        final int nv = v.length;
+        final int[] xs = new int[nv];
+        final int[] ys = new int[nv];
+        for (int k=0;k<nv;k++){
+            xs[k] = dPos[k];
+            ys[k] = densityPos(dAxis[k], i);
+        }
+        final PPrimPolygon p = new PPrimPolygon();
+        if(orientation==0) p.pg = new Polygon(xs, ys, nv);
+        else               p.pg = new Polygon(ys, xs, nv);
+        p.closed=false;
+        p.fill=false;
+        p.ref=ref;
+        return p;
+    }
+    
+    protected PlotPrimitive[] getPrimitivesIntersecting(final Rectangle rec) {
+        if (!isDensity()) return super.getPrimitivesIntersecting(rec);
+        final int[] c = densityCasesIntersecting(rec, false);
+        if (c.length==0) return new PlotPrimitive[0];
+        return new PlotPrimitive[] { densityPrimitive(c[0], c) };
+    }
+    
+    protected PlotPrimitive[] getPrimitivesContaining(final int x, final int y) {
+        if (!isDensity()) return super.getPrimitivesContaining(x,y);
+        return getPrimitivesIntersecting(new Rectangle(x-1,y-1,2,2));
+    }
+    
+    protected PlotPrimitive getFirstPrimitiveContaining(final int x, final int y) {
+        if (!isDensity()) return super.getFirstPrimitiveContaining(x,y);
+        final int[] c = densityCasesIntersecting(new Rectangle(x-1,y-1,2,2), true);
+        return (c.length==0)?null:densityPrimitive(c[0], new int[] { c[0] });
     }
 }
 
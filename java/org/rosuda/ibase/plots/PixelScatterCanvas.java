@@ -0,0 +1,348 @@
+package org.rosuda.ibase.plots;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+
+import org.rosuda.ibase.*;
+import org.rosuda.ibase.toolkit.*;
+import org.rosuda.pograss.*;
+import org.rosuda.util.*;
+
+/** scatterplot for large data. Unlike {@link ScatterCanvas} it doesn't create plot primitives, instead it bins the cases by screen pixel and keeps the pixel positions and case references in flat arrays. Painting and hit-testing work directly on those arrays, so the memory and time needed to rebuild the plot grow linearly with the number of cases. Plot primitives are created only for the points returned by hit-tests (queries and selection), so all selection and query handling of {@link BaseCanvas} works as usual.
+ * @version $Id$
+ */
+public class PixelScatterCanvas extends ScatterCanvas {
+    /** number of occupied pixels (points) */
+    protected int points;
+    /** screen coordinates of the points */
+    protected int[] px, py;
+    /** start of each point's cases in {@link #pcases} (length points+1) */
+    protected int[] pstart;
+    /** case IDs grouped by point, in ascending order within each point */
+    protected int[] pcases;
+
+    /** start angle of the colour brushing pies (see {@link PPrimCircle#startArc}) */
+    protected int startArc;
+
+    /** hash table mapping pixel keys (y*stride+x) to point indices, open addressing with linear probing */
+    int[] hkeys, hvals;
+    int hmask, stride;
+
+    /** create a new scatterplot
+     * @param f associated frame (or <code>null</code> if none)
+     * @param v1 variable 1
+     * @param v2 variable 2
+     * @param mark associated marker */
+    public PixelScatterCanvas(final int gd, final Frame f, final SVar v1, final SVar v2, final SMarker mark) {
+	super(gd,f,v1,v2,mark);
+	incrementalSelection=false; // there are no primitives to track
+	backgroundUpdates=false; // cases are painted directly, there are no primitives to build in the background
+    }
+
+    static int hash(final int key) {
+	return key*0x9E3779B9;
+    }
+
+    /** returns the index of the point at the given pixel or -1 if there is none */
+    protected int pointAt(final int x, final int y) {
+	if (hkeys==null || x<0 || y<0 || x>=stride) return -1;
+	final int key=y*stride+x;
+	int h=hash(key)&hmask;
+	while (hkeys[h]!=-1) {
+	    if (hkeys[h]==key) return hvals[h];
+	    h=(h+1)&hmask;
+	}
+	return -1;
+    }
+
+    public void updateObjects() {
+	invalidatePrimitiveIndex();
+	final Stopwatch sw=new Stopwatch();
+	updateAxesGeometry();
+	final int w=TW;
+	final int h=TH;
+	stride=w+1;
+
+	// pass 1: assign each case to a point (pixel)
+	final int[] cpt=new int[pts];
+	long pixels=((long)stride)*((long)(h+1));
+	int cap=(pixels<pts)?((int)pixels):pts;
+	if (cap<1) cap=1;
+	int hs=4;
+	while (hs<cap*2) hs<<=1;
+	hkeys=new int[hs];
+	hvals=new int[hs];
+	hmask=hs-1;
+	int i=0;
+	while (i<hs) hkeys[i++]=-1;
+	int[] bx=new int[cap], by=new int[cap], bc=new int[cap];
+	int nb=0, valid=0;
+
+	i=0;
+	while (i<pts) {
+	    cpt[i]=-1;
+	    if ((!v[0].isMissingAt(i) || v[0].isCat()) && (!v[1].isMissingAt(i) || v[1].isCat())) {
+		final int x=ax.getCasePos(i);
+		final int y=ay.getCasePos(i);
+		final int oX = (orientation==0)?x:y;
+		final int oY = (orientation==0)?y:x;
+		if (oX<mLeft) hasLeft=true;
+		else if (oY<mTop) hasTop=true;
+		else if (oX>w-mRight) hasRight=true;
+		else if (oY>h-mBottom) hasBot=true;
+		else {
+		    final int key=oY*stride+oX;
+		    int hp=hash(key)&hmask;
+		    while (hkeys[hp]!=-1 && hkeys[hp]!=key) hp=(hp+1)&hmask;
+		    int b;
+		    if (hkeys[hp]==key) b=hvals[hp];
+		    else {
+			b=nb++;
+			hkeys[hp]=key; hvals[hp]=b;
+			bx[b]=oX; by[b]=oY;
+		    }
+		    bc[b]++;
+		    cpt[i]=b;
+		    valid++;
+		}
+	    }
+	    i++;
+	}
+
+	// pass 2: lay out case IDs by point (counting sort)
+	final int[] st=new int[nb+1];
+	i=0;
+	while (i<nb) { st[i+1]=st[i]+bc[i]; i++; }
+	final int[] pos=bc; // re-use counts as fill positions
+	System.arraycopy(st, 0, pos, 0, nb);
+	final int[] cs=new int[valid];
+	i=0;
+	while (i<pts) {
+	    final int b=cpt[i];
+	    if (b>=0) cs[pos[b]++]=i;
+	    i++;
+	}
+	if (nb<cap) {
+	    final int[] tx=new int[nb], ty=new int[nb];
+	    System.arraycopy(bx, 0, tx, 0, nb);
+	    System.arraycopy(by, 0, ty, 0, nb);
+	    bx=tx; by=ty;
+	}
+	px=bx; py=by; pstart=st; pcases=cs; points=nb;
+	// BaseCanvas handles selection and queries only if pp is set
+	pp=new PlotPrimitive[0];
+	setBoundValues();
+	sw.profile("PixelScatterCanvas.updateObjects");
+    }
+
+    /** creates a transient plot primitive for the point with the given index */
+    protected PPrimCircle getPrimitive(final int b) {
+	final PPrimCircle p=new PPrimCircle();
+	p.x=px[b]; p.y=py[b];
+	p.diam=ptDiam;
+	p.startArc=startArc;
+	p.ref=new int[pstart[b+1]-pstart[b]];
+	System.arraycopy(pcases, pstart[b], p.ref, 0, p.ref.length);
+	p.fillColor=p.borderColor;
+	setColors(p);
+	return p;
+    }
+
+    Color getPointColor() { return (fillColor!=null)?fillColor:((borderColor!=null)?borderColor:Color.black); }
+
+    /** returns the colour of the cases with the given secondary mark; cases without secondary mark use the regular fill colour */
+    Color getPointColor(final ColorBridge cb, final int mark) { return (mark==0)?getPointColor():cb.getColor(mark); }
+
+    Color getPointColorSel() { return (fillColorSel!=null)?fillColorSel:Common.selectColor; }
+
+    public void paintObjects(final PoGraSS g) {
+	if (px==null) return;
+	final Stopwatch sw=new Stopwatch();
+	if(objectClipping) g.setClip(mLeft, mTop, getBounds().width-mLeft-mRight, getBounds().height-mTop-mBottom);
+	g.setGlobalAlpha(ppAlpha);
+	final int d=ptDiam, r=ptDiam/2;
+	if (m.getSecCount()<1) {
+	    g.setColor(getPointColor());
+	    int b=0;
+	    while (b<points) { g.fillOval(px[b]-r,py[b]-r,d,d); b++; }
+	} else {
+	    final ColorBridge cb=ColorBridge.getMain();
+	    final int[] ct=new int[m.getMaxMark()+1];
+	    int b=0;
+	    while (b<points) {
+		final int s=pstart[b], e=pstart[b+1];
+		if (e-s==1) {
+		    g.setColor(getPointColor(cb,m.getSec(pcases[s])));
+		    g.fillOval(px[b]-r,py[b]-r,d,d);
+		} else {
+		    countSec(s,e,ct);
+		    int j=0, cum=0, a0=0;
+		    while (j<ct.length) {
+			if (ct[j]>0) {
+			    final int a1=(int)(360.0*((double)(cum+ct[j]))/((double)(e-s))+0.5);
+			    g.setColor(getPointColor(cb,j));
+			    g.fillArc(px[b]-r,py[b]-r,d,d,startArc+a0,a1-a0);
+			    cum+=ct[j]; a0=a1;
+			}
+			j++;
+		    }
+		}
+		b++;
+	    }
+	}
+	g.resetGlobalAlpha();
+	if(objectClipping) g.resetClip();
+	sw.profile("PixelScatterCanvas.paintObjects");
+    }
+
+    public void paintSelected(final PoGraSS g) {
+	if (px==null || m.marked()<1) return;
+	final Stopwatch sw=new Stopwatch();
+	if(objectClipping) g.setClip(mLeft, mTop, getBounds().width-mLeft-mRight, getBounds().height-mTop-mBottom);
+	if(alphaHighlighting) g.setGlobalAlpha(seperateAlphas?ppAlphaH:ppAlpha);
+	g.setColor(getPointColorSel());
+	final boolean brushed=m.getSecCount()>0;
+	final int[] ct=new int[m.getMaxMark()+1];
+	final int[] mct=new int[ct.length];
+	final int d=ptDiam, r=ptDiam/2;
+	int b=0;
+	while (b<points) {
+	    final int s=pstart[b], e=pstart[b+1];
+	    if (e-s==1) {
+		if (m.at(pcases[s])) g.fillOval(px[b]-r,py[b]-r,d,d);
+	    } else {
+		// slices are the same as in paintObjects: one per secondary mark, or one for all cases
+		int j=0, cum=0, a0=0, marked=0;
+		if (brushed) {
+		    while (j<ct.length) { ct[j]=mct[j]=0; j++; }
+		    j=s;
+		    while (j<e) {
+			final int c=pcases[j++];
+			final int sm=m.getSec(c);
+			ct[sm]++;
+			if (m.at(c)) { mct[sm]++; marked++; }
+		    }
+		} else {
+		    j=s;
+		    while (j<e) if (m.at(pcases[j++])) marked++;
+		}
+		if (marked==e-s) g.fillOval(px[b]-r,py[b]-r,d,d);
+		else if (marked>0) {
+		    if (!brushed)
+			g.fillArc(px[b]-r,py[b]-r,d,d,startArc,propSize(360,((double)marked)/((double)(e-s))));
+		    else {
+			j=0;
+			while (j<ct.length) {
+			    if (ct[j]>0) {
+				final int a1=(int)(360.0*((double)(cum+ct[j]))/((double)(e-s))+0.5);
+				if (mct[j]>0) g.fillArc(px[b]-r,py[b]-r,d,d,startArc+a0,propSize(a1-a0,((double)mct[j])/((double)ct[j])));
+				cum+=ct[j]; a0=a1;
+			    }
+			    j++;
+			}
+		    }
+		}
+	    }
+	    b++;
+	}
+	if(alphaHighlighting) g.resetGlobalAlpha();
+	if(objectClipping) g.resetClip();
+	sw.profile("PixelScatterCanvas.paintSelected");
+    }
+
+    public void keyPressed(final KeyEvent e) {
+	// the handler of ScatterCanvas rotates the pies of the primitives, but there are none
+	if(e.getKeyCode()==520 && e.getModifiersEx() == (KeyEvent.ALT_DOWN_MASK | KeyEvent.CTRL_DOWN_MASK)){
+	    startArc+=5;
+	    setUpdateRoot(0); repaint();
+	    return;
+	}
+	super.keyPressed(e);
+    }
+
+    /** counts the cases of each secondary mark among pcases[s..e-1] */
+    void countSec(final int s, final int e, final int[] ct) {
+	int j=0;
+	while (j<ct.length) ct[j++]=0;
+	j=s;
+	while (j<e) ct[m.getSec(pcases[j++])]++;
+    }
+
+    /** same as PPrimBase.getPropSize: never rounds a non-zero proportion to zero or a partial one to the full size */
+    static int propSize(final int totalSize, final double proportion) {
+	int ret = (int)Math.round(totalSize*proportion);
+	if(ret==0 && proportion>0) ret=1;
+	else if(ret==totalSize && proportion<1) ret=totalSize-1;
+	return ret;
+    }
+
+    /** returns indices of all points whose circle intersects the given rectangle */
+    int[] pointsIntersecting(final Rectangle rec) {
+	if (px==null) return new int[0];
+	final int r=ptDiam/2;
+	final int x1=rec.x-r, y1=rec.y-r, x2=rec.x+rec.width+r, y2=rec.y+rec.height+r;
+	final long area=((long)(x2-x1+1))*((long)(y2-y1+1));
+	int[] buf;
+	int n=0;
+	if (area<points) { // probe the pixels of the rectangle
+	    buf=new int[(int)area];
+	    int y=y1;
+	    while (y<=y2) {
+		int x=x1;
+		while (x<=x2) {
+		    final int b=pointAt(x,y);
+		    if (b>=0 && circleIntersects(b,rec,r)) buf[n++]=b;
+		    x++;
+		}
+		y++;
+	    }
+	    java.util.Arrays.sort(buf,0,n);
+	} else { // scan all points
+	    buf=new int[points];
+	    int b=0;
+	    while (b<points) {
+		if (px[b]>=x1 && px[b]<=x2 && py[b]>=y1 && py[b]<=y2 && circleIntersects(b,rec,r)) buf[n++]=b;
+		b++;
+	    }
+	}
+	final int[] ret=new int[n];
+	System.arraycopy(buf, 0, ret, 0, n);
+	return ret;
+    }
+
+    boolean circleIntersects(final int b, final Rectangle rec, final int r) {
+	final int cx=(px[b]<rec.x)?rec.x:((px[b]>rec.x+rec.width)?rec.x+rec.width:px[b]);
+	final int cy=(py[b]<rec.y)?rec.y:((py[b]>rec.y+rec.height)?rec.y+rec.height:py[b]);
+	return (cx-px[b])*(cx-px[b])+(cy-py[b])*(cy-py[b])<=r*r;
+    }
+
+    protected PlotPrimitive[] getPrimitivesIntersecting(final Rectangle rec) {
+	final int[] b=pointsIntersecting(rec);
+	final PlotPrimitive[] ret=new PlotPrimitive[b.length];
+	int i=0;
+	while (i<b.length) { ret[i]=getPrimitive(b[i]); i++; }
+	return ret;
+    }
+
+    protected PlotPrimitive[] getPrimitivesContaining(final int x, final int y) {
+	return getPrimitivesIntersecting(new Rectangle(x,y,0,0));
+    }
+
+    protected PlotPrimitive getFirstPrimitiveContaining(final int x, final int y) {
+	// look if there is a point exactly at (x,y)
+	int b=pointAt(x,y);
+	if (b<0) {
+	    // find the point with shortest distance to (x,y)
+	    final int[] c=pointsIntersecting(new Rectangle(x,y,0,0));
+	    int shortestDistance=Integer.MAX_VALUE;
+	    int i=0;
+	    while (i<c.length) {
+		final int dx=px[c[i]]-x, dy=py[c[i]]-y;
+		final int d=dx*dx+dy*dy;
+		if (d<shortestDistance) { shortestDistance=d; b=c[i]; }
+		i++;
+	    }
+	}
+	return (b<0)?null:getPrimitive(b);
+    }
+}
@@ -167,6 +167,7 @@ public class ScatterCanvas extends BaseCanvas {
 	MIlabels=EzMenu.getItem(f,M_LABELS);
 	MItransHighl=EzMenu.getItem(f,M_TRANSHIGHL);
 	objectClipping=true;
+	backgroundUpdates=true;
 	dontPaint=false;
 	
 	try {
@@ -216,7 +217,11 @@ public class ScatterCanvas extends BaseCanvas {
     // clipping warnings
     boolean hasLeft, hasTop, hasRight, hasBot;
     
-    public void updateObjects() {
+    /** placement of a case as computed by {@link #updateObjects} */
+    static final byte PS_MISSING=0, PS_INSIDE=1, PS_LEFT=2, PS_TOP=3, PS_RIGHT=4, PS_BOTTOM=5;
+    
+    /** sets the geometry of both axes according to the current size and resets the clipping flags. This is the first step of {@link #updateObjects}. */
+    protected void updateAxesGeometry() {
 	final Dimension Dsize=getSize();
 	final int w=Dsize.width;
 	final int h=Dsize.height;
@@ -235,75 +240,157 @@ public class ScatterCanvas extends BaseCanvas {
 	
 	pts=v[0].size();
 	if (v[1].size()<pts) pts=v[1].size();
-	
-	sortedPointsX = new TreeMap(new PointComparator(PointComparator.TYPE_X));
-	sortedPointsY = new TreeMap(new PointComparator(PointComparator.TYPE_Y));
-	
-	for (int i=0;i<pts;i++) {
-	    final int jx=0;
-	    final int jy=0;
+    }
+    
+    /** geometry used to compute the positions of the points. Background updates use a snapshot, so they don't depend on the canvas while it changes. */
+    static class Geometry {
+	Axis ax, ay;
+	int w, h, mLeft, mTop, mRight, mBottom, orientation, pts, ptDiam;
+    }
+    
+    /** returns the current geometry of the canvas
+     * @param snapshot if <code>true</code> the axes are copied (see {@link Axis#getSnapshot}), otherwise the axes of the canvas are used */
+    Geometry getGeometry(final boolean snapshot) {
+	final Geometry g=new Geometry();
+	g.ax=snapshot?ax.getSnapshot():ax;
+	g.ay=snapshot?ay.getSnapshot():ay;
+	g.w=TW; g.h=TH;
+	g.mLeft=mLeft; g.mTop=mTop; g.mRight=mRight; g.mBottom=mBottom;
+	g.orientation=orientation; g.pts=pts; g.ptDiam=ptDiam;
+	return g;
+    }
+    
+    public void updateObjects() {
+	invalidatePrimitiveIndex();
+	updateAxesGeometry();
+	final Geometry geo=getGeometry(false);
+	final int n=geo.pts;
+	final int[] px=new int[n];
+	final int[] py=new int[n];
+	final byte[] cs=new byte[n];
+	// positions are computed in parallel, merging of overlapping points is done sequentially
+	forCases(n, new Parallel.Task() {
+		public void run(final int chunk, final int from, final int to) {
+		    computePositions(geo, px, py, cs, null, from, to);
+		}
+	    });
+	mergePoints(geo, px, py, cs, null).run();
+    };
+    
+    protected void prepareBackgroundUpdate(final BackgroundUpdate u) {
+	updateAxesGeometry();
+	super.prepareBackgroundUpdate(u);
+	u.setState(getGeometry(true));
+    }
+    
+    protected Runnable buildObjects(final BackgroundUpdate u) {
+	final Geometry geo=(Geometry)u.getState();
+	final int n=geo.pts;
+	final int[] px=new int[n];
+	final int[] py=new int[n];
+	final byte[] cs=new byte[n];
+	final boolean[] vis=new boolean[n];
+	u.setPreview(px, py, vis);
+	// compute the positions in slices, so the points can be shown as they become available
+	final int slice=(n/16<minParallelCases)?minParallelCases:(n/16);
+	int s=0;
+	while (s<n) {
+	    if (u.isCancelled()) return null;
+	    final int from=s, to=(n-s>slice)?s+slice:n;
+	    Parallel.forRange(to-from, minParallelCases, new Parallel.Task() {
+		    public void run(final int chunk, final int f, final int t) {
+			computePositions(geo, px, py, cs, vis, from+f, from+t);
+		    }
+		});
+	    u.progress(to);
+	    s=to;
+	}
+	return mergePoints(geo, px, py, cs, u);
+    }
+    
+    /** computes the positions (in screen coordinates, i.e. with orientation applied) and placement of the cases <code>from</code> to <code>to-1</code>
+     * @param geo geometry to use
+     * @param px horizontal positions
+     * @param py vertical positions
+     * @param cs placement (one of the <code>PS_xxx</code> constants)
+     * @param vis if not <code>null</code> it is set to <code>true</code> for all points inside the plot area */
+    void computePositions(final Geometry geo, final int[] px, final int[] py, final byte[] cs, final boolean[] vis, final int from, final int to) {
+	final int w=geo.w;
+	final int h=geo.h;
+	final int orientation=geo.orientation, mLeft=geo.mLeft, mTop=geo.mTop, mRight=geo.mRight, mBottom=geo.mBottom;
+	final Axis ax=geo.ax, ay=geo.ay;
+	for (int i=from;i<to;i++) {
 	    if ((!v[0].isMissingAt(i) || v[0].isCat()) && (!v[1].isMissingAt(i) || v[1].isCat())) {
-		final int x=jx+ax.getCasePos(i);
-		final int y=jy+ay.getCasePos(i);
-		//pp[i]=null;
+		final int x=ax.getCasePos(i);
+		final int y=ay.getCasePos(i);
 		final int oX = (orientation==0)?x:y;
 		final int oY = (orientation==0)?y:x;
-		if (oX<mLeft) hasLeft=true;
-		else if (oY<mTop) hasTop=true;
-		else if (oX>w-mRight) hasRight=true;
-		else if (oY>h-mBottom) hasBot=true;
+		px[i]=oX; py[i]=oY;
+		if (oX<mLeft) cs[i]=PS_LEFT;
+		else if (oY<mTop) cs[i]=PS_TOP;
+		else if (oX>w-mRight) cs[i]=PS_RIGHT;
+		else if (oY>h-mBottom) cs[i]=PS_BOTTOM;
 		else {
-		    PPrimCircle p;
-		    if((p=(PPrimCircle)sortedPointsX.get(new Point(x,y)))!=null){
-			final int[] newRef = new int[p.ref.length+1];
-			System.arraycopy(p.ref, 0, newRef, 0, p.ref.length);
-			newRef[p.ref.length] = i;
-			p.ref=newRef;
-		    } else{
-			p=new PPrimCircle();
-			if(orientation==0){
-			    p.x = x;
-			    p.y = y;
-			} else{
-			    p.x = y;
-			    p.y = x;
-			}
-			p.diam = ptDiam;
-			p.ref = new int[] {i};
-			p.fillColor = p.borderColor;
-			final Point po = new Point(x,y);
-			sortedPointsX.put(po, p);
-			sortedPointsY.put(po, p);
-		    }
+		    cs[i]=PS_INSIDE;
+		    if (vis!=null) vis[i]=true;
 		}
-	    } else {
-		
-		//do nothing
-		
-		// old code, that doesn't work with object clipping
-		/*
-		// place missings on the other side of the axes
-		int x,y;
-		if (v[0].isMissingAt(i)) x=mLeft-4; else x=jx+ax.getCasePos(i);
-		if (v[1].isMissingAt(i)) y=h-mBottom+4; else y=jy+ay.getCasePos(i);
-		final PPrimCircle p=new PPrimCircle();
-		if(orientation==0){
-		    p.x = x;
-		    p.y = y;
+	    } // else cs[i]=PS_MISSING; missings are not displayed
+	}
+    }
+    
+    /** merges cases with the same position into points. This doesn't modify the canvas, the returned code installs the points.
+     * @param u background update to check for cancellation or <code>null</code> if called synchronously
+     * @return code installing the points or <code>null</code> if the update was cancelled */
+    Runnable mergePoints(final Geometry geo, final int[] px, final int[] py, final byte[] cs, final BackgroundUpdate u) {
+	final TreeMap spX = new TreeMap(new PointComparator(PointComparator.TYPE_X));
+	final TreeMap spY = new TreeMap(new PointComparator(PointComparator.TYPE_Y));
+	boolean hl=false, ht=false, hr=false, hb=false;
+	final int diam=geo.ptDiam, n=geo.pts, orientation=geo.orientation;
+	
+	for (int i=0;i<n;i++) {
+	    if (u!=null && (i&0xffff)==0 && u.isCancelled()) return null;
+	    final int st=cs[i];
+	    if (st==PS_LEFT) hl=true;
+	    else if (st==PS_TOP) ht=true;
+	    else if (st==PS_RIGHT) hr=true;
+	    else if (st==PS_BOTTOM) hb=true;
+	    else if (st==PS_INSIDE) {
+		final int x=(orientation==0)?px[i]:py[i];
+		final int y=(orientation==0)?py[i]:px[i];
+		PPrimCircle p;
+		if((p=(PPrimCircle)spX.get(new Point(x,y)))!=null){
+		    final int[] newRef = new int[p.ref.length+1];
+		    System.arraycopy(p.ref, 0, newRef, 0, p.ref.length);
+		    newRef[p.ref.length] = i;
+		    p.ref=newRef;
 		} else{
-		    p.x = y;
-		    p.y = x;
+		    p=new PPrimCircle();
+		    p.x = px[i];
+		    p.y = py[i];
+		    p.diam = diam;
+		    p.ref = new int[] {i};
+		    p.fillColor = p.borderColor;
+		    final Point po = new Point(x,y);
+		    spX.put(po, p);
+		    spY.put(po, p);
 		}
-		p.diam = ptDiam;
-		p.ref = new int[] {i};*/
 	    }
-	};
-	final Collection pts = sortedPointsX.values();
-	pp = new PlotPrimitive[pts.size()];
-	pts.toArray(pp);
-	for(int i=0; i<pp.length; i++) setColors((PPrimBase)pp[i]);
-	setBoundValues();
-    };
+	}
+	final Collection c = spX.values();
+	final PlotPrimitive[] np = new PlotPrimitive[c.size()];
+	c.toArray(np);
+	final boolean fl=hl, ft=ht, fr=hr, fb=hb;
+	return new Runnable() {
+		public void run() {
+		    sortedPointsX=spX;
+		    sortedPointsY=spY;
+		    hasLeft|=fl; hasTop|=ft; hasRight|=fr; hasBot|=fb;
+		    pp=np;
+		    for(int i=0; i<pp.length; i++) setColors((PPrimBase)pp[i]);
+		    setBoundValues();
+		}
+	    };
+    }
     
     public void keyPressed(final KeyEvent e) {
 	if (Global.DEBUG>0)
@@ -528,9 +615,9 @@ public class ScatterCanvas extends BaseCanvas {
 		v[1].getName() + ": [" + minVal[1] + ", " + maxVal[1] + "]";
     }
     
-    private double[] maxVal,minVal;
+    protected double[] maxVal,minVal;
     
-    private void setBoundValues() {
+    protected void setBoundValues() {
 	if(pp==null || v==null || v.length<2) return;
 	if(maxVal==null) maxVal=new double[2];
 	if(minVal==null) minVal=new double[2];
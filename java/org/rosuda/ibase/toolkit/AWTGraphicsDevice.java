@@ -25,6 +25,16 @@ public class AWTGraphicsDevice implements GraphicsDevice {
     int updateRoot;
     /** previous update root */
     int prevUpdateRoot=0;
+    /** damaged areas of each layer for the next update (see {@link #addDamage}), <code>null</code> entries if a layer has no damage */
+    DamageRegion[] damage;
+    /** <code>true</code> if any layer has damaged areas */
+    boolean damaged;
+    /** set while {@link #repaint} updates the component using its own graphics, whose clip is not an area requested by the system */
+    boolean selfUpdate;
+    /** content of layer 0 before the off-screen buffers were re-created (see {@link #getPreviousImage}) */
+    Image prevImage;
+    /** layer images, <code>offscreen</code> is the image array of this buffer */
+    LayerBuffer buffer;
 	private PlotCanvas comp;
 	private PlotComponent pcowner;
 	
@@ -35,7 +45,9 @@ public class AWTGraphicsDevice implements GraphicsDevice {
 	public AWTGraphicsDevice(int _layers) {
 		comp = new PlotCanvas(this);
 		layers=_layers;
-		offscreen=new Image[layers];
+		buffer=new LayerBuffer(comp,layers);
+		offscreen=buffer.images;
+		damage=new DamageRegion[layers];
         for(int i=0;i<layers;i++) offscreen[i]=null;
         updateRoot=0;
         if (Global.DEBUG>0) System.out.println("AWTGraphicsDevice: layers="+layers);
@@ -55,6 +67,42 @@ public class AWTGraphicsDevice implements GraphicsDevice {
      * @param ur root layer, i.e. the layer to start repaining from */
     public void setUpdateRoot(int ur) {
         prevUpdateRoot=updateRoot; updateRoot=ur;
+        clearDamage();
+    }
+
+    /** restricts the next update to the given area, equivalent to {@link #addDamage} with the update root as layer.
+     * @param r area to update */
+    public void setUpdateClip(Rectangle r) {
+        addDamage(updateRoot, r);
+    }
+
+    /** marks an area of a layer as damaged. If any damage was added since the last {@link #setUpdateRoot} call, the next update repaints only the damaged areas (the update root is not used): each damaged layer and all layers above it are re-composed and repainted inside of the damaged areas of that layer and the layers below it. Areas are kept separately (see {@link DamageRegion}), so small changes at distant places don't cause a repaint of the space between them. Damage is ignored if the update includes layer 0 (e.g. after resize), damage of layer 0 itself causes a full repaint.
+     * @param layer damaged layer
+     * @param r damaged area */
+    public void addDamage(int layer, Rectangle r) {
+        if (r==null || layers<1) return;
+        final int l=(layer<0)?0:((layer>=layers)?layers-1:layer);
+        if (damage[l]==null) damage[l]=new DamageRegion();
+        damage[l].add(r);
+        damaged=!damage[l].isEmpty() || damaged;
+    }
+
+    void clearDamage() {
+        if (!damaged) return;
+        int i=0;
+        while (i<layers) { if (damage[i]!=null) damage[i].clear(); i++; }
+        damaged=false;
+    }
+    
+    /** returns the content of layer 0 as it was before the last resize or <code>null</code> if not available. The image has the old size of the component. */
+    public Image getPreviousImage() {
+        return prevImage;
+    }
+
+    /** discards the content of layer 0 from before the last resize, see {@link #getPreviousImage} */
+    public void releasePreviousImage() {
+        if (prevImage!=null) prevImage.flush();
+        prevImage=null;
     }
     
     /** restore update root to previous setting. usual procedure is to used following sequence: setUpdateRoot; repaint; restoreUpdateRoot; */
@@ -63,6 +111,14 @@ public class AWTGraphicsDevice implements GraphicsDevice {
     }
 	
     public void paintLayer(Graphics g, int layer) {
+        paintLayer(g, layer, null);
+    }
+
+    /** paints a layer restricting the painting to the given areas
+     * @param g graphics context
+     * @param layer layer to paint
+     * @param areas areas to paint or <code>null</code> to paint the whole layer */
+    public void paintLayer(Graphics g, int layer, Rectangle[] areas) {
     	if(pcowner==null) return;
         if (inProgress) return; /* avoid recursions */
         inProgress=true;
@@ -70,7 +126,7 @@ public class AWTGraphicsDevice implements GraphicsDevice {
         if (Global.forceAntiAliasing) {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         }
-        final PoGraSSgraphics p=new PoGraSSgraphics(g2,layer);
+        final PoGraSSgraphics p=(areas==null)?new PoGraSSgraphics(g2,layer):new PoGraSSgraphics(g2,layer,areas);
         pcowner.beginPaint(p);
         pcowner.paintPoGraSS(p);
         pcowner.endPaint(p);
@@ -83,7 +139,12 @@ public class AWTGraphicsDevice implements GraphicsDevice {
     
 	public void repaint() {
 //		System.out.println("GraphicsDevice: repaint()");
-        update(comp.getGraphics());
+        selfUpdate=true;
+        try {
+            update(comp.getGraphics());
+        } finally {
+            selfUpdate=false;
+        }
 	}
 	
     public void paint(Graphics g) {
@@ -92,7 +153,7 @@ public class AWTGraphicsDevice implements GraphicsDevice {
 	
     public void update(Graphics g) {
         if(g==null) return;
-        final Dimension d = comp.getSize();
+        final Dimension d = buffer.checkSize(comp.getSize());
         
         int firstPaintLayer=updateRoot;
         if (Global.forceAntiAliasing) {
@@ -102,14 +163,9 @@ public class AWTGraphicsDevice implements GraphicsDevice {
         
         if (Global.DEBUG>0) System.out.println("AWTGraphicsDevice: update, layers="+layers+", root="+updateRoot);
         
-        // sanity check (sounds wierd, but JDK really delivers negative sizes sometimes)
-        if (d.width<1 || d.height<1) return;
-        // yet another sanity check - some systems (e.g. X with Xinerama enabled) wrap around
-        // the 0 boundary resulting in huge numbers;
-        if (d.width>2000 || d.height>2000) {
-            d.width=(d.width>2000)?640:d.width;
-            d.height=(d.height>2000)?600:d.height;
-        };
+        // sanity check (sounds wierd, but JDK really delivers negative sizes sometimes, and some systems,
+        // e.g. X with Xinerama enabled, wrap around the 0 boundary resulting in huge numbers) - see LayerBuffer.checkSize
+        if (d==null) return;
         
         final Stopwatch sw=new Stopwatch();
         // we will re-create the off-screen object only if the canvas was resized
@@ -118,14 +174,36 @@ public class AWTGraphicsDevice implements GraphicsDevice {
             // draw the old image - after resize the background is cleared automatically
             // so in order to reduce flickering draw the old image until the new one is generated
             if (offscreen[layers-1]!=null) g.drawImage(offscreen[layers-1], 0, 0, comp);
+            // keep the old base layer, the plot may use it until its objects are rebuilt (it is not flushed along with the other layers)
+            releasePreviousImage();
+            prevImage=buffer.detach(0);
             // create the offscreen buffer
-            for(int i=0;i<layers;i++) offscreen[i] = comp.createImage(d.width, d.height);
+            buffer.ensureSize(d);
             offsd=d;
             firstPaintLayer=0; // after resize we need to repaint them all
             setUpdateRoot(0);
             if (Global.PROFILE>0) sw.profile("AWTGraphicsDevice.update.recreateOffscreen");
         };
         
+        // accelerated layers may lose their contents at any time (e.g. display mode change, screen saver, moving to another screen)
+        if (buffer.validate()) {
+            if (Global.DEBUG>0) System.out.println("AWTGraphicsDevice: update, contents of the layers were lost");
+            firstPaintLayer=0;
+            setUpdateRoot(0);
+        }
+        int attempts=0;
+        while (true) {
+            updateLayers(g, d, firstPaintLayer, sw);
+            if (!buffer.contentsLost() || ++attempts>2) break;
+            // contents were lost while painting, repeat with all layers
+            buffer.validate();
+            firstPaintLayer=0;
+            setUpdateRoot(0);
+        }
+    }
+
+    /** re-composes the layers starting with <code>firstPaintLayer</code> and copies the result to the screen */
+    void updateLayers(Graphics g, Dimension d, int firstPaintLayer, Stopwatch sw) {
         // clear the image
         if (firstPaintLayer==0) { // total repaint, i.e. clear the layer 0 also
             offgc = offscreen[0].getGraphics();
@@ -160,6 +238,14 @@ public class AWTGraphicsDevice implements GraphicsDevice {
             if (Global.PROFILE>0) sw.profile("AWTGraphicsDevice.update.clearLayer0");
         }
         
+        // partial update of the damaged areas only
+        if (firstPaintLayer>0 && damaged && (damage[0]==null || damage[0].isEmpty())) {
+            updateDamaged(g, d);
+            if (Global.PROFILE>0) sw.profile("AWTGraphicsDevice.update.damagedLayers");
+            return;
+        }
+        clearDamage();
+        
         int l=firstPaintLayer;
         while(l<layers) {
             offgc=offscreen[l].getGraphics();
@@ -175,6 +261,44 @@ public class AWTGraphicsDevice implements GraphicsDevice {
         if (Global.PROFILE>0) sw.profile("AWTGraphicsDevice.update.paintLayers");
     }
 	
+    /** re-composes and repaints the damaged areas of the layers and copies them to the screen */
+    void updateDamaged(Graphics g, Dimension d) {
+        final Rectangle b=new Rectangle(0,0,d.width,d.height);
+        final DamageRegion acc=new DamageRegion();
+        Rectangle[] rs=null;
+        int l=1;
+        while (l<layers) {
+            if (damage[l]!=null && !damage[l].isEmpty()) {
+                acc.add(damage[l]);
+                rs=null;
+            }
+            if (!acc.isEmpty()) {
+                if (rs==null) rs=acc.getRectangles(b);
+                if (rs.length==0) break;
+                offgc=offscreen[l].getGraphics();
+                int i=0;
+                while (i<rs.length) {
+                    final Rectangle r=rs[i++];
+                    offgc.drawImage(offscreen[l-1],r.x,r.y,r.x+r.width,r.y+r.height,r.x,r.y,r.x+r.width,r.y+r.height,comp);
+                }
+                paintLayer(offgc,l,rs);
+            }
+            l++;
+        }
+        clearDamage();
+        // painting requested by the system may include areas that are not damaged (e.g. parts of the window that were uncovered)
+        final Rectangle clip=selfUpdate?null:g.getClipBounds();
+        if (clip!=null && !acc.covers(clip.intersection(b))) {
+            g.drawImage(offscreen[layers-1],0,0,comp);
+            return;
+        }
+        if (rs==null) rs=acc.getRectangles(b);
+        int i=0;
+        while (i<rs.length) {
+            final Rectangle r=rs[i++];
+            g.drawImage(offscreen[layers-1],r.x,r.y,r.x+r.width,r.y+r.height,r.x,r.y,r.x+r.width,r.y+r.height,comp);
+        }
+    }
 	
 	// intersection with PlotComponent
 	public void setPCOwner(PlotComponent pc) {pcowner=pc;}
@@ -56,6 +56,8 @@ public class Axis extends Notifier {
     SCatSequence seq;
     /** geometry caching sequence */
     AxisCatSequence seqgeom;
+    /** category centers by category index, only used by snapshots (see {@link #getSnapshot}) */
+    int[] snapCenters;
     /** orthogonal translation in percent */
     public int trl=0;
     public boolean drawAxis=false;
@@ -255,6 +257,7 @@ public class Axis extends Notifier {
      * @param i category index
      * @return central position of the category */
     public int getCatCenter(final int i) {
+        if (snapCenters!=null) return (i>=0 && i<snapCenters.length)?snapCenters[i]:-1;
         return seqgeom.getCenterOfCat(i);
     };
     
@@ -309,6 +312,27 @@ public class Axis extends Notifier {
         return seq.posOfCat(c);
     }
     
+    /** makes sure all lazily computed geometry is up to date. After this call the position methods (such as {@link #getCasePos} or {@link #getValuePos}) don't modify the axis, so they can be used by several threads at once as long as the axis is not changed. */
+    public void validateGeometry() {
+        if (seqgeom!=null && (type==T_PropCat || type==T_EqCat)) seqgeom.validate();
+    }
+    
+    
+    /** returns a copy of the current geometry of the axis. The copy is not linked to the category sequence and has no dependents, so it doesn't change when this axis changes. Only the position methods {@link #getCasePos}, {@link #getValuePos}, {@link #getValueForPos} and {@link #getCatCenter} may be used on the copy, which allows other threads to compute positions while the axis is modified.
+     * @return snapshot of the axis */
+    public Axis getSnapshot() {
+        validateGeometry();
+        final Axis a=new Axis(null,or,type);
+        a.v=v; a.gBegin=gBegin; a.gLen=gLen; a.vBegin=vBegin; a.vLen=vLen; a.vLenLog10=vLenLog10;
+        a.datacount=datacount; a.gInterSpc=gInterSpc; a.gap=gap; a.trl=trl;
+        if (seqgeom!=null && (type==T_PropCat || type==T_EqCat)) {
+            final int cats=seq.size();
+            a.snapCenters=new int[cats];
+            int i=0;
+            while (i<cats) { a.snapCenters[i]=getCatCenter(i); i++; }
+        }
+        return a;
+    }
     
     /** Inverse of {@link #getCatSeqIndex}. */
     public int getCatAtSeqIndex(final int c) {
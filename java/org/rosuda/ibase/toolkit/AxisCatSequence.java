@@ -34,6 +34,11 @@ public class AxisCatSequence implements Dependent {
         updateCats();
     }
 
+    /** computes the category geometry if it wasn't computed yet */
+    void validate() {
+        if (left==null) updateCats();
+    }
+
     void updateCats() {
         if (Global.DEBUG>0)
             System.out.println("AxisCatSequence.updateCats() [cats="+cats+"]");
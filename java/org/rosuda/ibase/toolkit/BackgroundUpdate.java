@@ -0,0 +1,113 @@
+package org.rosuda.ibase.toolkit;
+
+import java.awt.EventQueue;
+
+import org.rosuda.util.*;
+
+/** BackgroundUpdate - rebuild of the plot primitives of a {@link BaseCanvas} on a worker thread. The canvas keeps showing its previous state while the update is running, the worker may report partial results (see {@link #setPreview} and {@link #progress}) which are then painted as a preview. Once the worker is done, the new primitives are installed on the event dispatch thread. An update is cancelled as soon as another one is started, so only the latest geometry is ever installed.
+    @version $Id$
+*/
+public class BackgroundUpdate implements Runnable {
+    /** the canvas this update belongs to */
+    final BaseCanvas bc;
+    /** primitives of the canvas at the time the update was started - if the canvas replaced them in the meantime (e.g. by a synchronous update) the result is discarded */
+    final PlotPrimitive[] base;
+    /** previous size of the canvas if the update was caused by a resize, otherwise 0 */
+    int prevW, prevH;
+    /** state of the canvas captured before the worker was started (see {@link BaseCanvas#prepareBackgroundUpdate}) */
+    Object state;
+
+    volatile boolean cancelled=false;
+    /** number of preview points that are ready (written by the worker) */
+    volatile int ready=0;
+    /** number of preview points that are to be painted (used by the event dispatch thread only) */
+    int shown=0;
+    /** set while a progress repaint is scheduled */
+    boolean progressPosted=false;
+
+    /** preview point positions and their visibility */
+    int[] previewX, previewY;
+    boolean[] previewVisible;
+
+    BackgroundUpdate(BaseCanvas c) {
+        bc=c;
+        base=c.pp;
+    }
+
+    /** returns <code>true</code> if the update was cancelled. Long-running builds should check this regularly and return <code>null</code> as soon as possible. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** cancels this update - its result will be discarded */
+    public void cancel() {
+        cancelled=true;
+    }
+
+    /** sets the state of the canvas the worker uses instead of the mutable fields of the canvas, such as copies of the axes. This must be done on the event dispatch thread before the worker is started. */
+    public void setState(Object s) {
+        state=s;
+    }
+
+    /** returns the state set by {@link #setState} */
+    public Object getState() {
+        return state;
+    }
+
+    /** sets the arrays that hold the preview points. Point <code>i</code> is painted once {@link #progress} was called with a count larger than <code>i</code> and <code>visible[i]</code> is <code>true</code>.
+        @param x horizontal positions
+        @param y vertical positions
+        @param visible visibility of the points (can be <code>null</code> if all are visible) */
+    public void setPreview(int[] x, int[] y, boolean[] visible) {
+        previewX=x; previewY=y; previewVisible=visible;
+    }
+
+    /** reports that the first <code>n</code> preview points are ready. The canvas is repainted on the event dispatch thread, several reports are merged into one repaint if the painting can't keep up. */
+    public void progress(int n) {
+        if (cancelled) return;
+        ready=n;
+        synchronized (this) {
+            if (progressPosted) return;
+            progressPosted=true;
+        }
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                synchronized (BackgroundUpdate.this) { progressPosted=false; }
+                bc.updateProgress(BackgroundUpdate.this);
+            }
+        });
+    }
+
+    /** starts the worker thread */
+    void start() {
+        final Thread t=new Thread(this, "BackgroundUpdate");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY-1);
+        t.start();
+    }
+
+    public void run() {
+        final Stopwatch sw=new Stopwatch();
+        Runnable commit=null;
+        boolean failed=false;
+        try {
+            commit=bc.buildObjects(this);
+        } catch (Throwable e) {
+            // the geometry may change under a cancelled update, so errors are expected in that case
+            if (!cancelled) {
+                System.err.println("BackgroundUpdate: rebuild failed: "+e);
+                if (Global.DEBUG>0) e.printStackTrace();
+                failed=true;
+            }
+        }
+        if (cancelled) return;
+        sw.profile("BackgroundUpdate.build");
+        final Runnable c=commit;
+        final boolean f=failed;
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                bc.finishUpdate(BackgroundUpdate.this, c, f);
+            }
+        });
+    }
+}
@@ -2,18 +2,22 @@ package org.rosuda.ibase.toolkit;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.Frame;
+import java.awt.Image;
 import java.awt.MenuItem;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.PopupMenu;
 import java.awt.event.*;
+import java.awt.image.VolatileImage;
 import java.io.PrintStream;
 import java.util.*;
 
 import org.rosuda.ibase.*;
 import org.rosuda.pograss.*;
 import org.rosuda.util.Global;
+import org.rosuda.util.Parallel;
 import org.rosuda.util.Stopwatch;
 import org.rosuda.util.Tools;
 
@@ -59,6 +63,39 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
     /** plot primitives which form the basis for data display and selection */
     protected PlotPrimitive[] pp;
     
+    /** spatial index of {@link #pp} used for hit-testing. It is built lazily and discarded whenever the objects layer is repainted, because that's when the geometry of the primitives may have changed. */
+    protected PrimitiveIndex ppIndex;
+    
+    /** plots with fewer primitives than this are hit-tested by a plain scan without an index */
+    protected int minIndexedPrimitives=64;
+    
+    /** reverse index of {@link #pp}: the indices of primitives representing case <code>i</code> are <code>casePrims[casePrimStart[i]]</code> .. <code>casePrims[casePrimStart[i+1]-1]</code>. It is built lazily by {@link #getCasePrimitiveMap}. */
+    protected int[] casePrimStart, casePrims;
+    /** primitives the reverse index was built for and their case lists at that time */
+    private PlotPrimitive[] casePrimsOf;
+    private int[][] casePrimsRefs;
+    
+    /** if <code>true</code> a marker change repaints only those parts of the selection layer which are affected by the change. Subclasses that don't paint the selection solely by {@link PlotPrimitive#paintSelected} of {@link #pp} must set this to <code>false</code>. */
+    protected boolean incrementalSelection=true;
+    
+    /** marker version the selection layer was painted for or -1 if unknown */
+    protected long selVersion=-1;
+    
+    /** if <code>true</code> then the primitives of large plots are rebuilt on a worker thread after a resize or zoom, see {@link #buildObjects}. Only subclasses that implement {@link #buildObjects} may set this flag. */
+    protected boolean backgroundUpdates=false;
+    /** minimal number of cases for which a background update is used */
+    protected int backgroundMinCases=50000;
+    /** background update currently running or <code>null</code> if there is none */
+    protected BackgroundUpdate pendingUpdate;
+    /** size of the points painted as preview of a background update */
+    protected int previewPointSize=2;
+    
+    /** minimal number of cases per thread when the geometry is computed in parallel (see {@link #forCases}) */
+    protected int minParallelCases=25000;
+    
+    /** marker version up to which changes were applied to the cached mark counts of the primitives (see {@link #updateMarkCounts}) or -1 if none */
+    protected long countVersion=-1;
+    
     /**
      * List of objects that respond to queries not including those contained in {@link #pp}.
      * Should contain only objects which implement the interface Queryable.
@@ -99,6 +136,8 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
     protected boolean zoomDrag;
     /** run-time flag is set to <code>true</code> if the current baseDrag is a move */
     protected boolean moveDrag;
+    /** area of the drag rectangle as it was last painted on layer 2 or <code>null</code> if none is shown */
+    Rectangle paintedDragRect;
     
     /** run-time flag is set to <code>true</code> if query mode is on - (currently it means that <Ctrl> is held down) */
     protected boolean inQuery=false;
@@ -245,8 +284,23 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	}
 	if((msg.getMessageID()&Common.NM_MASK)==Common.NM_VarChange ||
 		msg.getMessageID()==Common.NM_AxisDataChange
-		)
+		) {
+	    cancelBackgroundUpdate();
 	    updateObjects();
+	}
+	if (msg.getMessageID()==Common.NM_MarkerChange) updateMarkCounts();
+	if (msg.getMessageID()==Common.NM_MarkerChange && changingHilitingNeedsUpdateRoot==1 && incrementalSelection && !dontCache && !isUpdatePending()) {
+	    final DamageRegion r=getSelectionDamage();
+	    if (r!=null && r.isEmpty()) return; // nothing visible has changed
+	    setUpdateRoot(1);
+	    if (r!=null) {
+		final Rectangle[] rs=r.getRectangles(null);
+		int i=0;
+		while (i<rs.length) addDamage(1,rs[i++]);
+	    }
+	    repaint();
+	    return;
+	}
 	setUpdateRoot((msg.getMessageID()==Common.NM_MarkerChange)?changingHilitingNeedsUpdateRoot:0);
 	repaint();
     };
@@ -257,10 +311,137 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	pp=null;
     }
     
-    /** rebuilds plot primitives - subclasses should override this method. It is not defined as abstract only for convenience, but minimal subclass simply overrides this method. */
+    /** rebuilds plot primitives - subclasses should override this method. It is not defined as abstract only for convenience, but minimal subclass simply overrides this method. Implementations must call {@link #invalidatePrimitiveIndex}. */
     public void updateObjects() {
+	invalidatePrimitiveIndex();
     };
     
+    /** runs a part of {@link #updateObjects} on all cases in parallel. The cases are split into contiguous chunks that are processed by separate threads (see {@link Parallel}). The task may only read the variables, the marker and the axes of the plot and write results into its own slots or per-chunk buffers - merging the results and publishing new primitives in {@link #pp} must be done afterwards by the calling thread.
+     * @param n number of cases
+     * @param t task to run on each chunk
+     * @return number of chunks used */
+    protected int forCases(final int n, final Parallel.Task t) {
+	return forCases(n, casesChunks(n), t);
+    }
+    
+    /** same as {@link #forCases(int,Parallel.Task)} but uses the given number of chunks. This allows several passes over the cases to use exactly the same chunks. */
+    protected int forCases(final int n, final int chunks, final Parallel.Task t) {
+	if (ax!=null) ax.validateGeometry();
+	if (ay!=null) ay.validateGeometry();
+	if (opAx!=null) for(int i=0; i<opAx.length; i++) if (opAx[i]!=null) opAx[i].validateGeometry();
+	if (opAy!=null) for(int i=0; i<opAy.length; i++) if (opAy[i]!=null) opAy[i].validateGeometry();
+	return Parallel.forChunks(n, chunks, t);
+    }
+    
+    /** rebuilds the plot primitives after the geometry has changed. Uses a background update if enabled (see {@link #backgroundUpdates}), otherwise calls {@link #updateObjects} directly. */
+    protected void rebuildObjects() {
+	rebuildObjects(0,0);
+    }
+    
+    /** same as {@link #rebuildObjects()}, the previous size of the plot (if the rebuild is caused by a resize) allows to show the previous content scaled until the first preview is available */
+    void rebuildObjects(final int prevW, final int prevH) {
+	cancelBackgroundUpdate();
+	invalidatePrimitiveIndex();
+	if (!backgroundUpdates || m==null || m.size()<backgroundMinCases) {
+	    updateObjects();
+	    releasePreviousImage();
+	    return;
+	}
+	final BackgroundUpdate u=new BackgroundUpdate(this);
+	prepareBackgroundUpdate(u);
+	u.prevW=prevW; u.prevH=prevH;
+	pendingUpdate=u;
+	u.start();
+    }
+    
+    /** returns <code>true</code> if a background update is running for the current primitives, i.e. the primitives don't match the current geometry */
+    public boolean isUpdatePending() {
+	return pendingUpdate!=null && pendingUpdate.base==pp;
+    }
+    
+    /** cancels the running background update (if any). The canvas keeps its current primitives. */
+    public void cancelBackgroundUpdate() {
+	if (pendingUpdate!=null) {
+	    pendingUpdate.cancel();
+	    pendingUpdate=null;
+	}
+    }
+    
+    /** finishes a pending background update right away, i.e. cancels the worker and rebuilds the primitives synchronously. This is used wherever the primitives have to match the current geometry, such as hit-tests and exports. The canvas is repainted later on the event dispatch thread, so this method can be called while painting. */
+    protected void completeBackgroundUpdate() {
+	if (!isUpdatePending()) return;
+	cancelBackgroundUpdate();
+	updateObjects();
+	releasePreviousImage();
+	EventQueue.invokeLater(new Runnable() {
+		public void run() {
+		    setUpdateRoot(0);
+		    repaint();
+		}
+	    });
+    }
+    
+    /** prepares a background update - this is called on the event dispatch thread before {@link #buildObjects} is started. The worker must not read any state of the canvas that can change while it is running (such as the size or the axes), so subclasses capture that state here and store it via {@link BackgroundUpdate#setState}. Subclasses that override this method must call the inherited method.
+     * @param u the update that is about to be started */
+    protected void prepareBackgroundUpdate(final BackgroundUpdate u) {
+	if (ax!=null) ax.validateGeometry();
+	if (ay!=null) ay.validateGeometry();
+	if (opAx!=null) for(int i=0; i<opAx.length; i++) if (opAx[i]!=null) opAx[i].validateGeometry();
+	if (opAy!=null) for(int i=0; i<opAy.length; i++) if (opAy[i]!=null) opAy[i].validateGeometry();
+    }
+    
+    /** builds the plot primitives on a worker thread - counterpart of {@link #updateObjects} for background updates. The method may only read the variables, the marker and the state captured by {@link #prepareBackgroundUpdate}; it must not modify the canvas. Instead it returns code that installs the new primitives, which is run on the event dispatch thread unless the update was cancelled in the meantime. Partial results can be reported as preview points via {@link BackgroundUpdate#setPreview} and {@link BackgroundUpdate#progress}.
+     * @param u the update (to check for cancellation and report progress)
+     * @return code installing the new primitives or <code>null</code> if cancelled */
+    protected Runnable buildObjects(final BackgroundUpdate u) {
+	return null;
+    }
+    
+    /** called on the event dispatch thread when a background update has new preview points */
+    void updateProgress(final BackgroundUpdate u) {
+	if (u!=pendingUpdate) return;
+	u.shown=u.ready;
+	setUpdateRoot(0);
+	repaint();
+    }
+    
+    /** called on the event dispatch thread when a background update is done */
+    void finishUpdate(final BackgroundUpdate u, final Runnable commit, final boolean failed) {
+	if (u!=pendingUpdate) return;
+	pendingUpdate=null;
+	if (failed) updateObjects();
+	else if (commit!=null && pp==u.base) commit.run(); // if the primitives were replaced in the meantime, the result is outdated
+	invalidatePrimitiveIndex();
+	releasePreviousImage();
+	setUpdateRoot(0);
+	repaint();
+    }
+    
+    /** paints the preview of a running background update instead of the primitives. Shows the preview points if there are any, otherwise the previous content of the plot area scaled to the new size. */
+    protected void paintPreview(final PoGraSS g, final BackgroundUpdate u) {
+	final Rectangle b=getBounds();
+	if (u.shown>0 && u.previewX!=null) {
+	    final int[] px=u.previewX, py=u.previewY;
+	    final boolean[] vis=u.previewVisible;
+	    final int ps=previewPointSize, po=previewPointSize/2;
+	    g.setColor(C_OBJECT);
+	    int i=0;
+	    while (i<u.shown) {
+		if (vis==null || vis[i]) g.fillRect(px[i]-po,py[i]-po,ps,ps);
+		i++;
+	    }
+	} else if (u.prevW>0 && u.prevH>0) {
+	    final Image img=getPreviousImage();
+	    if (img!=null && !(img instanceof VolatileImage && ((VolatileImage)img).contentsLost()))
+		g.drawImage(new PoGraSSimage(img), mLeft, mTop, b.width-mRight, b.height-mBottom, mLeft, mTop, u.prevW-mRight, u.prevH-mBottom);
+	}
+    }
+    
+    /** returns the number of chunks {@link #forCases} will use for <code>n</code> cases, so that per-chunk buffers can be allocated in advance */
+    protected int casesChunks(final int n) {
+	return Parallel.chunks(n, minParallelCases);
+    }
+    
     public Dimension getMinimumSize() { return new Dimension(mLeft+mRight+20,mTop+mBottom+20); };
     
     public Axis getAxisX() {
@@ -310,11 +491,18 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    marginsAdjusted = (autoAdjustMargins && adjustMargin(g));
 	    updateGeometry = updateGeometry || marginsAdjusted;
 	} while (marginsAdjusted);
+	// paints that are not done layer by layer by a graphics device (exports, printing) must never show a preview
+	final boolean synchronous=(g.localLayerCache<0);
 	if (H!=h || W!=w || updateGeometry) {
+	    final boolean resized=(H!=h || W!=w);
+	    final int pw=W, ph=H;
 	    W=w; H=h;
-	    updateObjects();
+	    if (synchronous) { cancelBackgroundUpdate(); updateObjects(); }
+	    else if (resized) rebuildObjects(pw,ph); else rebuildObjects();
 	}
+	if (synchronous) completeBackgroundUpdate();
 	updateGeometry=false;
+	if (dontCache || g.localLayerCache<0 || g.localLayerCache==0) ppIndex=null;
 	if (Global.DEBUG>0)
 	    System.out.println("BaseCanvas.paint: [w="+w+"/h="+h+"] ax="+ax+" ay="+ay);
 	
@@ -329,6 +517,8 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	nextLayer(g);
 	if (dontCache || g.localLayerCache<0 || g.localLayerCache==1) paintSelected(g);
 	nextLayer(g);
+	if (g.localLayerCache>=0 && (dontCache || g.localLayerCache==2)) // remember what the layer shows, so the next drag can damage it
+	    paintedDragRect=(baseDrag && !(allowDragMove && moveDrag))?getDragRect():null;
 	if (baseDrag && !(allowDragMove && moveDrag) && (dontCache || g.localLayerCache<0 || g.localLayerCache==2)) {
 	    /* no clipping
 	    int dx1=A[0].clip(x1),dy1=A[1].clip(y1),
@@ -363,7 +553,8 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	//System.out.println("BaseCanvas.paintObjects, (cache="+g.localLayerCache+") pp="+pp);
 	final Stopwatch sw=new Stopwatch();
 	if(objectClipping) g.setClip(mLeft, mTop, getBounds().width-mLeft-mRight, getBounds().height-mTop-mBottom);
-	if (pp!=null) {
+	if (isUpdatePending()) paintPreview(g, pendingUpdate);
+	else if (pp!=null) {
 	    
 	    g.setColor(C_OBJECT);
 	    int i = 0;
@@ -397,12 +588,18 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	
 	//System.out.println("BaseCanvas.paintSelected, pp="+pp);
 	if(objectClipping) g.setClip(mLeft, mTop, getBounds().width-mLeft-mRight, getBounds().height-mTop-mBottom);
-	if (pp!=null) {
+	if (pp!=null && !isUpdatePending()) { // the primitives don't match the geometry during a background update
+	    // if only a part of the plot is updated, paint only primitives that can intersect it
+	    final Rectangle[] ua=g.getUpdateAreas();
+	    final PrimitiveIndex pi=(ua==null)?null:getPrimitiveIndex();
+	    final int[] sub=(pi==null)?null:pi.getCandidates(ua);
+	    final int n=(sub==null)?pp.length:sub.length;
 	    
 	    if(alphaHighlighting) g.setGlobalAlpha(seperateAlphas?ppAlphaH:ppAlpha);
 	    g.setColor(C_MARKED);
-	    int i = 0;
-	    while (i<pp.length) {
+	    int j = 0;
+	    while (j<n) {
+		final int i=(sub==null)?j:sub[j];
 		if (pp[i]!=null && pp[i].isVisible()){
 		    if(pp[i].isPerformingAlphaBlending()){
 			if(alphaHighlighting){
@@ -419,11 +616,13 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 		    }
 		    pp[i].paintSelected(g,orientation,m);
 		}
-		i++;
+		j++;
 	    }
 	    if(alphaHighlighting) g.resetGlobalAlpha();
 	}
 	if(objectClipping) g.resetClip();
+	selVersion=(m==null)?-1:m.getVersion();
+	if (countVersion<0) countVersion=selVersion;
 	sw.profile("BaseCanvas.paintSelected");
     }
     
@@ -518,7 +717,7 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 		}
 	    }
 	    if (!effect && actionSelect) {
-		if(m.getList().size()>0){
+		if(m.marked()>0){
 		    m.selectNone();
 		    effect=true;
 		}
@@ -660,7 +859,7 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    zoomSequence.add(new ZoomDescriptorComponent(xAy));
 	    xAy.setValueRange(yCenter-yExtent/2.0,yExtent);
 	} else zoomSequence.add(new ZoomDescriptorComponent());
-	updateObjects();
+	rebuildObjects();
 	setUpdateRoot(0);
 	repaint();
     }
@@ -682,7 +881,7 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    zy.axis.setValueRange(zy.vBegin,zy.vLen);
 	zoomSequence.remove(zy);
 	zoomSequence.remove(zx);
-	updateObjects();
+	rebuildObjects();
 	setUpdateRoot(0);
 	repaint();
     }
@@ -701,7 +900,7 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    ignoreNotifications=ins;
 	    if (ay!=null && !zy.dummy)
 		ay.setValueRange(zy.vBegin,zy.vLen);
-	    updateObjects();
+	    rebuildObjects();
 	    setUpdateRoot(0);
 	    repaint();
 	}
@@ -755,6 +954,14 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	repaint();
     }
     
+    /** returns the area covered by the drag rectangle (including its outline) */
+    Rectangle getDragRect() {
+	final Rectangle r=new Rectangle(Math.min(baseDragX1,baseDragX2),Math.min(baseDragY1,baseDragY2),
+				      Math.abs(baseDragX2-baseDragX1),Math.abs(baseDragY2-baseDragY1));
+	r.grow(2,2);
+	return r;
+    }
+    
     public void mouseEntered(final MouseEvent e) {
 	/*	if(!pc.getComponent().contains(e.getX(),e.getY())) {
 			qi.hide();
@@ -768,6 +975,11 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	    if (x!=baseDragX2 || y!=baseDragY2) {
 		baseDragX2=x; baseDragY2=y;
 		setUpdateRoot(2);
+		if (!(allowDragMove && moveDrag)) { // only the drag rectangle on layer 2 changes
+		    // the rectangle that was painted last, not the previous drag position - several drags may be merged into one paint
+		    addDamage(2,paintedDragRect);
+		    addDamage(2,getDragRect());
+		}
 		repaint();
 	    }
 	}
@@ -896,24 +1108,7 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 		try {
 		    final PrintStream p=Tools.getNewOutputStreamDlg(myFrame,"Export selected cases to ...","selected.txt");
 		    if (p!=null) {
-			String str = v[0].getName();
-			for(int j=1; j<v.length; j++) str += "\t"+v[j].getName();
-			p.println(str);
-			i=0;
-			final int sz=v[0].size();
-			Object oo;
-			while(i<sz) {
-			    if (m.at(i)) {
-				oo=v[0].at(i);
-				str = ((oo==null)?"NA":oo.toString());
-				for(int j=1; j<v.length; j++){
-				    oo=v[j].at(i);
-				    str += "\t"+((oo==null)?"NA":oo.toString());
-				}
-				p.println(str);
-			    }
-			    i++;
-			}
+			new WriterTSV(p).write(v, m.getSelectedIDs());
 			p.close();
 		    }
 		} catch (Exception eee) {}
@@ -1043,12 +1238,151 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
 	yLabels.show=showLabels;
     }
     
+    /** discards the spatial index of the plot primitives. The index is rebuilt on the next query, so this method must be called whenever the primitives or their geometry change - {@link #updateObjects} implementations call it, subclasses that change the geometry of primitives elsewhere must call it as well. */
+    protected void invalidatePrimitiveIndex() {
+	ppIndex=null;
+    }
+    
+    /** returns the spatial index for the current plot primitives, building it if necessary.
+     * @return the index or <code>null</code> if there are too few primitives to make indexing worthwhile */
+    protected PrimitiveIndex getPrimitiveIndex() {
+	if (pp==null || pp.length<minIndexedPrimitives) return null;
+	if (ppIndex==null || ppIndex.getPrimitives()!=pp) ppIndex=new PrimitiveIndex(pp);
+	return ppIndex;
+    }
+    
+    /** returns the reverse index of {@link #pp}, i.e. a map from case IDs to primitives, building it if necessary. The map is returned as <code>casePrimStart</code> (see {@link #casePrimStart}, its length is the number of cases + 1) and is rebuilt whenever the primitives or their case lists change.
+     * @return the start offsets or <code>null</code> if there are no primitives or no marker */
+    protected int[] getCasePrimitiveMap() {
+	if (pp==null || m==null) return null;
+	int i=0;
+	if (casePrimsOf==pp && casePrimStart!=null && casePrimStart.length==m.size()+1) {
+	    while (i<pp.length && casePrimsRefs[i]==((pp[i]==null)?null:pp[i].getCaseIDs())) i++;
+	    if (i==pp.length) return casePrimStart;
+	    i=0;
+	}
+	final int cases=m.size();
+	final int[] st=new int[cases+1];
+	final int[][] refs=new int[pp.length][];
+	while (i<pp.length) {
+	    final int[] ids=refs[i]=(pp[i]==null)?null:pp[i].getCaseIDs();
+	    if (ids!=null) {
+		int k=0;
+		while (k<ids.length) {
+		    final int c=ids[k++];
+		    if (c>=0 && c<cases) st[c+1]++;
+		}
+	    }
+	    i++;
+	}
+	int c=0;
+	while (c<cases) { st[c+1]+=st[c]; c++; }
+	final int[] cp=new int[st[cases]];
+	final int[] pos=new int[cases];
+	System.arraycopy(st, 0, pos, 0, cases);
+	i=0;
+	while (i<pp.length) {
+	    final int[] ids=refs[i];
+	    if (ids!=null) {
+		int k=0;
+		while (k<ids.length) {
+		    c=ids[k++];
+		    if (c>=0 && c<cases) cp[pos[c]++]=i;
+		}
+	    }
+	    i++;
+	}
+	casePrimStart=st; casePrims=cp; casePrimsOf=pp; casePrimsRefs=refs;
+	return st;
+    }
+    
+    /** applies the marker changes since the last call to the cached mark counts of all primitives (see {@link PPrimBase#getMarkedProportion(SMarker,int,boolean)}), so only primitives representing changed cases are touched. Primitives whose counts can't be updated (e.g. because the changes are no longer known) recount their cases when they are painted next time. */
+    protected void updateMarkCounts() {
+	if (m==null || pp==null) return;
+	final long v=m.getVersion();
+	final long from=countVersion;
+	countVersion=v;
+	if (from<0 || from==v) return;
+	final int[] ch=m.getChangedSince(from);
+	if (ch==null || ch.length>m.size()/2) return;
+	final int[] st=getCasePrimitiveMap();
+	if (st==null) return;
+	final int[] cp=casePrims;
+	final int cases=st.length-1;
+	int i=0;
+	while (i<ch.length) {
+	    final int c=ch[i++];
+	    if (c<0 || c>=cases) continue;
+	    int j=st[c];
+	    final int je=st[c+1];
+	    while (j<je) {
+		final PlotPrimitive p=pp[cp[j++]];
+		if (p instanceof PPrimBase) ((PPrimBase)p).applyMarkChange(m,from,c);
+	    }
+	}
+	i=0;
+	while (i<pp.length) {
+	    if (pp[i] instanceof PPrimBase) ((PPrimBase)pp[i]).advanceMarkCounts(m,from,v);
+	    i++;
+	}
+    }
+    
+    /** determines the part of the selection layer that is affected by the marker changes since the layer was painted last time. It consists of the bounds of all primitives representing a changed case.
+     * @return the affected area (empty if no primitive is affected) or <code>null</code> if the entire layer must be repainted (e.g. the changes are not known, too many primitives are affected or some of them don't have bounds) */
+    protected DamageRegion getSelectionDamage() {
+	if (m==null || pp==null || selVersion<0) return null;
+	final long v=m.getVersion();
+	final int[] ch=m.getChangedSince(selVersion);
+	if (ch==null || ch.length>m.size()/2) return null;
+	final int[] st=getCasePrimitiveMap();
+	if (st==null) return null;
+	final int[] cp=casePrims;
+	final boolean[] hit=new boolean[pp.length];
+	final int cases=st.length-1;
+	final int maxPrims=pp.length/2;
+	int np=0;
+	final DamageRegion r=new DamageRegion();
+	int i=0;
+	while (i<ch.length) {
+	    final int c=ch[i++];
+	    if (c<0 || c>=cases) continue;
+	    int j=st[c];
+	    final int je=st[c+1];
+	    while (j<je) {
+		final int k=cp[j++];
+		if (!hit[k]) {
+		    hit[k]=true;
+		    if (++np>maxPrims) return null;
+		    final Rectangle bb=pp[k].getBounds();
+		    if (bb==null) return null;
+		    final Rectangle b=new Rectangle(bb); // the bounds of a primitive must not be modified
+		    b.grow(1,1);
+		    r.add(b);
+		}
+	    }
+	}
+	if (r.isEmpty()) {
+	    selVersion=v; // the layer is still valid
+	    return r;
+	}
+	final Rectangle cb=getBounds();
+	final Rectangle[] rs=r.getRectangles(null);
+	long a=0;
+	i=0;
+	while (i<rs.length) { a+=((long)rs[i].width)*((long)rs[i].height); i++; }
+	if (a>((long)cb.width)*((long)cb.height)/2) return null;
+	return r;
+    }
+    
     /**
      * Determine the plot primitives containing the given point.
      * Can be overridden to achieve better performance.
      * @return Array of matching primitives.
      */
     protected PlotPrimitive[] getPrimitivesContaining(final int x, final int y){
+	completeBackgroundUpdate(); // the primitives of a pending update don't match the geometry
+	final PrimitiveIndex pi=getPrimitiveIndex();
+	if (pi!=null) return pi.getContaining(x,y);
 	final PlotPrimitive buf[] = new PlotPrimitive[pp.length];
 	int i=0;
 	int j=0;
@@ -1067,6 +1401,9 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
      * @return The matching primitive or null if point doesn't belong to any primitive.
      */
     protected PlotPrimitive getFirstPrimitiveContaining(final int x, final int y){
+	completeBackgroundUpdate(); // the primitives of a pending update don't match the geometry
+	final PrimitiveIndex pi=getPrimitiveIndex();
+	if (pi!=null) return pi.getFirstContaining(x,y);
 	int i=0;
 	while (i<pp.length) {
 	    if (pp[i]!=null && pp[i].contains(x,y)) return pp[i];
@@ -1081,6 +1418,9 @@ public class BaseCanvas extends PGSCanvas implements Dependent, MouseListener, M
      * @return Array of intersecting primitives.
      */
     protected PlotPrimitive[] getPrimitivesIntersecting(final Rectangle rec){
+	completeBackgroundUpdate(); // the primitives of a pending update don't match the geometry
+	final PrimitiveIndex pi=getPrimitiveIndex();
+	if (pi!=null) return pi.getIntersecting(rec);
 	final PlotPrimitive buf[] = new PlotPrimitive[pp.length];
 	int i=0;
 	int j=0;
@@ -0,0 +1,107 @@
+package org.rosuda.ibase.toolkit;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+
+/** DamageRegion - area of a plot that has to be repainted, kept as a short list of rectangles. Overlapping or adjacent rectangles are merged as long as the merged rectangle is not larger than the rectangles it replaces, so distant changes (e.g. two highlighted bars at opposite ends of a plot) don't cause an update of everything in between. The number of rectangles is limited by {@link #MAX_RECTS}, further rectangles are merged into the rectangle that grows the least.
+    @version $Id$
+*/
+public class DamageRegion {
+    /** maximal number of rectangles */
+    public static final int MAX_RECTS = 16;
+
+    Rectangle[] r = new Rectangle[MAX_RECTS];
+    int n;
+
+    /** adds an area to the region
+        @param a area to add (empty rectangles and <code>null</code> are ignored) */
+    public void add(Rectangle a) {
+        if (a==null || a.width<=0 || a.height<=0) return;
+        Rectangle c=new Rectangle(a);
+        boolean merged=true;
+        while (merged) { // merging may enable further merges
+            merged=false;
+            int i=0;
+            while (i<n) {
+                final Rectangle u=r[i].union(c);
+                if (area(u)<=area(r[i])+area(c)) {
+                    c=u;
+                    r[i]=r[--n]; r[n]=null;
+                    merged=true;
+                } else i++;
+            }
+        }
+        if (n<MAX_RECTS) { r[n++]=c; return; }
+        int best=0, i=1;
+        long bg=area(r[0].union(c))-area(r[0]);
+        while (i<n) {
+            final long g=area(r[i].union(c))-area(r[i]);
+            if (g<bg) { bg=g; best=i; }
+            i++;
+        }
+        c=c.union(r[best]);
+        r[best]=r[--n]; r[n]=null;
+        add(c);
+    }
+
+    /** adds all areas of another region */
+    public void add(DamageRegion d) {
+        if (d==null) return;
+        int i=0;
+        while (i<d.n) add(d.r[i++]);
+    }
+
+    /** returns <code>true</code> if the region is empty */
+    public boolean isEmpty() { return n==0; }
+
+    /** returns the number of rectangles */
+    public int size() { return n; }
+
+    /** removes all areas */
+    public void clear() {
+        while (n>0) r[--n]=null;
+    }
+
+    /** returns the rectangles of this region intersected with the given bounds (empty intersections are omitted)
+        @param b bounds or <code>null</code> if the rectangles should not be restricted */
+    public Rectangle[] getRectangles(Rectangle b) {
+        final Rectangle[] t=new Rectangle[n];
+        int i=0, k=0;
+        while (i<n) {
+            final Rectangle c=(b==null)?new Rectangle(r[i]):r[i].intersection(b);
+            if (c.width>0 && c.height>0) t[k++]=c;
+            i++;
+        }
+        if (k==n) return t;
+        final Rectangle[] ret=new Rectangle[k];
+        System.arraycopy(t, 0, ret, 0, k);
+        return ret;
+    }
+
+    /** returns the bounding box of the region or <code>null</code> if the region is empty */
+    public Rectangle getBounds() {
+        if (n==0) return null;
+        final Rectangle b=new Rectangle(r[0]);
+        int i=1;
+        while (i<n) b.add(r[i++]);
+        return b;
+    }
+
+    /** returns <code>true</code> if the region covers the given area completely */
+    public boolean covers(Rectangle a) {
+        if (a.width<=0 || a.height<=0) return true;
+        if (n==0) return false;
+        final Area u=new Area();
+        int i=0;
+        while (i<n) u.add(new Area(r[i++]));
+        return u.contains(a);
+    }
+
+    static long area(Rectangle a) {
+        return ((long)a.width)*((long)a.height);
+    }
+
+    public String toString() {
+        return "DamageRegion("+n+" rectangles, bounds="+getBounds()+")";
+    }
+}
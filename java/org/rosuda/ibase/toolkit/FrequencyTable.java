@@ -1,335 +1,294 @@
 package org.rosuda.ibase.toolkit;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.List;
-import java.util.TreeMap;
 import org.rosuda.ibase.SVar;
+import org.rosuda.util.Parallel;
 
+/** FrequencyTable - multi-way contingency table of categorical variables, used by mosaic plots.
+ * <p>The counts and the cases of all cells are computed once from the category indices of the variables and cached together with the content versions of the variables (see {@link SVar#getContentVersion}). The table as seen by the plot (order of the variables, see {@link #permute}, and order of the categories, see {@link SVar#mainSeq}) is derived from the cached counts by re-indexing only, so changing the view doesn't need any pass over the cases.
+ * @version $Id$
+ */
 public final class FrequencyTable {
-    
+
     private int vsize;
+    /** variables in the current order */
     private SVar[] vars;
-    private CombinationEntry[] ceTable;
+
+    /** variables in the order used by the cached counts */
+    private SVar[] bvars;
+    /** content versions and numbers of categories of {@link #bvars} at the time the counts were computed */
+    private long[] bversions;
+    private int[] bcats;
+    /** counts of all cells, indexed by the category indices in the order of {@link #bvars} */
+    private int[] bcounts;
+    /** expected counts assuming independence, same indexing as {@link #bcounts} */
+    private double[] bexp;
+    /** IDs of all counted cases grouped by cell (same cell order as {@link #bcounts}) */
+    private int[] cases;
+    /** start of each cell in {@link #cases} */
+    private int[] cellStart;
+
+    /** current order of the variables: <code>vars[i]=bvars[perm[i]]</code> */
+    private int[] perm;
+    /** cell of the cached counts for each cell of the current table */
+    private int[] cellMap;
     private double[] table;
     private double[] exp;
-    
+    private int[] levels;
+    private String[][] lnames;
+
     private double p;
-    
+
+    /** minimal number of cases per thread when building the table */
+    static final int MIN_CHUNK = 50000;
+
+    /** builds the table. Cases are assigned to cells by the category indices of the variables (see {@link SVar#getCatIndex(int)}), cases with a missing value in any of the variables are not counted. */
     public FrequencyTable(final SVar[] vvs) {
         this.vars = vvs;
         this.vsize = vvs.length;
-        
+        perm = new int[vsize];
+        for(int i=0; i<vsize; i++) perm[i]=i;
+        count();
+        derive();
+    }
+
+    /** returns <code>true</code> if the cached counts are up to date, i.e. neither the contents nor the categories of the variables changed since they were computed */
+    public boolean isCurrent() {
+        for(int i=0; i<vsize; i++)
+            if (bvars[i].getContentVersion()!=bversions[i] || bvars[i].getNumCats()!=bcats[i]) return false;
+        return true;
+    }
+
+    /** makes sure the table reflects the current contents of the variables. The cases are only counted again if the contents changed. */
+    public void validate() {
+        if (isCurrent()) return;
+        count();
+        derive();
+    }
+
+    /** updates the table after the order of categories changed (see {@link SVar#mainSeq}). This doesn't count the cases again. */
+    public void reorder() {
+        derive();
+    }
+
+    /** counts the cases of all cells (in the order of {@link #bvars}) */
+    private void count() {
+        bvars = new SVar[vsize];
+        for(int i=0; i<vsize; i++) bvars[perm[i]] = vars[i];
+        bversions = new long[vsize];
+        bcats = new int[vsize];
+        final SVar[] bv = bvars;
+
         int tableLen = 1;
         for(int i=0; i< vsize; i++){
-            tableLen *= vars[i].getNumCats();
-        }
-        ceTable = new CombinationEntry[tableLen];
-        table = new double[tableLen];
-        exp = new double[tableLen];
-        
-        // init frequency table
-        for(int i=0; i<ceTable.length; i++) ceTable[i] = new CombinationEntry();
-        final int[] vc = new int[vsize];
-        int pos=0;
-        while(vc[0]<vars[0].getNumCats()){
-            for(vc[vsize-1]=0; vc[vsize-1]<vars[vsize-1].getNumCats(); vc[vsize-1]++){
-                for(int v=0; v<vsize; v++){
-                    ceTable[pos+vc[vsize-1]].addCat(vars[v].getName(), vars[v].getCategories()[vars[v].mainSeq().catAtPos(vc[v])]);
-                }
-            }
-            for(int i=vsize-2; i>=0; i--){
-                vc[i+1]=0;
-                if((++vc[i])<vars[i].getNumCats()) break;
-            }
-            pos += vars[vsize-1].getNumCats();
-        }
-        
-        for (int i=0; i<ceTable.length; i++) {
-            ceTable[i].cases = new ArrayList((int)(vars[0].size()/Math.pow(vars[0].getNumCats(),vars.length)));
+            bversions[i] = bv[i].getContentVersion();
+            bcats[i] = bv[i].getNumCats();
+            tableLen *= bcats[i];
         }
-        final int[] chunks = new int[vars.length];
-        chunks[chunks.length-1]=1;
-        for(int i=chunks.length-2; i>=0; i--){
-            chunks[i] = chunks[i+1]*vars[i+1].getNumCats();
+
+        // cell of each case (from the category indices) and counts per cell, computed in parallel over chunks of cases
+        final int[] factors = new int[vsize];
+        factors[vsize-1]=1;
+        for(int i=vsize-2; i>=0; i--){
+            factors[i] = factors[i+1]*bcats[i+1];
         }
-        TreeMap[] tm = new TreeMap[vars.length];
-        for(int i=0; i<tm.length; i++) tm[i]=new TreeMap();
-        for (int cs=0; cs < vars[0].size(); cs++){
-            final int[] numOfCat = new int[vars.length];
-            for(int i=vars.length-1; i>=0; i--){
-                final String str = vars[i].at(cs).toString();
-                final Object num = tm[i].get(str);
-                if(num==null){
-                    numOfCat[i]=-1;
-                    for(int j=0; j<vars[i].getNumCats(); j++){
-                        if(vars[i].at(cs).toString().equals(vars[i].getCategories()[j].toString())){
-                            numOfCat[i]=j;
-                            break;
+        final int n = bv[0].size();
+        final int tl = tableLen;
+        // each chunk needs its own histogram, so chunks must not be smaller than the table
+        final int minChunk = (tableLen<MIN_CHUNK)?MIN_CHUNK:tableLen;
+        final int nch = Parallel.chunks(n, minChunk);
+        final int[] cell = new int[n];
+        final int[][] cnt = new int[nch][];
+        final int[][][] mcnt = new int[nch][][];
+        Parallel.forChunks(n, nch, new Parallel.Task() {
+            public void run(final int chunk, final int from, final int to) {
+                final int[] ct = new int[tl];
+                final int[][] mc = new int[vsize][];
+                for(int v=0; v<vsize; v++) mc[v] = new int[bcats[v]];
+                for (int cs=from; cs<to; cs++) {
+                    int ind=0;
+                    for(int v=0; v<vsize; v++){
+                        final int ci = bv[v].getCatIndex(cs);
+                        if (ci<0) ind=-1; // cases with missing values are not counted
+                        else {
+                            if (ind>=0) ind += factors[v]*ci;
+                            mc[v][ci]++;
                         }
                     }
-                    tm[i].put(str,new Integer(numOfCat[i]));
-                } else{
-                    numOfCat[i] = ((Integer)num).intValue();
+                    cell[cs] = ind;
+                    if (ind>=0) ct[ind]++;
                 }
+                cnt[chunk] = ct;
+                mcnt[chunk] = mc;
             }
-            //for(int i=0; i<chunks.length; i++) System.out.println("chunks " + i + " " + chunks[i]);
-            //for(int i=0; i<numOfCat.length; i++) System.out.println("nOc " + i + " " + numOfCat[i]);
-            
-            int ind=0;
-            for(int j=0; j<vars.length; j++) ind += chunks[j]*numOfCat[j];
-            //System.out.println("ind: " + ind + ", len: " + ceTable.length);
-            final CombinationEntry ce = ceTable[ind];
-            ce.cases.add(new Integer(cs));
+        });
+
+        // counting sort: cases of a cell are stored in ascending order, each chunk gets a contiguous block within the cell
+        bcounts = new int[tableLen];
+        cellStart = new int[tableLen+1];
+        for (int i=0; i<tableLen; i++) {
+            int c=0;
+            for (int k=0; k<nch; k++) c += cnt[k][i];
+            bcounts[i] = c;
+            cellStart[i+1] = cellStart[i]+c;
         }
-        for (int i=0; i<ceTable.length; i++) {
-            table[i] = ceTable[i].cases.size();
+        cases = new int[cellStart[tableLen]];
+        final int[][] fill = new int[nch][];
+        for (int k=0; k<nch; k++) {
+            fill[k] = new int[tableLen];
+            for (int i=0; i<tableLen; i++) fill[k][i] = (k==0)?cellStart[i]:(fill[k-1][i]+cnt[k-1][i]);
         }
+        Parallel.forChunks(n, nch, new Parallel.Task() {
+            public void run(final int chunk, final int from, final int to) {
+                final int[] ps = fill[chunk];
+                for (int cs=from; cs<to; cs++) {
+                    final int ind = cell[cs];
+                    if (ind>=0) cases[ps[ind]++] = cs;
+                }
+            }
+        });
 
         // init expected table assuming independence
         int maxNumCats=0;
         for(int v=0; v<vsize; v++){
-            if(vars[v].getNumCats() > maxNumCats) maxNumCats=vars[v].getNumCats();
+            if(bcats[v] > maxNumCats) maxNumCats=bcats[v];
         }
-         
+
         final int[][] counts;
         counts = new int[vsize][maxNumCats];
-         
-        for(int v=0; v<vsize; v++)
-            for(int i=0; i<vars[v].getNumCats(); i++)
-                counts[v][i]=0;
-         
-        for(int v=0; v<vsize; v++)
-            for(int i=0; i<vars[v].size(); i++)
-                counts[v][vars[v].getCatIndex(i)]++;
-         
-        final double denom = Math.pow(vars[0].size(), -vsize);
-        for(int i=0; i<exp.length; i++){
-            exp[i]=1;
+
+        for(int k=0; k<nch; k++)
+            for(int v=0; v<vsize; v++)
+                for(int i=0; i<bcats[v]; i++)
+                    counts[v][i]+=mcnt[k][v][i];
+
+        bexp = new double[tableLen];
+        final double denom = Math.pow(n, -vsize);
+        for(int i=0; i<tableLen; i++){
+            bexp[i]=1;
             int j=i;
             for(int v=vsize-1; v>=0; v--){
-                exp[i]*=counts[v][j%vars[v].getNumCats()];
-                j = j/vars[v].getNumCats();
+                bexp[i]*=counts[v][j%bcats[v]];
+                j = j/bcats[v];
             }
-            exp[i] *= denom;
+            bexp[i] *= denom;
         }
     }
-    
-    private final class CombinationEntry {
-        
-        Hashtable ccs = new Hashtable();
-        
-        List cases = new ArrayList(0);
-        
-        public CombinationEntry() {
-            
-        }
-        
-        public int[] getCases() {
-            final int[] cs = new int[cases.size()];
-            for (int i = 0, csize = cases.size(); i < cs.length && i < csize; i++)
-                cs[i] = ((Integer) cases.get(i)).intValue();
-            return cs;
-        }
-        
-        public int getCombSize() {
-            return cases.size();
-        }
-        
-        public Hashtable getCats() {
-            return ccs;
-        }
-        
-        public String getCombInfo() {
-            String comb = "";
-            final Enumeration e = ccs.keys();
-            while (e.hasMoreElements()) {
-                final Object o = e.nextElement();
-                comb += o+": "+ccs.get(o);
-                if (e.hasMoreElements()) comb +="\n";
-            }
-            return comb;
-        }
-        
-        public CombinationEntry(final CombinationEntry e) {
-            this.ccs.putAll(e.ccs);
-        }
-        
-        protected void addCat(final Object n, final Object c){
-            ccs.put(n,c);
+
+    /** derives the current table from the cached counts using the current order of variables and categories */
+    private void derive() {
+        final int[] bfactors = new int[vsize];
+        bfactors[vsize-1]=1;
+        for(int i=vsize-2; i>=0; i--){
+            bfactors[i] = bfactors[i+1]*bcats[i+1];
         }
-        
-        protected boolean CombinationEqualsCase(final int c) {
-            for (int i = 0; i < vsize; i++) {
-                final Comparable str = (Comparable)ccs.get(vars[i].getName());
-                if(str.toString().compareTo(vars[i].at(c).toString())!=0)
-                    return false;
+        levels = new int[vsize];
+        lnames = new String[vsize][];
+        // base offset of each category position of each variable
+        final int[][] off = new int[vsize][];
+        for(int i=0; i<vsize; i++){
+            levels[i] = bcats[perm[i]];
+            lnames[i] = new String[levels[i]];
+            off[i] = new int[levels[i]];
+            for(int j=0; j<levels[i]; j++){
+                final int c = vars[i].mainSeq().catAtPos(j);
+                lnames[i][j] = vars[i].getCatAt(c).toString();
+                off[i][j] = c*bfactors[perm[i]];
             }
-            return true;
         }
-        
-        
-        public String toString() {
-            String comb = "";
-            final Enumeration e = ccs.keys();
-            while (e.hasMoreElements()) {
-                final Object o = e.nextElement();
-                comb += o+": "+ccs.get(o);
-                if (e.hasMoreElements()) comb +=", ";
+
+        final int tableLen = bcounts.length;
+        cellMap = new int[tableLen];
+        table = new double[tableLen];
+        exp = new double[tableLen];
+        if (tableLen==0) return;
+        final int[] vc = new int[vsize];
+        for(int pos=0; pos<tableLen; pos++){
+            int b=0;
+            for(int i=0; i<vsize; i++) b += off[i][vc[i]];
+            cellMap[pos] = b;
+            table[pos] = bcounts[b];
+            exp[pos] = bexp[b];
+            // advance the position vector, last variable first
+            for(int i=vsize-1; i>=0; i--){
+                if (++vc[i]<levels[i]) break;
+                vc[i]=0;
             }
-            return comb+" : "+cases.size();
         }
     }
-    
-    private int[] levels;
+
     public int[] getLevels(){
-        if (levels==null){
-            levels = new int[vars.length];
-            for(int i=0; i<vars.length; i++){
-                levels[i] = vars[i].getNumCats();
-            }
-        }
         return levels;
     }
-    
-    private String[][] lnames;
+
     public String[][] getLnames(){
-        if(lnames==null){
-            lnames = new String[vars.length][];
-            for(int i=0; i<vars.length; i++){
-                lnames[i] = new String[getLevels()[i]];
-                for(int j=0; j<getLevels()[i]; j++){
-                    lnames[i][j] = vars[i].getCatAt(vars[i].mainSeq().catAtPos(j)).toString();
-                }
-            }
-        }
         return lnames;
     }
-    
+
     public double[] getTable(){
         return table;
     }
-    
+
     public double[] getExp(){
         return exp;
     }
-    
+
+    /** returns the IDs of all cases in the cells matching a combination of categories
+     * @param com category positions of the first <code>maxLevel</code> variables, the first -1 entry ends the combination
+     * @param maxLevel number of variables to consider */
     public int[] getMatchingCases(final int[] com, int maxLevel){
-        //TODO make this faster
         for(int i=0; i<com.length && i<maxLevel; i++){
             if(com[i]==-1){
                 maxLevel=i;
                 break;
             }
         }
-        
+
         final int[] factors = new int[vsize];
         factors[vsize-1]=1;
         for(int i=vsize-2; i>=0; i--){
-            factors[i] = factors[i+1]*vars[i+1].getNumCats();
+            factors[i] = factors[i+1]*levels[i+1];
         }
-        
+
         int n=0;
         for(int i=0; i<maxLevel; i++){
             n += factors[i]*com[i];
         }
-        final List cases = new ArrayList(factors[maxLevel-1]);
+        // the matching cells are a contiguous block of the current table
+        final int cells = factors[maxLevel-1];
         int arraySize=0;
-        for(int i=0; i<factors[maxLevel-1]; i++){
-            final int[] c = ceTable[n+i].getCases();
-            cases.add(c);
-            arraySize += c.length;
+        for(int i=0; i<cells; i++){
+            final int b = cellMap[n+i];
+            arraySize += cellStart[b+1]-cellStart[b];
         }
         final int[] ret = new int[arraySize];
         int pos=0;
-        for(final Iterator it = cases.listIterator(); it.hasNext();){
-            final int[] c = (int[])it.next();
-            System.arraycopy(c, 0, ret, pos, c.length);
-            pos += c.length;
+        for(int i=0; i<cells; i++){
+            final int b = cellMap[n+i];
+            final int l = cellStart[b+1]-cellStart[b];
+            System.arraycopy(cases, cellStart[b], ret, pos, l);
+            pos += l;
         }
         return ret;
     }
-    
+
+    /** changes the order of the variables, the new order is <code>vars[perm[0]], vars[perm[1]], ...</code> This doesn't count the cases again. */
     public void permute(final int[] perm) {
-        
-        final int[]   plevels = new int[vsize];
-        
-        // permuted pendants
-        final double[]   p_table  = new double[table.length];
-        final CombinationEntry[]   p_cetable  = new CombinationEntry[table.length];
-        final double[]   p_exp    = new double[table.length];
-        final String[][] p_lnames = new String[vsize][];
+        final int[] p_perm = new int[vsize];
         final SVar[] p_vars = new SVar[vsize];
-        for (int i=0; i<vsize; i++)
-            p_lnames[i] = new String[lnames[perm[i]].length];
-        final int[]      p_levels = new int[vsize];
-        
-        plevels[vsize-1] = 0;
-        plevels[vsize-2] = levels[vsize-1];		// calculate the number of cells covered by a
-        // category in level vsize
-        for (int i=vsize-3; i>=0; i--) {
-            plevels[i] = plevels[i+1] * levels[i+1];
-        }
-        
-        final int[][] index;
-        index = new int[table.length][vsize];
-        
-        int decompose;
-        
-        for (int i=0; i<table.length; i++) {
-            decompose = i;
-            for (int j=0; j<vsize-1; j++) {
-                index[i][j] = decompose / plevels[j];
-                decompose -= index[i][j] *  plevels[j];
-            }
-            index[i][vsize-1] = decompose;
-        }
-        
-        for (int i=0; i<vsize; i++) {                  // permute the names: this is easy
+        for (int i=0; i<vsize; i++) {
+            p_perm[i] = this.perm[perm[i]];
             p_vars[i] = vars[perm[i]];
-            p_levels[i] = levels[perm[i]];
-        }
-        
-        for (int i=0; i<vsize; i++) {                  // and the level names
-            for (int j=0; j<(p_lnames[i].length); j++) {
-                p_lnames[i][j] = lnames[perm[i]][j];
-            }
         }
-        
-        levels = p_levels;
-        this.lnames = p_lnames;
-        
-        plevels[vsize-2] = levels[vsize-1];		 // calculate the number of cells covered by a
-        // category in level k
-        for (int i=vsize-3; i>=0; i--) {
-            plevels[i] = plevels[i+1] * levels[i+1];
-        }
-        
-        for (int i=0; i<table.length; i++) {
-            decompose = 0;
-            for (int j=0; j<vsize-1; j++) {
-                decompose += index[i][perm[j]] * plevels[j];
-            }
-            decompose += index[i][perm[vsize-1]];
-            p_table[decompose]  = table[i];
-            p_cetable[decompose] = ceTable[i];
-            p_exp[decompose]    = exp[i];
-        }
-        
-        table = p_table;
-        ceTable = p_cetable;
-        exp = p_exp;
+        this.perm = p_perm;
         vars = p_vars;
-        
+        derive();
     } // end perm
-    
+
     public SVar[] getVars() {
         return vars;
     }
-    
+
     public double getP() {
         return p;
     }
-    
+
 }
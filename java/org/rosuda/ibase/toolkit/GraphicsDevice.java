@@ -22,6 +22,14 @@ public interface GraphicsDevice {
 	
 	// layer manipulation methods
 	void setUpdateRoot(int root);
+	/** restricts the next update to the given area of the layers above the update root; must be called after {@link #setUpdateRoot} */
+	void setUpdateClip(Rectangle r);
+	/** marks an area of a layer as damaged, so that the next update repaints only the damaged areas of that layer and the layers above it */
+	void addDamage(int layer, Rectangle r);
+	/** returns the content of the first layer as it was before the last resize (or <code>null</code> if not available) */
+	Image getPreviousImage();
+	/** discards the image returned by {@link #getPreviousImage} once it is no longer needed */
+	void releasePreviousImage();
 	
 	// component methods
 	Component getComponent();
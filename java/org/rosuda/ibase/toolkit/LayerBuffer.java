@@ -0,0 +1,150 @@
+package org.rosuda.ibase.toolkit;
+
+import java.awt.*;
+import java.awt.image.VolatileImage;
+
+import org.rosuda.util.*;
+
+/** LayerBuffer - off-screen images of the layers of a graphics device. The layers are volatile images if possible, so they reside in accelerated (video) memory and are created at the resolution of the screen they are shown on (i.e. they are not scaled up on HiDPI screens). Volatile images can lose their contents at any time (e.g. when the display mode changes), so the device has to call {@link #validate} before each update and repaint all layers if it returns <code>true</code>, and check {@link #contentsLost} afterwards. If volatile images are not available (or disabled by {@link Global#useAcceleratedLayers}) ordinary images created by the component are used.
+    @version $Id$
+*/
+public class LayerBuffer {
+    /** largest size (in device pixels) of a layer in either direction */
+    public static int maxDeviceSize = 16384;
+
+    /** component the layers are shown in */
+    final Component comp;
+    /** layer images */
+    final Image[] images;
+    /** size of the layers (in user space) or <code>null</code> if they were not created yet */
+    Dimension size;
+    /** <code>true</code> if the layers are volatile images */
+    boolean accelerated;
+
+    /** creates a new buffer. The images are created by the first call to {@link #ensureSize}.
+        @param c component the layers will be drawn into
+        @param layers number of layers */
+    public LayerBuffer(Component c, int layers) {
+        comp=c;
+        images=new Image[layers];
+    }
+
+    /** returns the image of a layer */
+    public Image get(int layer) { return images[layer]; }
+
+    /** returns <code>true</code> if the layers are volatile images */
+    public boolean isAccelerated() { return accelerated; }
+
+    /** returns the scale of user space to device pixels of the screen the component is shown on (1.0 if not known) */
+    public double getDeviceScale() {
+        final GraphicsConfiguration gc=comp.getGraphicsConfiguration();
+        if (gc==null) return 1.0;
+        final double s=gc.getDefaultTransform().getScaleX();
+        return (s>0.0)?s:1.0;
+    }
+
+    /** checks the size of the component. Some systems report bogus sizes (e.g. negative sizes or sizes wrapped around 0 with Xinerama), so the size is restricted to the area of all screens and to {@link #maxDeviceSize} device pixels.
+        @param d size of the component
+        @return the size to use for the layers or <code>null</code> if the size is empty */
+    public Dimension checkSize(Dimension d) {
+        if (d==null || d.width<1 || d.height<1) return null;
+        int mw=Integer.MAX_VALUE, mh=Integer.MAX_VALUE;
+        if (!GraphicsEnvironment.isHeadless()) {
+            final java.awt.GraphicsDevice[] gd=GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+            Rectangle vb=null;
+            int i=0;
+            while (i<gd.length) {
+                final Rectangle b=gd[i++].getDefaultConfiguration().getBounds();
+                if (vb==null) vb=b; else vb=vb.union(b);
+            }
+            if (vb!=null) { mw=vb.width; mh=vb.height; }
+        }
+        final double s=getDeviceScale();
+        final int md=(int)(maxDeviceSize/s);
+        if (md<mw) mw=md;
+        if (md<mh) mh=md;
+        if (d.width<=mw && d.height<=mh) return d;
+        if (Global.DEBUG>0) System.out.println("LayerBuffer: component size "+d.width+":"+d.height+" restricted to "+mw+":"+mh);
+        return new Dimension((d.width>mw)?mw:d.width, (d.height>mh)?mh:d.height);
+    }
+
+    /** makes sure the layers have the given size, re-creating them if necessary
+        @param d size of the layers (in user space), see {@link #checkSize}
+        @return <code>true</code> if the layers were re-created, i.e. their contents are undefined */
+    public boolean ensureSize(Dimension d) {
+        if (size!=null && size.width==d.width && size.height==d.height && images[0]!=null) return false;
+        create(d);
+        return true;
+    }
+
+    /** removes the image of a layer from the buffer, so it is not released when the layers are re-created. The caller is responsible for flushing it once it's not needed anymore. The layers have to be re-created (see {@link #ensureSize}) before they are used again.
+        @return the image of the layer (may be <code>null</code>) */
+    public Image detach(int layer) {
+        final Image img=images[layer];
+        images[layer]=null;
+        return img;
+    }
+
+    /** flushes all layer images, so that accelerated surfaces are released right away instead of waiting for the garbage collector */
+    void release() {
+        int i=0;
+        while (i<images.length) {
+            if (images[i]!=null) images[i].flush();
+            images[i++]=null;
+        }
+    }
+
+    void create(Dimension d) {
+        release();
+        size=new Dimension(d);
+        accelerated=false;
+        int i=0;
+        if (Global.useAcceleratedLayers) {
+            try {
+                while (i<images.length) {
+                    final VolatileImage vi=comp.createVolatileImage(d.width, d.height);
+                    if (vi==null) break;
+                    images[i++]=vi;
+                }
+            } catch (Exception e) { // some pipelines refuse volatile images (e.g. headless)
+                if (Global.DEBUG>0) System.out.println("LayerBuffer: volatile images are not available: "+e);
+            }
+            accelerated=(i==images.length);
+        }
+        if (!accelerated) {
+            release(); // volatile images created before the failure
+            i=0;
+            while (i<images.length) images[i++]=comp.createImage(d.width, d.height);
+        }
+        if (Global.DEBUG>0) System.out.println("LayerBuffer: created "+images.length+" layers ("+d.width+":"+d.height+", scale="+getDeviceScale()+", accelerated="+accelerated+")");
+    }
+
+    /** validates the layers before they are used. Layers that became incompatible with the screen (e.g. the window was moved to a screen with a different scale) are re-created.
+        @return <code>true</code> if the contents of the layers were lost, i.e. all layers have to be repainted */
+    public boolean validate() {
+        if (!accelerated || size==null) return false;
+        final GraphicsConfiguration gc=comp.getGraphicsConfiguration();
+        boolean lost=false;
+        int i=0;
+        while (i<images.length) {
+            final VolatileImage vi=(VolatileImage)images[i];
+            final int v=vi.validate(gc);
+            if (v==VolatileImage.IMAGE_INCOMPATIBLE) {
+                create(size);
+                return true;
+            }
+            if (v==VolatileImage.IMAGE_RESTORED) lost=true;
+            i++;
+        }
+        return lost;
+    }
+
+    /** returns <code>true</code> if the contents of any layer were lost since the last {@link #validate} */
+    public boolean contentsLost() {
+        if (!accelerated) return false;
+        int i=0;
+        while (i<images.length)
+            if (((VolatileImage)images[i++]).contentsLost()) return true;
+        return false;
+    }
+}
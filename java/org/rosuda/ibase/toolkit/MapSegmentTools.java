@@ -39,4 +39,16 @@ public class MapSegmentTools {
         while (i<mse.yp.length) { ys[i]=a.getValuePos(mse.yp[i]); i++; };
         return ys;
     }    
+
+    /** transform coordinates according to the specified {@link Axis} and return the result.
+    @param p coordinates (in model units)
+    @param a axis to be used for transformation
+    @return transformed coordinates as an array of integers */
+    public static int[] transViaAxis(final double[] p, final Axis a) {
+        if (p==null) return null;
+        final int[] ps=new int[p.length];
+        int i=0;
+        while (i<p.length) { ps[i]=a.getValuePos(p[i]); i++; };
+        return ps;
+    }
 }
@@ -0,0 +1,147 @@
+package org.rosuda.ibase.toolkit;
+
+import org.rosuda.ibase.*;
+
+/** MapSimplifier - simplified versions of map polygons (see {@link MapSegmentEntry}) for drawing at different zoom levels. The Douglas-Peucker algorithm is run once on each polygon and records for each point the largest tolerance at which it is still kept, so the simplified polygon for any tolerance is obtained by filtering the points. The simplified coordinates are cached in model space for each level of tolerance (the level k corresponds to the tolerance <code>unit*2^k</code>), so they don't have to be re-computed on resize or zoom.
+    <p>The first and last point of each polygon and the point farthest from them are always kept.
+    @version $Id$
+*/
+public class MapSimplifier {
+    /** number of levels */
+    public static final int LEVELS = 24;
+
+    /** the polygons */
+    final MapSegmentEntry[] ents;
+    /** tolerance of level 0 */
+    final double unit;
+    /** tolerance up to which each point is kept (computed when first needed) */
+    final float[][] imp;
+    /** cached simplified coordinates [polygon][level] */
+    final double[][][] sx, sy;
+
+    /** creates a new simplifier
+        @param entries polygons (<code>null</code> entries are allowed)
+        @param extent size of the whole map (in model units), the tolerance of level 0 is 2^-20 of the extent */
+    public MapSimplifier(MapSegmentEntry[] entries, double extent) {
+        ents=entries;
+        unit=(extent>0)?extent/1048576.0:1.0;
+        imp=new float[ents.length][];
+        sx=new double[ents.length][][];
+        sy=new double[ents.length][][];
+    }
+
+    /** returns the number of polygons */
+    public int size() { return ents.length; }
+
+    /** returns the polygon with the specified index */
+    public MapSegmentEntry at(int i) { return ents[i]; }
+
+    /** returns the level to use for the given tolerance or -1 if the polygons should not be simplified
+        @param tolerance largest distance (in model units) of a removed point from the simplified polygon, usually half of the size of a pixel */
+    public int getLevel(double tolerance) {
+        if (!(tolerance>=unit)) return -1;
+        int l=0;
+        double t=unit+unit;
+        while (l<LEVELS-1 && t<=tolerance) { l++; t+=t; }
+        return l;
+    }
+
+    /** returns the x coordinates of a simplified polygon
+        @param i polygon index
+        @param level level as returned by {@link #getLevel} */
+    public double[] getX(int i, int level) {
+        if (level<0 || ents[i]==null) return (ents[i]==null)?null:ents[i].xp;
+        if (sx[i]==null || sx[i][level]==null) simplify(i,level);
+        return sx[i][level];
+    }
+
+    /** returns the y coordinates of a simplified polygon
+        @param i polygon index
+        @param level level as returned by {@link #getLevel} */
+    public double[] getY(int i, int level) {
+        if (level<0 || ents[i]==null) return (ents[i]==null)?null:ents[i].yp;
+        if (sy[i]==null || sy[i][level]==null) simplify(i,level);
+        return sy[i][level];
+    }
+
+    /** drops all cached coordinates, e.g. after the polygons were modified */
+    public void reset() {
+        int i=0;
+        while (i<ents.length) { imp[i]=null; sx[i]=null; sy[i]=null; i++; }
+    }
+
+    void simplify(int i, int level) {
+        final MapSegmentEntry e=ents[i];
+        if (imp[i]==null) imp[i]=importance(e.xp,e.yp);
+        final float[] im=imp[i];
+        final double t=unit*((double)(1<<level));
+        final int n=im.length;
+        int k=0, j=0;
+        while (j<n) { if (im[j]>=t) k++; j++; }
+        if (sx[i]==null) { sx[i]=new double[LEVELS][]; sy[i]=new double[LEVELS][]; }
+        if (k+k>=n) { // not worth a copy
+            sx[i][level]=e.xp; sy[i][level]=e.yp;
+            return;
+        }
+        final double[] x=new double[k], y=new double[k];
+        k=0; j=0;
+        while (j<n) {
+            if (im[j]>=t) { x[k]=e.xp[j]; y[k]=e.yp[j]; k++; }
+            j++;
+        }
+        sx[i][level]=x; sy[i][level]=y;
+    }
+
+    /** computes the largest tolerance at which each point is kept by the Douglas-Peucker algorithm. The tolerance of a point never exceeds the tolerance of the point that split its segment, so filtering by any tolerance gives the same result as running the algorithm with that tolerance. */
+    static float[] importance(final double[] x, final double[] y) {
+        final int n=x.length;
+        final float[] im=new float[n];
+        if (n<3) {
+            int i=0;
+            while (i<n) im[i++]=Float.MAX_VALUE;
+            return im;
+        }
+        im[0]=im[n-1]=Float.MAX_VALUE;
+        // explicit stack of segments (from, to, tolerance of the parent split)
+        int[] sa=new int[64], sb=new int[64];
+        float[] st=new float[64];
+        int sp=0;
+        sa[0]=0; sb[0]=n-1; st[0]=Float.MAX_VALUE; sp=1;
+        boolean first=true;
+        while (sp>0) {
+            sp--;
+            final int a=sa[sp], b=sb[sp];
+            final float pt=st[sp];
+            if (b-a<2) continue;
+            final double ax=x[a], ay=y[a], dx=x[b]-ax, dy=y[b]-ay;
+            final double ll=dx*dx+dy*dy;
+            double md=-1.0;
+            int mk=a+1;
+            int k=a+1;
+            while (k<b) {
+                double px=x[k]-ax, py=y[k]-ay;
+                if (ll>0.0) {
+                    double u=(px*dx+py*dy)/ll;
+                    if (u>1.0) u=1.0; else if (u<0.0) u=0.0;
+                    px-=u*dx; py-=u*dy;
+                }
+                final double d=px*px+py*py;
+                if (d>md) { md=d; mk=k; }
+                k++;
+            }
+            float d=(float)Math.sqrt(md);
+            if (first) { d=Float.MAX_VALUE; first=false; } // keep at least three points
+            if (d>pt) d=pt;
+            im[mk]=d;
+            if (sp+2>sa.length) {
+                final int nl=sa.length*2;
+                int[] na=new int[nl]; System.arraycopy(sa,0,na,0,sp); sa=na;
+                na=new int[nl]; System.arraycopy(sb,0,na,0,sp); sb=na;
+                final float[] nt=new float[nl]; System.arraycopy(st,0,nt,0,sp); st=nt;
+            }
+            sa[sp]=a; sb[sp]=mk; st[sp]=d; sp++;
+            sa[sp]=mk; sb[sp]=b; st[sp]=d; sp++;
+        }
+        return im;
+    }
+}
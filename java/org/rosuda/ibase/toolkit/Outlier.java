@@ -36,6 +36,10 @@ public class Outlier extends PPrimBase {
         return out.intersects(rt);
     }
     
+    public Rectangle getBounds() {
+        return out.getBounds();
+    }
+    
     public void paint(PoGraSS g, int orientation, SMarker m) {
         //....
     }
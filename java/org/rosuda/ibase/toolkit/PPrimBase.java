@@ -44,6 +44,22 @@ public abstract class PPrimBase implements PlotPrimitive {
 
     public boolean performAlphaBlending = true;
 
+    /** marker the cached mark counts belong to or <code>null</code> if there are no valid counts */
+    SMarker mcMarker;
+    /** reference list the cached mark counts were computed for */
+    int[] mcRef;
+    /** primary and secondary marker versions the cached mark counts correspond to */
+    long mcVersion, mcSecVersion;
+    /** cached number of primarily marked cases */
+    int mcMarked;
+    /** cached number of cases with a given secondary mark - in total and among the primarily marked cases (indexed by the secondary mark) */
+    int[] mcSec, mcSecMarked;
+
+    /** if set to <code>true</code> every use of cached mark counts is verified by a full recount. This is meant for testing only, because it defeats the purpose of the cache. */
+    public static boolean checkMarkCounts = false;
+    /** number of inconsistent mark counts found while {@link #checkMarkCounts} was set */
+    public static int markCountErrors = 0;
+
     public String toString() {
         return "PPrimBase["+cases()+" cases]";
     }
@@ -83,25 +99,88 @@ public abstract class PPrimBase implements PlotPrimitive {
         return getMarkedProportion(m,mark,false);
     }
 
-    /** calculates the proportion of cases with the given mark in relation to total population of cases represented by this PlotPrimitive. The value ranges between 0.0 (no cases with such mark) to 1.0 (all cases with that mark) */
+    /** calculates the proportion of cases with the given mark in relation to total population of cases represented by this PlotPrimitive. The value ranges between 0.0 (no cases with such mark) to 1.0 (all cases with that mark). The counts are cached and maintained incrementally (see {@link #validateMarkCounts}), so this is usually O(1). */
     public double getMarkedProportion(final SMarker m, final int mark, final boolean dropPrimary) {
         if (ref!=null && m!=null) {
-            
-            int j=0;
             final int pts=ref.length;
             if (pts==0) return 0d;
-            int sc=0;
-            while (j<pts) {
-                if ((mark==-1 && m.get(ref[j])==mark) || (mark>-1 && m.getSec(ref[j])==mark) && (dropPrimary?(m.get(ref[j])!=-1):(true))) sc++;
-                j++;
-            }
-            final Stopwatch sw = new Stopwatch();
-            sw.profile("PlotPrimitive.getMarkedProportion");
+            final int sc=validateMarkCounts(m)?getMarkCount(mark,dropPrimary):countMarks(m,mark,dropPrimary);
+            if (checkMarkCounts) checkCount(sc,countMarks(m,mark,dropPrimary),"marked("+mark+","+dropPrimary+")");
             return ((double)sc)/((double)pts);
         }
         return 0d;
     }
 
+    /** counts the cases with the given mark by scanning all represented cases (see {@link #getMarkedProportion(SMarker,int,boolean)} for the meaning of the parameters) */
+    int countMarks(final SMarker m, final int mark, final boolean dropPrimary) {
+        int j=0, sc=0;
+        final int pts=ref.length;
+        while (j<pts) {
+            if ((mark==-1 && m.get(ref[j])==mark) || (mark>-1 && m.getSec(ref[j])==mark) && (dropPrimary?(m.get(ref[j])!=-1):(true))) sc++;
+            j++;
+        }
+        return sc;
+    }
+
+    /** returns the number of cases with the given mark from the cached counts, which must be valid */
+    int getMarkCount(final int mark, final boolean dropPrimary) {
+        if (mark==-1) return mcMarked;
+        if (mark<0 || mark>=mcSec.length) return 0;
+        return dropPrimary?(mcSec[mark]-mcSecMarked[mark]):mcSec[mark];
+    }
+
+    void checkCount(final int cached, final int full, final String what) {
+        if (cached!=full) {
+            markCountErrors++;
+            System.err.println("PPrimBase: inconsistent cached count of "+what+": "+cached+", recount gives "+full+" ["+this+"]");
+        }
+    }
+
+    /** makes sure the cached mark counts are valid for the current state of the marker, recounting all represented cases if necessary. Changes of primary marks are usually applied incrementally by {@link BaseCanvas} via {@link #applyMarkChange}, so a recount happens only when the primitive is new, the secondary marks changed or the changes are not known.
+        @return <code>true</code> if the cached counts can be used, <code>false</code> if the marks can't be cached (negative secondary marks) */
+    protected boolean validateMarkCounts(final SMarker m) {
+        if (mcMarker==m && mcRef==ref && mcVersion==m.getVersion() && mcSecVersion==m.getSecVersion()) return true;
+        mcMarker=null;
+        int j=0, max=0;
+        final int pts=ref.length;
+        while (j<pts) {
+            final int s=m.getSec(ref[j++]);
+            if (s<0) return false;
+            if (s>max) max=s;
+        }
+        final int[] sec=new int[max+1], secm=new int[max+1];
+        int mc=0;
+        j=0;
+        while (j<pts) {
+            final int id=ref[j++];
+            final int s=m.getSec(id);
+            sec[s]++;
+            if (m.at(id)) { mc++; secm[s]++; }
+        }
+        mcSec=sec; mcSecMarked=secm; mcMarked=mc;
+        mcVersion=m.getVersion(); mcSecVersion=m.getSecVersion();
+        mcMarker=m; mcRef=ref;
+        return true;
+    }
+
+    /** updates the cached mark counts after the primary mark of one represented case was toggled. The counts are changed only if they are valid for the marker version <code>from</code>, so the update has to be finished by {@link #advanceMarkCounts}. If the case is represented multiple times, this method must be called once for each reference.
+        @param m marker
+        @param from marker version the changes are relative to
+        @param id case whose mark was toggled */
+    protected void applyMarkChange(final SMarker m, final long from, final int id) {
+        if (mcMarker!=m || mcRef!=ref || mcVersion!=from || mcSecVersion!=m.getSecVersion()) return;
+        final int s=m.getSec(id);
+        if (s<0 || s>=mcSec.length) { mcMarker=null; return; }
+        final int d=m.at(id)?1:-1;
+        mcMarked+=d;
+        mcSecMarked[s]+=d;
+    }
+
+    /** declares the cached mark counts valid for marker version <code>to</code> after all changes since version <code>from</code> were applied by {@link #applyMarkChange} */
+    protected void advanceMarkCounts(final SMarker m, final long from, final long to) {
+        if (mcMarker==m && mcRef==ref && mcVersion==from && mcSecVersion==m.getSecVersion()) mcVersion=to;
+    }
+
     /** returns the main color of the primitive */
     public Color getColor() { return col; }
     
@@ -153,12 +232,26 @@ public abstract class PPrimBase implements PlotPrimitive {
         double total=0;
         double selected=0;
         
+        final boolean cached=validateMarkCounts(m);
+        if (cached) {
+            if (mark>=0 && mark<mcSec.length) {
+                total=mcSec[mark];
+                selected=mcSecMarked[mark];
+            }
+            if (!checkMarkCounts) return ((total==0)?0:selected/total);
+        }
+        final double ct=total, cs=selected;
+        total=selected=0;
         for(int i=0; i<ref.length; i++){
             if(m.getSec(ref[i])==mark){
                 total++;
                 if(m.get(ref[i])==-1) selected++;
             }
         }
+        if (cached) {
+            checkCount((int)ct,(int)total,"secondary("+mark+")");
+            checkCount((int)cs,(int)selected,"marked secondary("+mark+")");
+        }
         return ((total==0)?0:selected/total);
     }
     
@@ -190,6 +283,9 @@ public abstract class PPrimBase implements PlotPrimitive {
     public void moveX(final int x){};
     public void moveY(final int y){};
     
+    /** returns <code>null</code>, subclasses with known geometry should override this method */
+    public Rectangle getBounds() { return null; }
+
     public boolean hilitcontains(int x, int y) {
     	return false;
     }
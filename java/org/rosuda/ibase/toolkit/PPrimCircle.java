@@ -135,6 +135,10 @@ public class PPrimCircle extends PPrimBase {
         }
     }
     
+    public Rectangle getBounds() {
+        return new Rectangle(x-diam/2-1,y-diam/2-1,diam+2,diam+2);
+    }
+    
     public boolean contains(final int x, final int y) {
         if(intersectionByArea){
             return((x-this.x)*(x-this.x)+(y-this.y)*(y-this.y) <= diam*diam/4);
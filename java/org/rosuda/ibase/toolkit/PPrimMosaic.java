@@ -1,6 +1,7 @@
 package org.rosuda.ibase.toolkit;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import org.rosuda.ibase.Common;
 import org.rosuda.ibase.SMarker;
 import org.rosuda.pograss.PoGraSS;
@@ -181,6 +182,12 @@ public class PPrimMosaic extends PPrimRectangle {
             return super.contains(x, y);
     }
     
+    public Rectangle getBounds() {
+        if(type == TYPE_MULTIPLEBARCHARTS || type == TYPE_FLUCTUATION)
+            return new Rectangle(origX, origY, fullW+1, fullH+1);
+        return (r==null)?null:new Rectangle(r.x, r.y, r.width+1, r.height+1);
+    }
+    
     public void paintSelected(final PoGraSS g, final int orientation, final SMarker m) {
         borderColorSel = (censored?borderColorSelCensored:borderColorSelUncensored);
         super.paintSelected(g, orientation, m);
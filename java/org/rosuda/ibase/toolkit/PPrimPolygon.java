@@ -75,6 +75,16 @@ public class PPrimPolygon extends PPrimBase {
         return false;
     }
     
+    public Rectangle getBounds() {
+        if(pg==null) return null;
+        final Rectangle b = pg.getBounds();
+        b.grow(nodeSize+1,nodeSize+1);
+        if(gapDotPs!=null)
+            for (Iterator it = gapDotPs.iterator(); it.hasNext();)
+                b.add(((PPrimCircle)it.next()).getBounds());
+        return b;
+    }
+    
     /** checks whether the PlotPrimitive intersects (or is contained) in the given rectangle. */
     public boolean intersects(final Rectangle rt) {
         if(pg==null) return false;
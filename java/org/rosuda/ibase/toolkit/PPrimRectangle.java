@@ -58,6 +58,8 @@ public class PPrimRectangle extends PPrimBase {
     
     /** checks whether the PlotPrimitive intersects (or is contained) in the given rectangle. */
     public boolean intersects(final Rectangle rt) { return (r==null)?false:r.intersects(rt); }
+
+    public Rectangle getBounds() { return r; }
     
     /** paint the primitive */
     public void paint(final PoGraSS g, final int orientation, final SMarker m) {
@@ -77,6 +77,26 @@ public abstract class PlotComponent {
 	public void setUpdateRoot(int root) {
 		grdev.setUpdateRoot(root);
 	}
+
+	/** restricts the next update to a part of the plot, see {@link GraphicsDevice#setUpdateClip} */
+	public void setUpdateClip(Rectangle r) {
+		grdev.setUpdateClip(r);
+	}
+	
+	/** marks an area of a layer as damaged, see {@link GraphicsDevice#addDamage} */
+	public void addDamage(int layer, Rectangle r) {
+		grdev.addDamage(layer, r);
+	}
+	
+	/** returns the content of the first layer before the last resize, see {@link GraphicsDevice#getPreviousImage} */
+	public Image getPreviousImage() {
+		return grdev.getPreviousImage();
+	}
+
+	/** discards the content of the first layer before the last resize, see {@link GraphicsDevice#releasePreviousImage} */
+	public void releasePreviousImage() {
+		grdev.releasePreviousImage();
+	}
 	
 	public QueryPopup newQueryPopup(final Window win, final SVarSet vs, final String ct, final int w, final int cid) {
 		if(GrDevID==SWINGGrDevID) {
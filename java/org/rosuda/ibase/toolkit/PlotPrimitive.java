@@ -29,6 +29,10 @@ public interface PlotPrimitive {
     /** checks whether the PlotPrimitive intersects (or is contained) in the given rectangle. */
     boolean intersects(Rectangle rt);
 
+    /** returns a rectangle enclosing all points for which {@link #contains} or {@link #intersects} can return <code>true</code>. It is used for spatial indexing only, so it may be larger than the primitive, but never smaller. The returned rectangle must not be modified.
+        @return bounding box or <code>null</code> if unknown (such primitives are always tested) */
+    Rectangle getBounds();
+
     /** returns the main color of the primitive (this is usually the fill color for primitives that have both fill and draw colors */
     Color getColor();
 
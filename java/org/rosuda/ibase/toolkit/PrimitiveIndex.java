@@ -0,0 +1,215 @@
+package org.rosuda.ibase.toolkit;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/** PrimitiveIndex - uniform grid over the bounding boxes of an array of plot primitives, used by {@link BaseCanvas} to answer hit-tests without scanning all primitives. Each grid cell lists the indices of all primitives whose bounding box overlaps the cell (in ascending order), so queries can preserve the order of the primitives array. Primitives without bounding box (see {@link PlotPrimitive#getBounds}) and primitives spanning a large part of the grid are kept in a separate list and are tested on every query.
+    <p>The index is a snapshot - it must be rebuilt whenever the geometry of the primitives changes.
+    @version $Id$
+*/
+public class PrimitiveIndex {
+    /** primitives with a bounding box that spans more cells than this are not stored in the grid */
+    static final int MAX_SPAN = 256;
+
+    /** the primitives this index was built for */
+    final PlotPrimitive[] pp;
+    /** grid origin */
+    int gx, gy;
+    /** cell size (in pixels) and number of cells in each direction */
+    int cw, ch, nx, ny;
+    /** start of each cell's entries in {@link #items} (length nx*ny+1) */
+    int[] offsets;
+    /** primitive indices, grouped by cell */
+    int[] items;
+    /** indices of primitives that are tested on every query (ascending) */
+    int[] always;
+
+    /** query stamps used to remove duplicates from rectangle queries */
+    int[] seen;
+    int stamp;
+
+    /** builds a new index for the given primitives
+        @param p primitives (<code>null</code> entries are allowed) */
+    public PrimitiveIndex(PlotPrimitive[] p) {
+        pp=p;
+        final int n=pp.length;
+        final Rectangle[] b=new Rectangle[n];
+        int x1=Integer.MAX_VALUE, y1=Integer.MAX_VALUE, x2=Integer.MIN_VALUE, y2=Integer.MIN_VALUE;
+        int i=0, bc=0;
+        while (i<n) {
+            if (pp[i]!=null) {
+                final Rectangle r=pp[i].getBounds();
+                if (r!=null && r.width>=0 && r.height>=0) {
+                    b[i]=r; bc++;
+                    if (r.x<x1) x1=r.x;
+                    if (r.y<y1) y1=r.y;
+                    if (r.x+r.width>x2) x2=r.x+r.width;
+                    if (r.y+r.height>y2) y2=r.y+r.height;
+                }
+            }
+            i++;
+        }
+        if (bc==0) { x1=y1=0; x2=y2=1; }
+        gx=x1; gy=y1;
+        // aim at roughly one primitive per cell, but don't make cells smaller than 4 pixels
+        final int w=x2-x1+1, h=y2-y1+1;
+        int cs=(int)Math.sqrt(((double)w)*((double)h)/((double)((bc<1)?1:bc)));
+        if (cs<4) cs=4;
+        cw=ch=cs;
+        nx=(w+cw-1)/cw; ny=(h+ch-1)/ch;
+        if (nx<1) nx=1;
+        if (ny<1) ny=1;
+
+        // pass 1: count entries per cell
+        final int[] cnt=new int[nx*ny+1];
+        int alw=0;
+        i=0;
+        while (i<n) {
+            if (pp[i]!=null) {
+                final Rectangle r=b[i];
+                if (r==null || span(r)>MAX_SPAN) { b[i]=null; alw++; }
+                else {
+                    final int cx1=cellX(r.x), cx2=cellX(r.x+r.width), cy1=cellY(r.y), cy2=cellY(r.y+r.height);
+                    int cy=cy1;
+                    while (cy<=cy2) {
+                        int cx=cx1;
+                        while (cx<=cx2) cnt[cy*nx+(cx++)+1]++;
+                        cy++;
+                    }
+                }
+            }
+            i++;
+        }
+        offsets=new int[nx*ny+1];
+        int c=1;
+        while (c<=nx*ny) { offsets[c]=offsets[c-1]+cnt[c]; c++; }
+        // pass 2: fill cells (in ascending order of primitive indices)
+        items=new int[offsets[nx*ny]];
+        always=new int[alw];
+        final int[] pos=new int[nx*ny];
+        System.arraycopy(offsets, 0, pos, 0, nx*ny);
+        alw=0;
+        i=0;
+        while (i<n) {
+            if (pp[i]!=null) {
+                final Rectangle r=b[i];
+                if (r==null) always[alw++]=i;
+                else {
+                    final int cx1=cellX(r.x), cx2=cellX(r.x+r.width), cy1=cellY(r.y), cy2=cellY(r.y+r.height);
+                    int cy=cy1;
+                    while (cy<=cy2) {
+                        int cx=cx1;
+                        while (cx<=cx2) items[pos[cy*nx+(cx++)]++]=i;
+                        cy++;
+                    }
+                }
+            }
+            i++;
+        }
+    }
+
+    /** returns the primitives array this index was built for */
+    public PlotPrimitive[] getPrimitives() { return pp; }
+
+    int span(Rectangle r) {
+        return (cellX(r.x+r.width)-cellX(r.x)+1)*(cellY(r.y+r.height)-cellY(r.y)+1);
+    }
+
+    int cellX(int x) {
+        x=(x-gx)/cw;
+        return (x<0)?0:((x>=nx)?nx-1:x);
+    }
+
+    int cellY(int y) {
+        y=(y-gy)/ch;
+        return (y<0)?0:((y>=ny)?ny-1:y);
+    }
+
+    /** returns the first primitive (in the order of the primitives array) containing the given point or <code>null</code> if there is none */
+    public PlotPrimitive getFirstContaining(int x, int y) {
+        final int c=cellY(y)*nx+cellX(x);
+        int i=offsets[c], ie=offsets[c+1], j=0;
+        while (i<ie || j<always.length) {
+            final int k;
+            if (j>=always.length || (i<ie && items[i]<always[j])) k=items[i++]; else k=always[j++];
+            if (pp[k].contains(x,y)) return pp[k];
+        }
+        return null;
+    }
+
+    /** returns all primitives containing the given point (in the order of the primitives array) */
+    public PlotPrimitive[] getContaining(int x, int y) {
+        final int c=cellY(y)*nx+cellX(x);
+        int i=offsets[c], ie=offsets[c+1], j=0, l=0;
+        final PlotPrimitive[] buf=new PlotPrimitive[ie-i+always.length];
+        while (i<ie || j<always.length) {
+            final int k;
+            if (j>=always.length || (i<ie && items[i]<always[j])) k=items[i++]; else k=always[j++];
+            if (pp[k].contains(x,y)) buf[l++]=pp[k];
+        }
+        final PlotPrimitive[] ret=new PlotPrimitive[l];
+        System.arraycopy(buf, 0, ret, 0, l);
+        return ret;
+    }
+
+    /** returns the indices of all primitives (in ascending order) whose bounding box may intersect the given rectangle. This includes all primitives that are not stored in the grid, so the result is a superset of the primitives that actually intersect the rectangle. */
+    public int[] getCandidates(Rectangle rt) {
+        return getCandidates(new Rectangle[] { rt });
+    }
+
+    /** returns the indices of all primitives (in ascending order) whose bounding box may intersect any of the given rectangles, see {@link #getCandidates(Rectangle)} */
+    public int[] getCandidates(Rectangle[] rts) {
+        if (seen==null) seen=new int[pp.length];
+        stamp++;
+        if (stamp==0) { Arrays.fill(seen, 0); stamp=1; }
+        int ct=always.length;
+        int k=0;
+        while (k<rts.length) {
+            final Rectangle rt=rts[k++];
+            final int cx1=cellX(rt.x), cx2=cellX(rt.x+rt.width), cy1=cellY(rt.y), cy2=cellY(rt.y+rt.height);
+            int cy=cy1;
+            while (cy<=cy2) {
+                ct+=offsets[cy*nx+cx2+1]-offsets[cy*nx+cx1];
+                cy++;
+            }
+        }
+        final int[] cand=new int[ct];
+        int l=0;
+        k=0;
+        while (k<rts.length) {
+            final Rectangle rt=rts[k++];
+            final int cx1=cellX(rt.x), cx2=cellX(rt.x+rt.width), cy1=cellY(rt.y), cy2=cellY(rt.y+rt.height);
+            int cy=cy1;
+            while (cy<=cy2) {
+                int i=offsets[cy*nx+cx1];
+                final int ie=offsets[cy*nx+cx2+1];
+                while (i<ie) {
+                    final int c=items[i++];
+                    if (seen[c]!=stamp) { seen[c]=stamp; cand[l++]=c; }
+                }
+                cy++;
+            }
+        }
+        System.arraycopy(always, 0, cand, l, always.length);
+        l+=always.length;
+        Arrays.sort(cand, 0, l);
+        if (l==ct) return cand;
+        final int[] ret=new int[l];
+        System.arraycopy(cand, 0, ret, 0, l);
+        return ret;
+    }
+
+    /** returns all primitives intersecting the given rectangle (in the order of the primitives array) */
+    public PlotPrimitive[] getIntersecting(Rectangle rt) {
+        final int[] cand=getCandidates(rt);
+        final PlotPrimitive[] buf=new PlotPrimitive[cand.length];
+        int j=0, i=0;
+        while (i<cand.length) {
+            final PlotPrimitive p=pp[cand[i++]];
+            if (p.intersects(rt)) buf[j++]=p;
+        }
+        final PlotPrimitive[] ret=new PlotPrimitive[j];
+        System.arraycopy(buf, 0, ret, 0, j);
+        return ret;
+    }
+}
@@ -0,0 +1,117 @@
+package org.rosuda.ibase.toolkit;
+
+import org.rosuda.ibase.*;
+import org.rosuda.util.*;
+
+/** SeriesPyramid - minimum and maximum of a series over blocks of consecutive cases, used to draw long series with one vertical line per pixel column instead of one line per case (M4 decimation: first, last, minimum and maximum value of each column). Level 0 consists of blocks of {@link #BASE} cases and each further level merges pairs of blocks of the previous level, so the pyramid uses about 4 doubles per {@link #BASE} cases and a visible range at any zoom level is drawn from a level with at most one block per pixel column.
+    <p>Missing values are ignored; the minimum and maximum of a block with missing values only are NaN. The pyramid is a snapshot - it must be rebuilt whenever the contents of the variable change.
+    @version $Id$
+*/
+public class SeriesPyramid {
+    /** number of cases in a block of level 0 */
+    public static final int BASE = 16;
+
+    /** the series */
+    final SVar v;
+    /** number of cases at the time the pyramid was built */
+    final int n;
+    /** content version of the series the pyramid was built from, see {@link SVar#getContentVersion} */
+    final long version;
+    /** minima and maxima of the blocks - level k has blocks of BASE<<k cases */
+    final double[][] min, max;
+
+    /** builds the pyramid of a numeric variable */
+    public SeriesPyramid(final SVar var) {
+        v=var;
+        n=v.size();
+        version=v.getContentVersion();
+        int nl=0, nb=(n+BASE-1)/BASE;
+        while (nb>1) { nl++; nb=(nb+1)/2; }
+        if (n>0) nl++;
+        min=new double[nl][];
+        max=new double[nl][];
+        if (nl==0) return;
+        nb=(n+BASE-1)/BASE;
+        final double[] mn=min[0]=new double[nb], mx=max[0]=new double[nb];
+        Parallel.forRange(nb, 4096, new Parallel.Task() {
+            public void run(final int chunk, final int from, final int to) {
+                int b=from;
+                while (b<to) {
+                    double lo=Double.NaN, hi=Double.NaN;
+                    int i=b*BASE;
+                    final int e=(i+BASE<n)?i+BASE:n;
+                    while (i<e) {
+                        final double d=v.atD(i++);
+                        if (!Double.isNaN(d)) {
+                            if (Double.isNaN(lo)) lo=hi=d;
+                            else if (d<lo) lo=d; else if (d>hi) hi=d;
+                        }
+                    }
+                    mn[b]=lo; mx[b]=hi;
+                    b++;
+                }
+            }
+        });
+        int l=1;
+        while (l<nl) {
+            final double[] pmn=min[l-1], pmx=max[l-1];
+            final int pb=pmn.length;
+            nb=(pb+1)/2;
+            final double[] cmn=min[l]=new double[nb], cmx=max[l]=new double[nb];
+            int b=0;
+            while (b<nb) {
+                final int k=b+b;
+                if (k+1<pb) {
+                    cmn[b]=lower(pmn[k],pmn[k+1]);
+                    cmx[b]=upper(pmx[k],pmx[k+1]);
+                } else {
+                    cmn[b]=pmn[k]; cmx[b]=pmx[k];
+                }
+                b++;
+            }
+            l++;
+        }
+    }
+
+    /** returns the smaller of two values ignoring NaNs (NaN if both are NaN) */
+    public static double lower(final double a, final double b) {
+        return (Double.isNaN(a) || b<a)?b:a;
+    }
+
+    /** returns the larger of two values ignoring NaNs (NaN if both are NaN) */
+    public static double upper(final double a, final double b) {
+        return (Double.isNaN(a) || b>a)?b:a;
+    }
+
+    /** returns the variable this pyramid was built for */
+    public SVar getVariable() { return v; }
+
+    /** returns <code>true</code> if the pyramid still matches the contents of its variable */
+    public boolean isValid() { return v.size()==n && v.getContentVersion()==version; }
+
+    /** returns the number of cases covered by the pyramid */
+    public int size() { return n; }
+
+    /** returns the number of levels */
+    public int levels() { return min.length; }
+
+    /** returns the number of cases in each block of a level */
+    public int getBlockSize(final int level) { return BASE<<level; }
+
+    /** returns the number of blocks in a level */
+    public int getBlocks(final int level) { return min[level].length; }
+
+    /** returns the level with the largest blocks that don't exceed the given number of cases, or -1 if even the blocks of level 0 are larger, i.e. the cases should be drawn directly
+        @param casesPerPixel number of cases per pixel column */
+    public int getLevel(final double casesPerPixel) {
+        int l=-1;
+        while (l+1<min.length && (BASE<<(l+1))<=casesPerPixel) l++;
+        return l;
+    }
+
+    /** returns the minimum of a block (NaN if all values of the block are missing) */
+    public double getMin(final int level, final int block) { return min[level][block]; }
+
+    /** returns the maximum of a block (NaN if all values of the block are missing) */
+    public double getMax(final int level, final int block) { return max[level][block]; }
+}
@@ -9,6 +9,8 @@ package org.rosuda.iplots;
 import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
@@ -32,6 +34,12 @@ public class Framework implements Dependent, ActionListener {
 
     public int graphicsEngine = PlotComponent.AWTGrDevID; // default
     
+    /** scatterplots of more cases than this use {@link PixelScatterCanvas} which doesn't create plot primitives. Set to a negative value to always use {@link ScatterCanvas}. */
+    public int pixelScatterThreshold = 100000;
+    
+    /** parallel coordinate plots of more cases than this are drawn in density mode (see {@link ParallelAxesCanvas#setDensityMode}). Set to a negative value to always draw individual lines. */
+    public int densityPCPThreshold = 1000000;
+    
     private BaseCanvas[] plots;
     
     /** initialize framework, create and select a dataset which id called "default".
@@ -179,6 +187,25 @@ public class Framework implements Dependent, ActionListener {
         return dataset.indexOf(cvs);
     }
     
+    /** loads a dataset from an FLF2 file (see {@link LoaderFLF2}) into a new dataset which becomes the current one.
+     * @param fileName name of the file
+     * @param name name of the new dataset or <code>null</code> for an automatic name
+     * @param mapped if <code>true</code> the variables read their values from the memory-mapped file (see {@link SVarBuffer}) instead of keeping them on the heap, so datasets larger than the heap can be used
+     * @return ID of the new dataset or -1 if the file cannot be loaded */
+    public int loadFLF2(final String fileName, final String name, final boolean mapped) {
+        final SVarSet vs=new SVarSet();
+        try {
+            new LoaderFLF2().load(new File(fileName), vs, mapped);
+        } catch (IOException e) {
+            System.err.println("Framework.loadFLF2: "+e.getMessage());
+            return -1;
+        }
+        final int id=newSet(name);
+        int i=0;
+        while (i<vs.count()) addVar(vs.at(i++));
+        return id;
+    }
+
     public int getLength() {
         return (cvs==null || cvs.at(0)==null)?0:cvs.at(0).size();
     }
@@ -421,16 +448,7 @@ public class Framework implements Dependent, ActionListener {
      * @return variable ID (same as vi) */
     public int replaceVar(final int vi, final double[] d) {
         final SVar v=cvs.at(vi);
-        if (v==null) return -1;
-	if (v instanceof SVarDouble) {
-	    ((SVarDouble)v).replaceAll(d);
-	} else {
-	    /*
-	    v.getNotifier().beginBatch();
-	    int i=0; while(i<d.length) { v.replace(i,new Double(d[i])); i++; }
-	    v.getNotifier().endBatch(); */
-	    return -1;
-	}
+        if (v==null || !v.replaceAll(d)) return -1;
         return vi;
     }
     
@@ -441,22 +459,58 @@ public class Framework implements Dependent, ActionListener {
      * @return variable ID (same as vi) */
     public int replaceVar(final int vi, final int[] d) {
         final SVar v=cvs.at(vi);
-        if (v==null) return -1;
-	if (v instanceof SVarInt) {
-	    ((SVarInt)v).replaceAll(d);
-	} else	if (v instanceof SVarDouble) {
-	    ((SVarDouble)v).replaceAll(d);
-	} else {
-	    /*
-	      v.getNotifier().beginBatch();
-	      int i=0; while(i<d.length) { v.replace(i,new Integer(d[i])); i++; }
-	      v.getNotifier().endBatch();
-	    */
-	    return -1;
-	}
+        if (v==null || !v.replaceAll(d)) return -1;
         return vi;
     }
     
+    /** replaces a range of cases of a variable. Like all <code>replaceVar</code> methods it doesn't notify the plots, use {@link #contentsChanged} once all modifications are done.
+     * @param vi ID of the variable
+     * @param start index of the first case to replace
+     * @param d new values
+     * @return variable ID (same as vi) or -1 on failure */
+    public int replaceVarRange(final int vi, final int start, final double[] d) {
+        final SVar v=cvs.at(vi);
+        if (v==null || !v.replaceRange(start, d, 0, d.length)) return -1;
+        return vi;
+    }
+    
+    /** replaces a range of cases of a variable, see {@link #replaceVarRange(int,int,double[])}. */
+    public int replaceVarRange(final int vi, final int start, final int[] d) {
+        final SVar v=cvs.at(vi);
+        if (v==null || !v.replaceRange(start, d, 0, d.length)) return -1;
+        return vi;
+    }
+    
+    /** replaces the values of selected cases of a variable, see {@link #replaceVarRange(int,int,double[])}.
+     * @param vi ID of the variable
+     * @param cases indices of the cases (0-based)
+     * @param d new values (same length as <code>cases</code>)
+     * @return variable ID (same as vi) or -1 on failure */
+    public int replaceVarCases(final int vi, final int[] cases, final double[] d) {
+        final SVar v=cvs.at(vi);
+        if (v==null || !v.replaceCases(cases, d)) return -1;
+        return vi;
+    }
+    
+    /** appends cases to a variable and enlarges the marker if necessary. Note that many plots assume that all variables of a dataset have the same size, so usually all variables should be appended to before calling {@link #contentsChanged}.
+     * @param vi ID of the variable
+     * @param d values to append
+     * @return variable ID (same as vi) or -1 on failure */
+    public int appendVar(final int vi, final double[] d) {
+        final SVar v=cvs.at(vi);
+        if (v==null || !v.append(d, 0, d.length)) return -1;
+        final SMarker m=cvs.getMarker();
+        if (m!=null && v.size()>m.size()) m.resize(v.size());
+        return vi;
+    }
+    
+    /** notifies all plots of the current dataset that the contents of variables have changed by sending a single NM_VarContentChange message. Unlike {@link #update} the cached ranks are kept, because the <code>replaceVar</code> methods take care of them. */
+    public void contentsChanged() {
+        if (cvs==null) return;
+        final SMarker m=cvs.getMarker();
+        if (m!=null) m.NotifyAll(new NotifyMsg(m,Common.NM_VarContentChange));
+    }
+    
     /** replaces the content of a variable. it is meant for modification ONLY. note that the length of
      * the new content cannot exceed the original size of the variable, no cases are added.
      * @param vi ID of the variable
@@ -477,8 +531,10 @@ public class Framework implements Dependent, ActionListener {
         return vi;
     }
     
-    /** updates any plots associated with the current dataset by sending NM_VarContentChange message */
+    /** updates any plots associated with the current dataset by sending NM_VarContentChange message. Cached ranks of all variables are discarded, because their contents may have been modified directly. */
     public void update() {
+        int i=0;
+        while (i<cvs.count()) cvs.at(i++).invalidateRanks();
         final SMarker m=cvs.getMarker();
         if (m!=null) m.NotifyAll(new NotifyMsg(m,Common.NM_VarContentChange));
     }
@@ -552,7 +608,9 @@ public class Framework implements Dependent, ActionListener {
         frdev.initPlacement();
         frdev.setVisible(true);
         frdev.addWindowListener(Common.getDefaultWindowListener());
-        final ScatterCanvas sc=new ScatterCanvas(graphicsEngine,frdev.getFrame(),vs.at(v1),vs.at(v2),vs.getMarker());
+        final ScatterCanvas sc=(pixelScatterThreshold>=0 && vs.at(v1).size()>pixelScatterThreshold)?
+            new PixelScatterCanvas(graphicsEngine,frdev.getFrame(),vs.at(v1),vs.at(v2),vs.getMarker()):
+            new ScatterCanvas(graphicsEngine,frdev.getFrame(),vs.at(v1),vs.at(v2),vs.getMarker());
 		frdev.add(sc.getComponent());
         if (vs.getMarker()!=null) vs.getMarker().addDepend(sc);
         sc.setSize(new Dimension(400,300));
@@ -723,6 +781,7 @@ public class Framework implements Dependent, ActionListener {
         int i=0;
         while(i<v.length) { vl[i]=vs.at(v[i]); i++; }
         final ParallelAxesCanvas pcpc=new ParallelAxesCanvas(graphicsEngine,frdev.getFrame(),vl,vs.getMarker(),ParallelAxesCanvas.TYPE_PCP);
+        if (densityPCPThreshold>=0 && vl[0].size()>densityPCPThreshold) pcpc.setDensityMode(true);
         frdev.add(pcpc.getComponent());
         if (vs.getMarker()!=null) vs.getMarker().addDepend(pcpc);
         pcpc.setSize(new Dimension(400,300));
@@ -865,10 +924,79 @@ public class Framework implements Dependent, ActionListener {
         if (cvs!=null) cvs.getMarker().NotifyAll(new NotifyMsg(this,Common.NM_MarkerChange));
     }
     
+    /** returns the version of the selection of the current dataset, see {@link SMarker#getVersion}. The version changes whenever the selection changes, so it can be used to detect changes cheaply.
+     * @return version or -1 if there is no current dataset */
+    public long getSelectionVersion() {
+        if (cvs==null || cvs.getMarker()==null) return -1;
+        return cvs.getMarker().getVersion();
+    }
+    
+    /** returns the cases whose selection changed since the given version of the selection of the current dataset, see {@link SMarker#getChangedSince(long,boolean)}
+     * @param since version as returned by {@link #getSelectionVersion}
+     * @param selected <code>true</code> for cases that were selected, <code>false</code> for cases that were deselected
+     * @return IDs of the cases (0-based, ascending) or <code>null</code> if the changes are not known (e.g. because too many cases changed since that version) */
+    public int[] getSelectionChanges(final long since, final boolean selected) {
+        if (cvs==null || cvs.getMarker()==null) return null;
+        return cvs.getMarker().getChangedSince(since, selected);
+    }
+    
+    /** returns all cases whose selection changed since the given version of the selection of the current dataset in one array, so the changes have to be determined only once. Cases that were selected are returned as their ID, cases that were deselected as <code>-1-ID</code>.
+     * @param since version as returned by {@link #getSelectionVersion}
+     * @return encoded IDs of the cases (ascending by ID) or <code>null</code> if the changes are not known */
+    public int[] getSelectionChanges(final long since) {
+        if (cvs==null || cvs.getMarker()==null) return null;
+        final SMarker m=cvs.getMarker();
+        final int[] c=m.getChangedSince(since);
+        if (c==null) return null;
+        final int[] r=new int[c.length];
+        int i=0;
+        while (i<c.length) { r[i]=m.at(c[i])?c[i]:(-1-c[i]); i++; }
+        return r;
+    }
+    
+    /** sets the number of changes of the selection of the current dataset that are remembered for {@link #getSelectionChanges}
+     * @param size number of changes */
+    public void setSelectionLogSize(final int size) {
+        if (cvs!=null && cvs.getMarker()!=null) cvs.getMarker().setChangeLogSize(size);
+    }
+    
+    /** combines the selection of the current dataset with a list of cases in one step.
+     * @param ids IDs of the cases (0-based), IDs out of range are ignored
+     * @param mode one of the <code>SMarker.SEL_xxx</code> constants
+     * @param batch if <code>true</code> the dependents are not notified, otherwise they are notified once */
+    public void selectCases(final int[] ids, final int mode, final boolean batch) {
+        if (cvs==null || cvs.getMarker()==null) return;
+        cvs.getMarker().apply(ids, mode);
+        if (!batch) updateMarker();
+    }
+    
+    /** combines the selection of the current dataset with a logical mask in one step, see {@link #selectCases(int[],int,boolean)}
+     * @param sel mask indexed by case ID */
+    public void selectCases(final boolean[] sel, final int mode, final boolean batch) {
+        if (cvs==null || cvs.getMarker()==null) return;
+        cvs.getMarker().apply(sel, mode);
+        if (!batch) updateMarker();
+    }
+    
+    /** combines the selection of the current dataset with a byte mask (e.g. a raw vector) in one step, see {@link #selectCases(int[],int,boolean)}
+     * @param sel mask indexed by case ID, non-zero entries denote selected cases */
+    public void selectCases(final byte[] sel, final int mode, final boolean batch) {
+        if (cvs==null || cvs.getMarker()==null) return;
+        cvs.getMarker().apply(sel, mode);
+        if (!batch) updateMarker();
+    }
+    
     public void updateVars() {
         if (cvs!=null) cvs.getMarker().NotifyAll(new NotifyMsg(this,Common.NM_VarChange));
     }
     
+    /** switches asynchronous delivery of notifications sent by the marker of the current dataset. If enabled, calls changing the selection return immediately and the plots are updated later on the event dispatch thread, merging redundant updates.
+     * @param async <code>true</code> for asynchronous, <code>false</code> for synchronous delivery */
+    public void setAsyncNotification(final boolean async) {
+        if (cvs!=null && cvs.getMarker()!=null)
+            cvs.getMarker().setDispatcher(async?NotifyDispatcher.getDefault():null);
+    }
+    
     public void actionPerformed(final ActionEvent e) {
         Common.breakDispatcher.NotifyAll(new NotifyMsg(this,Common.NM_ActionEvent,e.getActionCommand()));
     }
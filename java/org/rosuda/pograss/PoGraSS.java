@@ -108,6 +108,8 @@ public class PoGraSS
     public void drawRect(int x1, int y1, int w, int h) {};
     public void fillRect(int x1, int y1, int w, int h) {};
     public void drawImage(PoGraSSimage img, int x1, int y1, int x2, int y2) {};
+    /** draws the part <code>sx1,sy1-sx2,sy2</code> of an image scaled into the area <code>x1,y1-x2,y2</code> */
+    public void drawImage(PoGraSSimage img, int x1, int y1, int x2, int y2, int sx1, int sy1, int sx2, int sy2) {};
     public void roundRect(int x1, int y1, int x2, int y2, int dx, int dy) {};
     public void drawRoundRect(int x1, int y1, int x2, int y2, int dx, int dy) {};
     public void fillRoundRect(int x1, int y1, int x2, int y2, int dx, int dy) {};
@@ -203,6 +205,12 @@ public class PoGraSS
     public void setClip(int x, int y, int width, int height) {};
     public void resetClip() {};
 
+    /** returns the area that is actually updated by this paint or <code>null</code> if the entire plot is painted. Drawing outside of this area has no effect, so it can be skipped. */
+    public Rectangle getUpdateArea() { return null; };
+
+    /** returns the rectangles that are actually updated by this paint (their bounding box is returned by {@link #getUpdateArea}) or <code>null</code> if the entire plot is painted. */
+    public Rectangle[] getUpdateAreas() { return null; };
+
     public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {};
     public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {};
 }
@@ -25,6 +25,10 @@ public class PoGraSSgraphics extends PoGraSS {
     Color curFillC;
     Color curPenC;
     Font currentFont;
+    /** bounds of the area that is being updated if this instance was created for a partial update (see {@link #PoGraSSgraphics(Graphics2D,int,Rectangle[])}), <code>null</code> otherwise. {@link #setClip} and {@link #resetClip} never paint outside of this area. */
+    Rectangle baseClip;
+    /** rectangles that are being updated if the update area consists of several rectangles, <code>null</code> otherwise */
+    Rectangle[] baseAreas;
     
     /** construct an instance of {@link PoGraSS} associated with a {@link Graphics}.
      * @param G associated Graphics
@@ -37,6 +41,29 @@ public class PoGraSSgraphics extends PoGraSS {
         G.setColor(curPenC);
     }
     
+    /** construct an instance of {@link PoGraSS} associated with a {@link Graphics} which paints only the given rectangles. The clip of the graphics context is set to cover these rectangles.
+     * @param G associated Graphics
+     * @param layer layer to paint or -1 if all
+     * @param areas rectangles to update */
+    public PoGraSSgraphics(Graphics2D G, int layer, Rectangle[] areas) {
+        this(G,layer);
+        if (areas!=null && areas.length>0) {
+            G.setClip(areas.length==1?areas[0]:(Shape)unionOf(areas));
+            baseClip=G.getClipBounds();
+            if (areas.length>1) {
+                baseAreas=new Rectangle[areas.length];
+                System.arraycopy(areas, 0, baseAreas, 0, areas.length);
+            }
+        }
+    }
+
+    static java.awt.geom.Area unionOf(Rectangle[] rs) {
+        final java.awt.geom.Area a=new java.awt.geom.Area();
+        int i=0;
+        while (i<rs.length) a.add(new java.awt.geom.Area(rs[i++]));
+        return a;
+    }
+
     /** construct an instance of {@link PoGraSS} associated with a {@link Graphics}, paint all layers
      * @param G associated Graphics */
     public PoGraSSgraphics(Graphics2D G) {
@@ -93,6 +120,10 @@ public class PoGraSSgraphics extends PoGraSS {
 	public void drawImage(PoGraSSimage img, int x1, int y1, int x2, int y2) {
 		if (paintLayer == -1 || paintLayer == curLayer) g.drawImage(img.getImage(), x1, y1, x2 - x1, y2 - y1, null);
 	}
+	
+	public void drawImage(PoGraSSimage img, int x1, int y1, int x2, int y2, int sx1, int sy1, int sx2, int sy2) {
+		if (paintLayer == -1 || paintLayer == curLayer) g.drawImage(img.getImage(), x1, y1, x2, y2, sx1, sy1, sx2, sy2, null);
+	}
     public void drawRoundRect(int x1, int y1, int x2, int y2, int dx, int dy) {
         if (paintLayer==-1 || paintLayer==curLayer) g.drawRoundRect(x1,y1,x2,y2,dx,dy);
     };
@@ -211,11 +242,31 @@ public class PoGraSSgraphics extends PoGraSS {
     }
     
     public void resetClip() {
-        g.setClip(getBounds());
+        if (baseAreas!=null) g.setClip(unionOf(baseAreas));
+        else g.setClip((baseClip!=null)?baseClip:getBounds());
     }
     
     public void setClip(int x, int y, int width, int height) {
-        g.setClip(x, y, width, height);
+        if (baseAreas!=null) {
+            final java.awt.geom.Area a=unionOf(baseAreas);
+            a.intersect(new java.awt.geom.Area(new Rectangle(x, y, width, height)));
+            g.setClip(a);
+        } else if (baseClip!=null) g.setClip(baseClip.intersection(new Rectangle(x, y, width, height)));
+        else g.setClip(x, y, width, height);
+    }
+
+    public Rectangle getUpdateArea() {
+        return (baseClip==null)?null:new Rectangle(baseClip);
+    }
+
+    public Rectangle[] getUpdateAreas() {
+        if (baseAreas!=null) {
+            final Rectangle[] r=new Rectangle[baseAreas.length];
+            int i=0;
+            while (i<r.length) { r[i]=new Rectangle(baseAreas[i]); i++; }
+            return r;
+        }
+        return (baseClip==null)?null:new Rectangle[] { new Rectangle(baseClip) };
     }
     
     public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
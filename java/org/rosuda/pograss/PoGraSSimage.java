@@ -22,6 +22,11 @@ public class PoGraSSimage {
 		img = javax.imageio.ImageIO.read(stream);
 	}
 	
+	/** wraps an existing image */
+	public PoGraSSimage(Image image) {
+		img = image;
+	}
+	
 	/** Get the underlying graphics image representation */	 
 	protected Image getImage() {
 		return img;
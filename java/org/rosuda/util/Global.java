@@ -28,6 +28,11 @@ public class Global {
     public static boolean useAquaBg=false;
     /** if set to <code>true</code> all graphic routines should set the anti-aliasing hint */ 
     public static boolean forceAntiAliasing=true;
+    /** maximal number of threads used for parallel computations (see {@link Parallel}), 0 means one per available processor */
+    public static int maxThreads=0;
+    /** if set to <code>true</code> the off-screen layers of plots use accelerated (volatile) images where available
+        parameter equivalent: --without-accel (to disable) */
+    public static boolean useAcceleratedLayers=true;
     /** AppType contstant: stand-alone application */
     public static final int AT_standalone = 0x0000;
     /** AppType contstant: applet (set by applet wrapper) */
@@ -84,6 +89,10 @@ public class Global {
                 Global.useAquaBg=false;
                 remove=true;
             }
+            if (argv[carg].compareTo("--without-accel")==0) {
+                Global.useAcceleratedLayers=false;
+                remove=true;
+            }
             if (!remove) rem.addElement(argv[carg]);
             carg++;
         }
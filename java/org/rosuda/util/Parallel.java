@@ -0,0 +1,100 @@
+package org.rosuda.util;
+
+/** Parallel - simple data-parallel loops over index ranges. The range is split into contiguous chunks which are processed by separate threads, the calling thread processes the last chunk itself and returns once all chunks are done. Chunks are numbered in ascending order of their indices, so tasks can keep partial results per chunk and merge them afterwards in chunk order - this makes the result independent of the number of threads used.
+    @version $Id$
+*/
+public class Parallel {
+    /** a task processing one chunk of a range */
+    public static interface Task {
+        /** processes the indices <code>from</code> (inclusive) to <code>to</code> (exclusive).
+            @param chunk chunk number (0..chunks-1) */
+        void run(int chunk, int from, int to);
+    }
+
+    /** returns the number of threads to use, see {@link Global#maxThreads} */
+    public static int threads() {
+        int n=Global.maxThreads;
+        if (n<1) n=Runtime.getRuntime().availableProcessors();
+        return (n<1)?1:n;
+    }
+
+    /** returns the number of chunks a range of <code>n</code> indices is split into by {@link #forRange}
+        @param n size of the range
+        @param minChunk minimal number of indices per chunk */
+    public static int chunks(int n, int minChunk) {
+        if (minChunk<1) minChunk=1;
+        int c=n/minChunk;
+        final int t=threads();
+        if (c>t) c=t;
+        return (c<1)?1:c;
+    }
+
+    /** returns the first index of a chunk
+        @param n size of the range
+        @param chunks number of chunks
+        @param c chunk number (<code>chunks</code> gives the end of the range) */
+    public static int chunkStart(int n, int chunks, int c) {
+        return (int)(((long)n)*((long)c)/((long)chunks));
+    }
+
+    /** runs a task on all chunks of the range 0..n-1. Any exception thrown by a chunk is re-thrown in the calling thread after all chunks finished.
+        @param n size of the range
+        @param minChunk minimal number of indices per chunk - ranges smaller than twice this size are processed by the calling thread only
+        @param t task
+        @return number of chunks used (same as {@link #chunks}<code>(n,minChunk)</code>) */
+    public static int forRange(final int n, final int minChunk, final Task t) {
+        return forChunks(n,chunks(n,minChunk),t);
+    }
+
+    /** runs a task on a fixed number of chunks of the range 0..n-1. Each chunk except for the last one is processed by a separate thread. Use this variant if several passes over the range must use the same chunks.
+        @param n size of the range
+        @param ch number of chunks
+        @param t task
+        @return number of chunks used */
+    public static int forChunks(final int n, int ch, final Task t) {
+        if (ch<1) ch=1;
+        if (ch==1) {
+            t.run(0,0,n);
+            return 1;
+        }
+        final Throwable[] err=new Throwable[1];
+        final Thread[] th=new Thread[ch-1];
+        int c=0;
+        while (c<ch-1) {
+            final int cn=c, from=chunkStart(n,ch,c), to=chunkStart(n,ch,c+1);
+            th[c]=new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        t.run(cn,from,to);
+                    } catch (Throwable e) {
+                        synchronized (err) { if (err[0]==null) err[0]=e; }
+                    }
+                }
+            }, "Parallel-"+c);
+            th[c].start();
+            c++;
+        }
+        Throwable own=null;
+        try {
+            t.run(ch-1,chunkStart(n,ch,ch-1),n);
+        } catch (Throwable e) {
+            own=e;
+        }
+        c=0;
+        boolean interrupted=false;
+        while (c<ch-1) {
+            try {
+                th[c].join();
+                c++;
+            } catch (InterruptedException ie) {
+                interrupted=true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (own==null) synchronized (err) { own=err[0]; }
+        if (own instanceof RuntimeException) throw (RuntimeException)own;
+        if (own instanceof Error) throw (Error)own;
+        if (own!=null) throw new RuntimeException("Parallel: "+own);
+        return ch;
+    }
+}